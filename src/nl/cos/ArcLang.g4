@@ -11,22 +11,23 @@ statement: systemReturn S_SEMICOLON             #SystemReturnStatement
          | variableDeclaration S_SEMICOLON      #VariableDeclarationStatement
          | expression S_SEMICOLON               #ExpressionStatement;
 
-//Expressions that has a return value
-expression: variableInitialization                                              #VariableInitExpr
-          | left=expression MATH_MUL right=expression                           #MathMulExpr
-          | left=expression MATH_DIV right=expression                           #MathDivExpr
-          | left=expression MATH_MOD right=expression                           #MathModExpr
-          | left=expression MATH_ADD right=expression                           #MathAddExpr
-          | left=expression MATH_SUB right=expression                           #MathSubExpr
-          | left=expression booleanLogicalComperator right=expression           #BoolLogicalComprExpr
-          | left=expression booleanComparator right=expression                  #BoolComprExpr
-          | B_NOT expression                                                    #BoolNotExpr
-          | systemExp                                                           #SystemExpr
-          | variable                                                            #VariableExpr
-          | functionInit                                                        #FunctionInitExpr
-          | functionCall                                                        #FunctionCallExpr
-          | literal                                                             #LiteralExpr
-          | S_PAREN_OPEN expression S_PAREN_CLOSE                               #ParenedExpr;
+//Expressions that has a return value. The operators are grouped from the highest precedence to the lowest,
+//and the operators of one group are left associative: a - b + c is (a - b) + c. Not comes last, so it negates
+//everything after it: ~ a && b is ~(a && b)
+expression: left=expression op=(MATH_MUL | MATH_DIV | MATH_MOD) right=expression                #MathMultiplicativeExpr
+          | left=expression op=(MATH_ADD | MATH_SUB) right=expression                           #MathAdditiveExpr
+          | left=expression op=(B_LESS | B_GRATER | B_LESS_EQUAL | B_GREATER_EQUAL) right=expression   #BoolComprExpr
+          | left=expression op=(B_EQUAL | B_NOT_EQUAL) right=expression                         #BoolComprExpr
+          | left=expression op=B_AND right=expression                                           #BoolLogicalComprExpr
+          | left=expression op=B_OR right=expression                                            #BoolLogicalComprExpr
+          | B_NOT expression                                                                    #BoolNotExpr
+          | variableInitialization                                                              #VariableInitExpr
+          | systemExp                                                                           #SystemExpr
+          | variable                                                                            #VariableExpr
+          | functionInit                                                                        #FunctionInitExpr
+          | functionCall                                                                        #FunctionCallExpr
+          | literal                                                                             #LiteralExpr
+          | S_PAREN_OPEN expression S_PAREN_CLOSE                                               #ParenedExpr;
 
 // ==========================[ VARIABLES ]==========================
 variableDeclaration: E_IDENTIFIER S_COLON varType                           #VariableEmptyDec
@@ -72,8 +73,6 @@ literal: VAL_STRING   #LiteralString
        | E_TRUE       #LiteralTrue
        | E_FALSE      #LiteralFalse
        | E_NULL       #LiteralNull;
-booleanComparator: B_LESS | B_GRATER | B_EQUAL | B_NOT_EQUAL | B_GREATER_EQUAL | B_LESS_EQUAL;
-booleanLogicalComperator: B_OR | B_AND;
 number: MATH_SUB VAL_FLOAT          #NegativeFloat
       | MATH_SUB VAL_INT            #NegativeInt
       | VAL_INT                     #PositiveInt
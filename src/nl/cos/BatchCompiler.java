@@ -0,0 +1,184 @@
+package nl.cos;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many sources in one go, on a pool of threads that share one {@link Compiler}, so the
+ * JVM is started and the parser is warmed up only once. Every source is compiled into files next
+ * to it, just like a single source. When a source can not be compiled, the error is kept with its
+ * result instead of being printed, and the other sources are compiled anyway.
+ */
+public class BatchCompiler {
+	/**
+	 * What came of compiling one source.
+	 */
+	public static class Result {
+		private final Path source;
+		private final long nanos;
+		private final String error;
+
+		Result( Path source, long nanos, String error ) {
+			this.source = source;
+			this.nanos = nanos;
+			this.error = error;
+		}
+
+		public Path getSource() {
+			return source;
+		}
+
+		/**
+		 * Returns how long compiling the source and writing its files took.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Returns why the source could not be compiled, or null if it was.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		public boolean isCompiled() {
+			return error == null;
+		}
+	}
+
+	private final Compiler compiler;
+	private final boolean emitJasmin;
+
+	/**
+	 * @param compiler    The compiler to compile every source with.
+	 * @param emitJasmin  Whether to write the Jasmin-code with the bytecode backend as well.
+	 */
+	public BatchCompiler( Compiler compiler, boolean emitJasmin ) {
+		this.compiler = compiler;
+		this.emitJasmin = emitJasmin;
+	}
+
+	/**
+	 * Compiles the sources on a fork-join pool with the given number of threads.
+	 *
+	 * @return  The results, in the order of the sources
+	 * @throws InterruptedException if the thread was interrupted while waiting for the results
+	 */
+	public List<Result> compile( List<Path> sources, int threads ) throws InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Callable<Result>> tasks = new ArrayList<>();
+			for( Path source : sources ) tasks.add(() -> compile(source));
+
+			List<Result> results = new ArrayList<>();
+			for( Future<Result> result : pool.invokeAll(tasks) ) {
+				try {
+					results.add(result.get());
+				} catch( ExecutionException e ) {
+					//compile(source) catches everything a compilation can throw
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private Result compile( Path source ) {
+		long start = System.nanoTime();
+		String error;
+		try {
+			error = compiler.compileToFiles(source, emitJasmin);
+		} catch( Exception e ) {
+			error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+		}
+		return new Result(source, System.nanoTime() - start, error);
+	}
+
+	/**
+	 * Returns true if the argument is a glob pattern rather than the name of a file.
+	 */
+	public static boolean isPattern( String argument ) {
+		return argument.contains("*") || argument.contains("?") || argument.contains("[") || argument.contains("{");
+	}
+
+	/**
+	 * Returns the sources the arguments stand for: a file stands for itself, a directory for all
+	 * <code>.arc</code> files in it and below it, and a glob pattern for the files it matches.
+	 * The sources are sorted and every one is listed once.
+	 *
+	 * @throws IOException if a directory could not be read, or a file or directory does not exist
+	 */
+	public static List<Path> findSources( List<String> arguments ) throws IOException {
+		TreeSet<Path> sources = new TreeSet<>();
+		for( String argument : arguments ) {
+			if( isPattern(argument) ) {
+				//Only the directories before the first wildcard have to be searched
+				String fixed = argument.substring(0, firstWildcard(argument));
+				int separator = Math.max(fixed.lastIndexOf('/'), fixed.lastIndexOf(File.separatorChar));
+				Path base = separator < 0 ? Paths.get(".") : Paths.get(fixed.substring(0, separator + 1));
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + argument);
+				if( !Files.isDirectory(base) ) continue;
+				try( Stream<Path> files = Files.walk(base) ) {
+					for( Path file : files.filter(Files::isRegularFile).collect(Collectors.toList()) ) {
+						Path candidate = separator < 0 ? base.relativize(file) : file;
+						if( matcher.matches(candidate) ) sources.add(candidate);
+					}
+				}
+			} else if( Files.isDirectory(Paths.get(argument)) ) {
+				try( Stream<Path> files = Files.walk(Paths.get(argument)) ) {
+					files.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".arc")).forEach(sources::add);
+				}
+			} else if( Files.isRegularFile(Paths.get(argument)) ) {
+				sources.add(Paths.get(argument));
+			} else {
+				throw new IOException("No such source: " + argument);
+			}
+		}
+		return new ArrayList<>(sources);
+	}
+
+	private static int firstWildcard( String argument ) {
+		int first = argument.length();
+		for( char wildcard : new char[] {'*', '?', '[', '{'} ) {
+			int index = argument.indexOf(wildcard);
+			if( index >= 0 ) first = Math.min(first, index);
+		}
+		return first;
+	}
+
+	/**
+	 * Prints a line for every source with how long it took and why it failed if it did, and a
+	 * line with the totals.
+	 *
+	 * @param wallNanos  How long compiling all sources took from start to end
+	 */
+	public static void printSummary( List<Result> results, long wallNanos, PrintStream out ) {
+		long total = 0;
+		int compiled = 0;
+		for( Result result : results ) {
+			total += result.getNanos();
+			if( result.isCompiled() ) compiled++;
+			out.println(String.format("%-4s %9.1f ms  %s%s", result.isCompiled() ? "OK" : "FAIL",
+					result.getNanos() / 1e6, result.getSource(), result.isCompiled() ? "" : ": " + result.getError()));
+		}
+		out.println(String.format("Compiled %d of %d source(s) in %.1f ms, %.1f ms of compile time", compiled, results.size(), wallNanos / 1e6, total / 1e6));
+	}
+}
@@ -0,0 +1,86 @@
+package nl.cos;
+
+import nl.cos.jasmin.DataType;
+import nl.cos.typing.SymbolTable;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the {@link Compiler} works out while it compiles one source: the syntax errors,
+ * the global scope and the types and scopes of the nodes of the parse tree. Every
+ * compilation gets a context of its own, so a compiler keeps nothing from one compilation to the
+ * next and can compile on several threads at the same time.
+ * <p>
+ * Syntax errors are always kept in the context. They are also printed to System.err, the way
+ * ANTLR does by default, unless the compilation hands them to its caller instead, like the
+ * {@link BatchCompiler} and the {@link CompileServer} do.
+ */
+final class CompilationContext {
+	private final String className;
+	private final SymbolTable symbolTable;
+	private final ParseTreeProperty<DataType> pt;
+	private final ParseTreeProperty<SymbolTable> st;
+	private final List<String> syntaxErrors;
+	private final boolean printSyntaxErrors;
+
+	CompilationContext( String className ) {
+		this(className, true);
+	}
+
+	CompilationContext( String className, boolean printSyntaxErrors ) {
+		this.className = className;
+		this.printSyntaxErrors = printSyntaxErrors;
+		this.symbolTable = new SymbolTable(1, false);
+		this.pt = new ParseTreeProperty<>();
+		this.st = new ParseTreeProperty<>();
+		this.syntaxErrors = new ArrayList<>();
+	}
+
+	String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Returns the global scope of the source.
+	 */
+	SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Returns the type of every expression in the parse tree.
+	 */
+	ParseTreeProperty<DataType> getTypes() {
+		return pt;
+	}
+
+	/**
+	 * Returns the scope of every node in the parse tree that needs one.
+	 */
+	ParseTreeProperty<SymbolTable> getScopes() {
+		return st;
+	}
+
+	/**
+	 * Keeps an error found by the lexer or the parser.
+	 */
+	void addSyntaxError( String message ) {
+		syntaxErrors.add(message);
+	}
+
+	/**
+	 * Returns true if syntax errors are printed to System.err as well as kept.
+	 */
+	boolean isPrintingSyntaxErrors() {
+		return printSyntaxErrors;
+	}
+
+	/**
+	 * Returns the errors found by the lexer and the parser, such as "line 1:5 missing ';'".
+	 */
+	List<String> getSyntaxErrors() {
+		return syntaxErrors;
+	}
+}
@@ -0,0 +1,87 @@
+package nl.cos;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Compiles sources through a {@link CompileServer} on this machine, and compiles them in this
+ * process instead when no server is running or the server compiles with other options. The
+ * connection to the server is kept open between sources, and opened again when it was lost.
+ */
+public class CompileClient implements Closeable {
+	/** How long to wait for the server; on the loopback address it answers right away if it runs. */
+	private static final int CONNECT_TIMEOUT_MILLIS = 200;
+
+	private final int port;
+	private final Compiler compiler;
+	private final String options;
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+	public CompileClient( CompilerOptions options ) {
+		this(options, CompileServer.DEFAULT_PORT);
+	}
+
+	/**
+	 * @param options  The options to compile with, which the server has to use as well
+	 * @param port     The port the server listens on
+	 */
+	public CompileClient( CompilerOptions options, int port ) {
+		this.port = port;
+		this.compiler = new Compiler(options);
+		this.options = options.describe();
+	}
+
+	/**
+	 * Compiles a source, through the server if it can be reached.
+	 */
+	public synchronized CompileResult compile( String source, String className ) {
+		//A connection that was kept open may have been closed by the server since, so that one
+		//gets a second try on a new connection
+		boolean reused = socket != null;
+		for( int attempt = 0; attempt < (reused ? 2 : 1); attempt++ ) {
+			try {
+				if( socket == null ) connect();
+				CompileServer.writeRequest(out, options, className, source);
+				CompileResult result = CompileServer.readResult(in);
+				if( result != null ) return result;
+				disconnect();
+				break;
+			} catch( IOException e ) {
+				disconnect();
+			}
+		}
+		return CompileServer.compile(compiler, source, className, false);
+	}
+
+	private void connect() throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.socket = socket;
+		} catch( IOException e ) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private void disconnect() {
+		if( socket == null ) return;
+		try {
+			socket.close();
+		} catch( IOException e ) {
+			//It is not used anymore anyway
+		}
+		socket = null;
+	}
+
+	@Override
+	public synchronized void close() {
+		disconnect();
+	}
+}
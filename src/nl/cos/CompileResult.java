@@ -0,0 +1,47 @@
+package nl.cos;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What came of compiling a source through a {@link CompileClient}: the class file, or the
+ * errors that kept it from being compiled.
+ */
+public class CompileResult {
+	private final byte[] classBytes;
+	private final List<String> diagnostics;
+	private final boolean fromServer;
+
+	CompileResult( byte[] classBytes, List<String> diagnostics, boolean fromServer ) {
+		this.classBytes = classBytes;
+		this.diagnostics = Collections.unmodifiableList(diagnostics);
+		this.fromServer = fromServer;
+	}
+
+	/**
+	 * Returns the class file, or null if the source could not be compiled.
+	 */
+	public byte[] getClassBytes() {
+		return classBytes;
+	}
+
+	/**
+	 * Returns the syntax errors or the error that kept the source from being compiled; the list
+	 * is empty if it was compiled.
+	 */
+	public List<String> getDiagnostics() {
+		return diagnostics;
+	}
+
+	public boolean isCompiled() {
+		return classBytes != null;
+	}
+
+	/**
+	 * Returns true if a {@link CompileServer} compiled the source, and false if it was compiled
+	 * in this process because no server could be reached.
+	 */
+	public boolean isFromServer() {
+		return fromServer;
+	}
+}
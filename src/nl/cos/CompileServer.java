@@ -0,0 +1,211 @@
+package nl.cos;
+
+import nl.cos.exceptions.AssembleException;
+import nl.cos.io.AssembledClass;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a compiler running, so that compiling a source does not have to wait for a JVM to start
+ * and for the lexer and the parser to warm up. The server only listens on the loopback address.
+ * A {@link CompileClient} sends it sources over a connection that stays open for as many
+ * sources as the client likes, and gets back the class file or the errors.
+ * <p>
+ * A request is the {@link #MAGIC} number, the description of the options the client compiles
+ * with, the class name and the source code. The answer starts with {@link #COMPILED},
+ * {@link #FAILED} or {@link #OTHER_OPTIONS}, followed by the class file for the first and the
+ * errors for the others. Numbers are written as Java's DataOutputStream writes them, and texts
+ * and the class file as their length followed by their (UTF-8) bytes.
+ */
+public class CompileServer implements Closeable {
+	/** The port the server listens on when it is not given one. */
+	public static final int DEFAULT_PORT = 7431;
+
+	static final int MAGIC = 0x41524331;
+	static final byte COMPILED = 0;
+	static final byte FAILED = 1;
+	static final byte OTHER_OPTIONS = 2;
+	/** The largest text or class file that is read, so a bad request can not use up the memory. */
+	static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+	private final Compiler compiler;
+	private final String options;
+	private final ServerSocket serverSocket;
+	private final ExecutorService workers;
+	private final Set<Socket> connections;
+
+	/**
+	 * Starts listening, but does not accept connections until {@link #serve()} is called.
+	 *
+	 * @param options  The options to compile with; clients that use other options are turned away
+	 * @param port     The port to listen on, or 0 for any free port
+	 * @throws IOException if the port could not be listened on
+	 */
+	public CompileServer( CompilerOptions options, int port ) throws IOException {
+		this.compiler = new Compiler(options);
+		this.options = options.describe();
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.workers = Executors.newCachedThreadPool();
+		this.connections = ConcurrentHashMap.newKeySet();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Warms up the parser and then accepts connections until the server is closed. Every
+	 * connection is served on a thread of its own.
+	 */
+	public void serve() {
+		try {
+			Compiler.warmUp();
+		} catch( IOException e ) {
+			System.err.println("Could not warm up the parser: " + e.getMessage());
+		}
+		while( !serverSocket.isClosed() ) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.add(socket);
+				workers.execute(() -> handle(socket));
+			} catch( IOException e ) {
+				//Closing the server stops accept() with an exception
+				if( !serverSocket.isClosed() ) System.err.println("Could not accept a connection: " + e.getMessage());
+			}
+		}
+	}
+
+	private void handle( Socket socket ) {
+		try( Socket connection = socket;
+		     DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+		     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream())) ) {
+			while( true ) {
+				int magic;
+				try {
+					magic = in.readInt();
+				} catch( EOFException e ) {
+					//The client is done
+					return;
+				}
+				if( magic != MAGIC ) return;
+				String clientOptions = readText(in);
+				String className = readText(in);
+				String source = readText(in);
+
+				if( !clientOptions.equals(options) ) {
+					out.writeByte(OTHER_OPTIONS);
+					writeText(out, "The server compiles with " + options);
+				} else {
+					writeResult(out, compile(compiler, source, className, true));
+				}
+				out.flush();
+			}
+		} catch( SocketException e ) {
+			//The client went away, or the server was closed
+		} catch( IOException e ) {
+			System.err.println("Could not serve a client: " + e.getMessage());
+		} finally {
+			connections.remove(socket);
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes the open ones, so their clients compile by
+	 * themselves from then on.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		for( Socket connection : connections ) connection.close();
+		workers.shutdown();
+	}
+
+	/**
+	 * Compiles a source, turning every error into a diagnostic. A bug in the compiler fails the
+	 * compilation of that source only, not the connection or the server.
+	 */
+	static CompileResult compile( Compiler compiler, String source, String className, boolean fromServer ) {
+		List<String> diagnostics = new ArrayList<>();
+		byte[] classBytes = null;
+		try {
+			AssembledClass assembledClass = compiler.compileStringToClass(source, className, diagnostics);
+			if( assembledClass != null ) classBytes = assembledClass.getClassBytes();
+		} catch( AssembleException | RuntimeException e ) {
+			diagnostics.add(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+		}
+		return new CompileResult(classBytes, diagnostics, fromServer);
+	}
+
+	static void writeRequest( DataOutputStream out, String options, String className, String source ) throws IOException {
+		out.writeInt(MAGIC);
+		writeText(out, options);
+		writeText(out, className);
+		writeText(out, source);
+		out.flush();
+	}
+
+	private static void writeResult( DataOutputStream out, CompileResult result ) throws IOException {
+		if( result.isCompiled() ) {
+			out.writeByte(COMPILED);
+			writeBytes(out, result.getClassBytes());
+		} else {
+			out.writeByte(FAILED);
+			out.writeInt(result.getDiagnostics().size());
+			for( String diagnostic : result.getDiagnostics() ) writeText(out, diagnostic);
+		}
+	}
+
+	/**
+	 * Reads the answer to a request.
+	 *
+	 * @return  The result, or null if the server compiles with other options
+	 * @throws IOException if the answer could not be read
+	 */
+	static CompileResult readResult( DataInputStream in ) throws IOException {
+		byte status = in.readByte();
+		if( status == COMPILED ) return new CompileResult(readBytes(in), new ArrayList<>(), true);
+		if( status == OTHER_OPTIONS ) {
+			readText(in);
+			return null;
+		}
+		if( status != FAILED ) throw new IOException("Unknown answer from the compile server: " + status);
+
+		int count = in.readInt();
+		if( count < 0 || count > MAX_LENGTH ) throw new IOException("Bad number of diagnostics: " + count);
+		List<String> diagnostics = new ArrayList<>();
+		for( int i = 0; i < count; i++ ) diagnostics.add(readText(in));
+		return new CompileResult(null, diagnostics, true);
+	}
+
+	private static void writeText( DataOutputStream out, String text ) throws IOException {
+		writeBytes(out, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readText( DataInputStream in ) throws IOException {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static void writeBytes( DataOutputStream out, byte[] bytes ) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes( DataInputStream in ) throws IOException {
+		int length = in.readInt();
+		if( length < 0 || length > MAX_LENGTH ) throw new IOException("Bad length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -1,35 +1,77 @@
 package nl.cos;
 
+import nl.cos.bytecode.LimitCalculator;
 import nl.cos.compiler.CodeGenerator;
+import nl.cos.compiler.ConstantFolder;
+import nl.cos.compiler.IrCodeGenerator;
+import nl.cos.compiler.IrGenerator;
 import nl.cos.exceptions.AssembleException;
 import nl.cos.exceptions.CompilerException;
 import nl.cos.compiler.TypeChecker;
+import nl.cos.compiler.UsageAnalyzer;
 import nl.cos.io.AssembledClass;
+import nl.cos.io.CompilationCache;
 import nl.cos.io.JasminBytecode;
 import nl.cos.jasmin.DataType;
+import nl.cos.jasmin.JasminClass;
+import nl.cos.jasmin.JasminField;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.ir.IrOptimizer;
+import nl.cos.ir.IrProgram;
+import nl.cos.peephole.PeepholeOptimizer;
 import nl.cos.typing.SymbolTable;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
 import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Compiles source code in a custom language into Jasmin and then assembles a
  * JVM-compatible .class file.
- *
+ * <p>
+ * A compiler only holds its options: everything about one compilation is kept in a
+ * {@link CompilationContext} of its own. The same compiler can therefore be used for any number
+ * of compilations, also after one that failed, and on several threads at the same time, as long
+ * as the optimizers and cache in its options are not changed meanwhile.
  */
 public class Compiler {
+	private static final String WARMUP_CORPUS = "warmup.arc";
+
+	private final CompilerOptions options;
+
 	/**
-	 * The number of errors detected by the lexer and parser.
+	 * Creates a compiler with the default options.
 	 */
-	private int errorCount = 0;
-	private SymbolTable symbolTable;
-	private ParseTreeProperty<DataType> pt;
-	private ParseTreeProperty<SymbolTable> st;
+	public Compiler() {
+		this(new CompilerOptions());
+	}
 
+	/**
+	 * Creates a compiler with the given options.
+	 *
+	 * @param options    The options to compile with.
+	 */
+	public Compiler( CompilerOptions options ) {
+		this.options = options;
+	}
 
 	/**
 	 * Compiles a complete source code file.
@@ -57,6 +99,51 @@ public class Compiler {
 		return compile( CharStreams.fromString(sourceCode), className );
 	}
 
+	/**
+	 * Compiles a complete source code file into a class, using the backend from the options.
+	 *
+	 * @param inputPath    Path to the source code to compile.
+	 * @param className    Name of the class to create.
+	 * @throws IOException if files could not be read or written
+	 * @throws AssembleException if the generated code could not be assembled
+	 */
+	public AssembledClass compileFileToClass(String inputPath, String className )
+			throws IOException, AssembleException {
+		return compileToClass( CharStreams.fromFileName(inputPath), new CompilationContext(className) );
+	}
+
+	/**
+	 * Compiles a string into a class, using the backend from the options.
+	 *
+	 * @param sourceCode       The source code to compile.
+	 * @param className    Name of the class to create.
+	 * @throws AssembleException if the generated code could not be assembled
+	 */
+	public AssembledClass compileStringToClass(String sourceCode, String className )
+			throws AssembleException {
+		return compileToClass( CharStreams.fromString(sourceCode), new CompilationContext(className) );
+	}
+
+	/**
+	 * Compiles a string into a class, and adds the syntax errors to the list, if there are any,
+	 * instead of printing them.
+	 *
+	 * @param sourceCode    The source code to compile.
+	 * @param className     Name of the class to create.
+	 * @param syntaxErrors  The list to add the errors found by the lexer and the parser to.
+	 * @return              The class, or null if the source code has syntax errors
+	 * @throws AssembleException if the generated code could not be assembled
+	 */
+	AssembledClass compileStringToClass( String sourceCode, String className, List<String> syntaxErrors )
+			throws AssembleException {
+		CompilationContext context = new CompilationContext(className, false);
+		try {
+			return compileToClass( CharStreams.fromString(sourceCode), context );
+		} finally {
+			syntaxErrors.addAll(context.getSyntaxErrors());
+		}
+	}
+
 	/**
 	 * Compiles a file. The source code is lexed (turned into tokens), parsed (a parse tree
 	 * created) then Jasmin code is generated and assembled into a class.
@@ -64,153 +151,521 @@ public class Compiler {
 	 * @param className    Name of the class to create.
 	 */
 	private JasminBytecode compile( CharStream input, String className ) {
+		return compile(input, new CompilationContext(className));
+	}
+
+	private JasminBytecode compile( CharStream input, CompilationContext context ) {
+		// Phase 1-3: Parse and check the source code
+		ParseTree parseTree = parseAndCheck(input, context);
+		if( parseTree == null ) return null;
+
+		// Phase 4: Generate code
+		return renderJasmin(generateClass(parseTree, context));
+	}
+
+	/**
+	 * Compiles a file into a class. When the bytecode backend is selected, the generated code is
+	 * encoded straight into a class file instead of being written out and assembled by Jasmin.
+	 * With a cache in the options, a class that was compiled before from the same source, class
+	 * name and options is read from the cache instead, and a newly compiled class is stored in it.
+	 * @param input      Stream to the source code input.
+	 * @param context    The compilation, with the name of the class to create.
+	 */
+	private AssembledClass compileToClass( CharStream input, CompilationContext context ) throws AssembleException {
+		CompilationCache cache = options.getCache();
+		if( cache == null ) return compileToClassUncached(input, context);
+
+		String className = context.getClassName();
+		String key = CompilationCache.key(input.toString(), className, options.describe());
+		AssembledClass assembledClass = cache.get(key, className);
+		if( assembledClass != null ) return assembledClass;
+
+		assembledClass = compileToClassUncached(input, context);
+		if( assembledClass == null ) return null;
+		try {
+			cache.put(key, assembledClass);
+		} catch( IOException e ) {
+			// The class is fine, it just has to be compiled again next time
+			System.err.println("Could not write to the compilation cache: " + e.getMessage());
+		}
+		return assembledClass;
+	}
+
+	private AssembledClass compileToClassUncached( CharStream input, CompilationContext context ) throws AssembleException {
+		// Phase 1-3: Parse and check the source code
+		ParseTree parseTree = parseAndCheck(input, context);
+		if( parseTree == null ) return null;
+
+		// Phase 4: Generate code and turn it into a class
+		return assemble(generateClass(parseTree, context), null);
+	}
+
+	/**
+	 * Turns the generated class into a class file with the backend from the options. The bytecode
+	 * backend encodes it directly, the Jasmin backend assembles its Jasmin-code.
+	 *
+	 * @param jasminClass     The generated class
+	 * @param jasminBytecode  The Jasmin-code of the class if it was rendered already, or null
+	 * @throws AssembleException if the generated code could not be assembled
+	 */
+	private AssembledClass assemble( JasminClass jasminClass, JasminBytecode jasminBytecode ) throws AssembleException {
+		if( options.getBackend() == CompilerOptions.Backend.BYTECODE )
+			return AssembledClass.write(jasminClass);
+		if( options.getTargetVersion() != CompilerOptions.JASMIN_VERSION )
+			throw new AssembleException("Class file version " + options.getTargetVersion() + " needs the bytecode backend");
+		return AssembledClass.assemble(jasminBytecode != null ? jasminBytecode : renderJasmin(jasminClass));
+	}
+
+	/**
+	 * Runs the lexer, the parser and the type checker on the source code.
+	 * @param input     The input
+	 * @param context   The compilation to store the types and scopes in
+	 * @return          The checked parse tree, or null if the source code contained errors
+	 */
+	private ParseTree parseAndCheck( CharStream input, CompilationContext context ) {
 		// Phase 1/2: Run the lexer and parser
-		ParseTree parseTree = runLexerAndParser(input);
+		ParseTree parseTree = runLexerAndParser(input, context);
 
 		// ANTLR tries to do its best in creating a parse tree, even if the source code contains
 		// errors. So, check if that is the case and bail out if so.
-		if( errorCount > 0 )
+		if( !context.getSyntaxErrors().isEmpty() )
 			return null;
 
-		pt = new ParseTreeProperty<>();
-		st = new ParseTreeProperty<>();
-		symbolTable = new SymbolTable(1,false);
-
 		// Phase 3: Check the source code for semantic errors
-		if( !runChecker(parseTree) ) return null;
-
-		// Phase 4: Generate code
-		return generateCode( parseTree, className);
+		if( !runChecker(parseTree, context) ) return null;
+		return parseTree;
 	}
 
 	/**
 	 * Takes the character input and turn it into tokens according to the grammar.
 	 * Then, tries to form a parse tree from the given tokens. In case of errors, the error listener is
 	 * called, but the parser still tries to create a parse tree.
-	 * @param input   The input
-	 * @return        A parse tree
+	 * @param input     The input
+	 * @param context   The compilation to keep the errors in
+	 * @return          A parse tree
 	 */
-	private ParseTree runLexerAndParser( CharStream input ) {
+	private ParseTree runLexerAndParser( CharStream input, CompilationContext context ) {
 		ArcLangLexer lexer = new ArcLangLexer(input);
-		lexer.addErrorListener(getErrorListener());
+		lexer.removeErrorListeners();
+		if( context.isPrintingSyntaxErrors() ) lexer.addErrorListener(ConsoleErrorListener.INSTANCE);
+		lexer.addErrorListener(getErrorListener(context));
 		CommonTokenStream tokens = new CommonTokenStream(lexer);
 
+		if( context.isPrintingSyntaxErrors() )
+			return parse(tokens, true, ConsoleErrorListener.INSTANCE, getErrorListener(context));
+		return parse(tokens, true, getErrorListener(context));
+	}
+
+	/**
+	 * Parses a program from the tokens. With two stages, the parser first predicts with SLL, which
+	 * only looks at the rule it is in and is much cheaper for the many alternatives of
+	 * <code>expression</code>. SLL parses every valid program the same as full LL, but may reject
+	 * a valid program, so it gives up at the first error and the tokens are parsed again with LL.
+	 * Only that second parse reports errors, so every error is reported once and with the same
+	 * message as a parse with LL alone.
+	 *
+	 * @param tokens      The tokens to parse
+	 * @param twoStage    Whether to try SLL first, or parse with LL right away
+	 * @param listeners   The listeners to report syntax errors to
+	 * @return            A parse tree
+	 */
+	static ParseTree parse( CommonTokenStream tokens, boolean twoStage, ANTLRErrorListener... listeners ) {
 		ArcLangParser parser = new ArcLangParser(tokens);
-		parser.addErrorListener(getErrorListener());
+		parser.removeErrorListeners();
+		if( twoStage ) {
+			parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+			parser.setErrorHandler(new BailErrorStrategy());
+			try {
+				return parser.program();
+			} catch( ParseCancellationException e ) {
+				//SLL could not parse it, which does not have to mean the program is wrong
+				tokens.seek(0);
+				parser.reset();
+				parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+				parser.setErrorHandler(new DefaultErrorStrategy());
+			}
+		}
+		for( ANTLRErrorListener listener : listeners ) parser.addErrorListener(listener);
 		return parser.program();
 	}
 
+	/**
+	 * Parses the bundled warm-up corpus, see {@link #warmUp(Iterable)}.
+	 *
+	 * @throws IOException if the corpus could not be read
+	 */
+	public static void warmUp() throws IOException {
+		InputStream corpus = Compiler.class.getResourceAsStream(WARMUP_CORPUS);
+		if( corpus == null ) throw new FileNotFoundException("Missing warm-up corpus " + WARMUP_CORPUS);
+		try( InputStream in = corpus ) {
+			warmUp(Collections.singletonList(new String(readAll(in), StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Parses the sources without compiling them. The lexer and the parser keep the decisions
+	 * they work out in a DFA cache that all compilers in the JVM share, so the first sources
+	 * that are really compiled are parsed as fast as the ones after them. Syntax errors in the
+	 * sources are ignored.
+	 *
+	 * @param sources   The sources to parse
+	 */
+	public static void warmUp( Iterable<String> sources ) {
+		for( String source : sources ) {
+			ArcLangLexer lexer = new ArcLangLexer(CharStreams.fromString(source));
+			lexer.removeErrorListeners();
+			parse(new CommonTokenStream(lexer), true);
+		}
+	}
+
+	private static byte[] readAll( InputStream in ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for( int read = in.read(buffer); read >= 0; read = in.read(buffer) ) bytes.write(buffer, 0, read);
+		return bytes.toByteArray();
+	}
+
 	/**
 	 * Called to check if the source code was semantically correct. This method is only called when
 	 * there were no syntax errors.
 	 *
 	 * @param parseTree  The parse tree generated by the parser
+	 * @param context    The compilation to store the types and scopes in
 	 * @return           True if all code is semantically correct
 	 */
-	private boolean runChecker(ParseTree parseTree) {
-
-
-		TypeChecker ltc = new TypeChecker(pt, st, symbolTable);
+	private boolean runChecker(ParseTree parseTree, CompilationContext context) {
+		TypeChecker ltc = new TypeChecker(context.getTypes(), context.getScopes(), context.getSymbolTable());
 		ltc.visit(parseTree);
 
 		return true;
 	}
 
 	/**
-	 * Generate the Jasmin code for the source code. This method is only called after checking that
-	 * the code is syntactically and semantically correct, so you need not check for any errors.
+	 * Writes out the Jasmin code of a generated class.
 	 *
-	 * @param parseTree  The parseTree to generate code for
-	 * @return           All Jasmin code that is generated
+	 * @param jasminClass  The class to write out
+	 * @return             All Jasmin code of the class
 	 */
-	private JasminBytecode generateCode(ParseTree parseTree, String className) {
+	private JasminBytecode renderJasmin(JasminClass jasminClass) {
+		String className = jasminClass.getName();
 		JasminBytecode jasminBytecode = new JasminBytecode( className );
 
-		jasminBytecode.add(".bytecode 49.0")
+		jasminBytecode.add(".bytecode " + jasminClass.getVersion() + ".0")
 				.add(".class public " + className)
 				.add(".super java/lang/Object")
 				.add();
 
-		CodeGenerator cg = new CodeGenerator(pt, st, className);
-		cg.visit(parseTree);
+		for( JasminField field : jasminClass.getFields() ) {
+			jasminBytecode.add(field.toJasmin());
+		}
+		if( !jasminClass.getFields().isEmpty() ) jasminBytecode.add();
 
-		jasminBytecode.add(".method public static main([Ljava/lang/String;)V")
-				.add(".limit stack 99")
-				.add(".limit locals 99")  // NOTE: The args-parameter is a local too
-				.addAll(cg.getCode())
-				.add("return")
-				.add(".end method")
-				.addAll(cg.getMethodCode());
+		List<JasminMethod> methods = jasminClass.getMethods();
+		jasminBytecode.addAll(methods.get(0).toJasmin());
+		for( JasminMethod method : methods.subList(1, methods.size()) ) {
+			jasminBytecode.add(" ")
+					.add("; ---Method: '" + method.getName() + "' ---")
+					.addAll(method.toJasmin());
+		}
 
 		return jasminBytecode;
 	}
 
 	/**
-	 * Creates and returns an error listener for use in the lexer and parser that just increases
-	 * the errorCount-attribute in this class so we can find out if the source code had a syntax
-	 * error.
+	 * Generate the fields and methods of the class for the source code. Before generating, the
+	 * uses of every variable are analyzed so that functions that can only ever be one method are
+	 * called directly, and expressions with a value known at compile time are folded into a
+	 * constant. If the options have an IR optimizer, the code is generated from the optimized
+	 * intermediate representation instead of straight from the parse tree. Once all code is
+	 * generated, it is cleaned up by the peephole optimizer if there is one, and the stack and
+	 * local variable limits of every method are worked out.
 	 *
+	 * @param parseTree  The parseTree to generate code for
+	 * @param context    The compilation the parse tree was checked in
+	 * @return           The class, with the main method followed by the methods of all functions
+	 */
+	private JasminClass generateClass(ParseTree parseTree, CompilationContext context) {
+		String className = context.getClassName();
+		ParseTreeProperty<DataType> pt = context.getTypes();
+		ParseTreeProperty<SymbolTable> st = context.getScopes();
+		UsageAnalyzer usage = new UsageAnalyzer(st);
+		usage.visit(parseTree);
+
+		ConstantFolder constants = new ConstantFolder(pt, st, usage);
+		constants.visit(parseTree);
+
+		JasminClass jasminClass = new JasminClass(className, options.getTargetVersion());
+		if( options.getIrOptimizer() != null ) {
+			IrProgram program = new IrGenerator(pt, st, className, usage, constants).generate(parseTree);
+			options.getIrOptimizer().optimize(program);
+
+			IrCodeGenerator cg = new IrCodeGenerator(className, options);
+			cg.generate(program);
+			jasminClass.addMethod(cg.getMainMethod());
+			for( JasminMethod method : cg.getMethods() ) {
+				jasminClass.addMethod(method);
+			}
+			for( JasminField field : cg.getFields() ) {
+				jasminClass.addField(field);
+			}
+			if( cg.getStaticInitializer() != null ) jasminClass.addMethod(cg.getStaticInitializer());
+		} else {
+			CodeGenerator cg = new CodeGenerator(pt, st, className, usage, constants, options);
+			cg.visit(parseTree);
+
+			jasminClass.addMethod(cg.getMainMethod());
+			for( JasminMethod method : cg.getMethods() ) {
+				jasminClass.addMethod(method);
+			}
+			for( JasminField field : cg.getFields() ) {
+				jasminClass.addField(field);
+			}
+			if( cg.getStaticInitializer() != null ) jasminClass.addMethod(cg.getStaticInitializer());
+		}
+
+		for( JasminMethod method : jasminClass.getMethods() ) {
+			if( options.getPeepholeOptimizer() != null ) options.getPeepholeOptimizer().optimize(method);
+			LimitCalculator.computeLimits(method);
+		}
+		return jasminClass;
+	}
+
+	/**
+	 * Creates and returns an error listener for use in the lexer and parser that just keeps the
+	 * error in the compilation, so we can find out if the source code had a syntax error.
+	 *
+	 * @param context   The compilation to keep the errors in
 	 * @return  An error listener for use with lexer.addErrorListener() and parser.addErrorListener()
 	 */
-	private ANTLRErrorListener getErrorListener() {
+	private ANTLRErrorListener getErrorListener( CompilationContext context ) {
 		return new BaseErrorListener() {
 			@Override
 			public void syntaxError( Recognizer<?, ?> recognizer, Object offendingSymbol,
 			                         int line, int charPositionInLine,
 			                         String msg, RecognitionException e ) {
-				errorCount++;
+				context.addSyntaxError("line " + line + ":" + charPositionInLine + " " + msg);
 			}
 		};
 	}
 
+	/**
+	 * Compiles a source file into a class file next to it, named after the source file. The
+	 * Jasmin backend also writes its Jasmin-code to a file, unless the class may come from the
+	 * cache. Otherwise the Jasmin-code is skipped, unless it was asked for to debug the
+	 * generated code. When the Jasmin-code is written, the class is made from the same generated
+	 * code, so the source is only compiled once. Syntax errors are not printed but returned, so
+	 * that the errors of sources that are compiled at the same time do not run through each other.
+	 *
+	 * @param sourceCodePath  The source file to compile.
+	 * @param emitJasmin      Whether to write the Jasmin-code with the bytecode backend as well.
+	 * @return                Null if the files were written, or the syntax errors or what was
+	 *                        missing otherwise.
+	 * @throws IOException if files could not be read or written
+	 * @throws AssembleException if the generated code could not be assembled
+	 */
+	String compileToFiles( Path sourceCodePath, boolean emitJasmin ) throws IOException, AssembleException {
+		String className = classNameOf(sourceCodePath);
+
+		// Determine which directory to write files to
+		Path targetDirectory = sourceCodePath.getParent();
+		if( targetDirectory == null ) {
+			targetDirectory = Paths.get(".");
+		}
+
+		CompilationContext context = new CompilationContext(className, false);
+		AssembledClass assembledClass;
+		if( (options.getBackend() == CompilerOptions.Backend.JASMIN && options.getCache() == null) || emitJasmin ) {
+			ParseTree parseTree = parseAndCheck(CharStreams.fromPath(sourceCodePath), context);
+			if( !context.getSyntaxErrors().isEmpty() ) return String.join("; ", context.getSyntaxErrors());
+			if( parseTree == null ) return "No Jasmin output";
+
+			// Write the Jasmin-code, and assemble it or encode the class it was written from
+			JasminClass jasminClass = generateClass(parseTree, context);
+			JasminBytecode jasminBytecode = renderJasmin(jasminClass);
+			jasminBytecode.writeJasminToFile(targetDirectory.resolve(className+".j").toString());
+			assembledClass = assemble(jasminClass, jasminBytecode);
+		} else {
+			assembledClass = compileToClass(CharStreams.fromPath(sourceCodePath), context);
+			if( !context.getSyntaxErrors().isEmpty() ) return String.join("; ", context.getSyntaxErrors());
+			if( assembledClass == null ) return "No class output";
+		}
+		String classFilename = targetDirectory.resolve(className+".class").toString();
+		assembledClass.writeClassToFile(classFilename);
+		return null;
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the compiler's own class files, in hexadecimal, so that a
+	 * cached class is never used by a compiler that was changed since it was compiled. The class
+	 * files are read once per JVM, from the directory or the jar the compiler was loaded from.
+	 * If they can not be read, every JVM gets a fingerprint of its own.
+	 */
+	static String fingerprint() {
+		return Fingerprint.VALUE;
+	}
+
+	private static final class Fingerprint {
+		static final String VALUE = compute();
+
+		private static String compute() {
+			try {
+				CodeSource codeSource = Compiler.class.getProtectionDomain().getCodeSource();
+				if( codeSource == null ) throw new IOException("The compiler was not loaded from a file");
+				Path location = Paths.get(codeSource.getLocation().toURI());
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				if( Files.isDirectory(location) ) {
+					List<Path> classFiles;
+					try( Stream<Path> files = Files.walk(location) ) {
+						classFiles = files.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+					}
+					for( Path classFile : classFiles ) {
+						digest.update(location.relativize(classFile).toString().getBytes(StandardCharsets.UTF_8));
+						digest.update((byte) 0);
+						digest.update(Files.readAllBytes(classFile));
+					}
+				} else {
+					digest.update(Files.readAllBytes(location));
+				}
+				StringBuilder hash = new StringBuilder();
+				for( byte b : digest.digest() ) hash.append(String.format("%02x", b));
+				return hash.toString();
+			} catch( IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e ) {
+				return "unknown-" + UUID.randomUUID();
+			}
+		}
+	}
+
+	/**
+	 * Returns the class name for a source file.
+	 * It first strips the extension, so that: tests/myFile.exlang becomes tests/myFile.
+	 * Then, it removes everything that seems a path, so we end up with just 'myFile' as
+	 * the class name.
+	 */
+	static String classNameOf( Path sourceCodePath ) {
+		String sourceFileName = sourceCodePath.getFileName().toString();
+		int dotIndex = sourceFileName.lastIndexOf('.');
+		return sourceFileName.substring(0, dotIndex == -1 ? sourceFileName.length() : dotIndex);
+	}
+
+	/**
+	 * Prints the hits of the cache and what the optimizers did, over everything compiled with
+	 * the options.
+	 */
+	static void printStatistics( CompilerOptions options ) {
+		if( options.getCache() != null ) {
+			System.out.println("Compilation cache: " + options.getCache().getHits() + " hit(s), " + options.getCache().getMisses() + " miss(es)");
+		}
+
+		// Show what every peephole rule rewrote
+		if( options.getPeepholeOptimizer() != null ) {
+			for( Map.Entry<String, Integer> hit : options.getPeepholeOptimizer().getHits().entrySet() ) {
+				System.out.println("Peephole rule '" + hit.getKey() + "': " + hit.getValue());
+			}
+		}
+
+		// Show what every IR pass changed
+		if( options.getIrOptimizer() != null ) {
+			for( Map.Entry<String, Integer> change : options.getIrOptimizer().getChanges().entrySet() ) {
+				System.out.println("IR pass '" + change.getKey() + "': " + change.getValue());
+			}
+			for( String removed : options.getIrOptimizer().getReport() ) {
+				System.out.println(removed);
+			}
+			if( options.getIrOptimizer().getDroppedReportLines() > 0 ) {
+				System.out.println("... and " + options.getIrOptimizer().getDroppedReportLines() + " more");
+			}
+		}
+	}
+
 	/**
 	 * Main method.
 	 * @param args  Array of command line arguments. You can use this to supply the file name to
-	 *              compile.
+	 *              compile. With more than one source, a directory or a glob pattern such as
+	 *              <code>scripts/**.arc</code>, all sources are compiled at once by the
+	 *              {@link BatchCompiler}.
 	 */
 	public static void main(String[] args) {
 		try {
-			Compiler compiler = new Compiler();
+			// Read the flags, the remaining arguments are the sources
+			CompilerOptions options = new CompilerOptions();
+			boolean emitJasmin = false;
+			int threads = Runtime.getRuntime().availableProcessors();
+			Integer servePort = null;
+			Integer connectPort = null;
+			List<String> sourceArguments = new ArrayList<>();
+			for( String arg : args ) {
+				if( arg.equals("--bytecode") ) options.setBackend(CompilerOptions.Backend.BYTECODE);
+				else if( arg.equals("--emit-jasmin") ) emitJasmin = true;
+				else if( arg.equals("--buffered-output") ) options.setBufferedOutput(true);
+				else if( arg.equals("--peephole") ) options.setPeepholeOptimizer(PeepholeOptimizer.withDefaultRules());
+				else if( arg.equals("--ir") ) options.setIrOptimizer(IrOptimizer.withDefaultPasses());
+				else if( arg.startsWith("--target=") ) options.setTargetVersion(Integer.parseInt(arg.substring("--target=".length())));
+				else if( arg.startsWith("--cache=") ) options.setCache(new CompilationCache(Paths.get(arg.substring("--cache=".length()))));
+				else if( arg.startsWith("--threads=") ) threads = Integer.parseInt(arg.substring("--threads=".length()));
+				else if( arg.equals("--serve") ) servePort = CompileServer.DEFAULT_PORT;
+				else if( arg.startsWith("--serve=") ) servePort = Integer.parseInt(arg.substring("--serve=".length()));
+				else if( arg.equals("--connect") ) connectPort = CompileServer.DEFAULT_PORT;
+				else if( arg.startsWith("--connect=") ) connectPort = Integer.parseInt(arg.substring("--connect=".length()));
+				else sourceArguments.add(arg);
+			}
 
-			// Check that the user supplied a name of the source file
-			if (args.length == 0) {
-				System.err.println("Usage: java Compiler <name of source>");
+			if( options.getBackend() == CompilerOptions.Backend.JASMIN && options.getTargetVersion() != CompilerOptions.JASMIN_VERSION ) {
+				System.err.println("Class file version " + options.getTargetVersion() + " needs --bytecode");
 				return;
 			}
 
-			// Split the file name
-			// It first strips the extension, so that: tests/myFile.exlang becomes tests/myFile.
-			// Then, it removes everything that seems a path, so we end up with just 'myFile' as
-			// the class name.
-			Path sourceCodePath = Paths.get(args[0]);
-
-			String sourceFileName = sourceCodePath.getFileName().toString();
-			int dotIndex = sourceFileName.lastIndexOf('.');
-			String className = sourceFileName.substring(0, dotIndex == -1 ? sourceFileName.length() : dotIndex);
+			// Keep compiling for clients until the process is stopped
+			if( servePort != null ) {
+				CompileServer server = new CompileServer(options, servePort);
+				System.out.println("Compile server listening on port " + server.getPort());
+				server.serve();
+				return;
+			}
 
-			// Read the file and compile it.
-			JasminBytecode jasminBytecode = compiler.compileFile(sourceCodePath.toString(), className);
-			if( jasminBytecode == null ) {
-				System.err.println("No Jasmin output");
+			// Check that the user supplied a name of the source file
+			if (sourceArguments.isEmpty()) {
+				System.err.println("Usage: java Compiler [--bytecode] [--target=<class file version>] [--buffered-output] [--peephole] [--ir] [--cache=<directory>] [--threads=<count>] [--connect[=<port>]] [--emit-jasmin] <name of source, directory or glob>...");
+				System.err.println("   or: java Compiler [options] --serve[=<port>]");
 				return;
 			}
+			Compiler compiler = new Compiler(options);
 
-			// Determine which directory to write files to
-			Path targetDirectory = sourceCodePath.getParent();
-			if( targetDirectory == null ) {
-				targetDirectory = Paths.get(".");
+			// Let a running compile server compile the source, or compile it here if there is none
+			if( connectPort != null && sourceArguments.size() == 1 ) {
+				Path sourceCodePath = Paths.get(sourceArguments.get(0));
+				String className = classNameOf(sourceCodePath);
+				String source = new String(Files.readAllBytes(sourceCodePath), StandardCharsets.UTF_8);
+				try( CompileClient client = new CompileClient(options, connectPort) ) {
+					CompileResult result = client.compile(source, className);
+					if( !result.isCompiled() ) {
+						for( String diagnostic : result.getDiagnostics() ) System.err.println(sourceCodePath + ": " + diagnostic);
+						return;
+					}
+					Path targetDirectory = sourceCodePath.getParent() == null ? Paths.get(".") : sourceCodePath.getParent();
+					Files.write(targetDirectory.resolve(className + ".class"), result.getClassBytes());
+				}
+				return;
 			}
 
-			// Write Jasmin-code to a file
-			String jasminFilename = targetDirectory.resolve(className+".j").toString();
-			jasminBytecode.writeJasminToFile(jasminFilename);
+			String sourceArgument = sourceArguments.get(0);
+			if( sourceArguments.size() > 1 || BatchCompiler.isPattern(sourceArgument) || Files.isDirectory(Paths.get(sourceArgument)) ) {
+				BatchCompiler batch = new BatchCompiler(compiler, emitJasmin);
+				List<Path> sources = BatchCompiler.findSources(sourceArguments);
+				long start = System.nanoTime();
+				List<BatchCompiler.Result> results = batch.compile(sources, threads);
+				BatchCompiler.printSummary(results, System.nanoTime() - start, System.out);
+				printStatistics(options);
+				return;
+			}
 
-			// Try to assemble the Jasmin byte code and write that to a file
-			AssembledClass assembledClass = AssembledClass.assemble(jasminBytecode);
-			String classFilename = targetDirectory.resolve(className+".class").toString();
-			assembledClass.writeClassToFile(classFilename);
+			String missing = compiler.compileToFiles(Paths.get(sourceArgument), emitJasmin);
+			if( missing != null ) {
+				System.err.println(sourceArgument + ": " + missing);
+				return;
+			}
+			printStatistics(options);
 		}
-		catch( IOException | AssembleException | CompilerException e ) {
+		catch( IOException | AssembleException | CompilerException | IllegalArgumentException | InterruptedException e ) {
 			e.printStackTrace();
 			//System.err.println("Compiler error: " + e.getMessage());
 		}
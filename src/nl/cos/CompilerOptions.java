@@ -0,0 +1,148 @@
+package nl.cos;
+
+import nl.cos.io.CompilationCache;
+import nl.cos.ir.IrOptimizer;
+import nl.cos.peephole.PeepholeOptimizer;
+
+/**
+ * Settings that control how the {@link Compiler} turns source code into a class file.
+ * The setters return the options themselves, so that they can be chained:
+ * <pre>
+ *     new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE);
+ * </pre>
+ */
+public class CompilerOptions {
+	/**
+	 * The way the generated code is turned into a class file.
+	 */
+	public enum Backend {
+		/** Write the generated code out as Jasmin text and let Jasmin assemble it. */
+		JASMIN,
+		/** Encode the generated code straight into a class file. */
+		BYTECODE
+	}
+
+	/** The class file version that Jasmin writes. */
+	public static final int JASMIN_VERSION = 49;
+
+	/** The newest class file version the bytecode backend writes (Java 8). */
+	public static final int MAX_TARGET_VERSION = 52;
+
+	private Backend backend = Backend.JASMIN;
+	private int targetVersion = JASMIN_VERSION;
+	private boolean bufferedOutput = false;
+	private PeepholeOptimizer peepholeOptimizer = null;
+	private IrOptimizer irOptimizer = null;
+	private CompilationCache cache = null;
+	private String fingerprint = null;
+
+	public Backend getBackend() {
+		return backend;
+	}
+
+	public CompilerOptions setBackend( Backend backend ) {
+		this.backend = backend;
+		return this;
+	}
+
+	public int getTargetVersion() {
+		return targetVersion;
+	}
+
+	/**
+	 * Sets the major class file version to write. Version 49 is what Jasmin writes. From version
+	 * 50 on, classes carry StackMapTable frames, and from version 52 (Java 8) on, functions are
+	 * loaded as method handle constants; versions after 49 need the bytecode backend.
+	 *
+	 * @throws IllegalArgumentException if the version is not between 49 and
+	 *                                  {@link #MAX_TARGET_VERSION}
+	 */
+	public CompilerOptions setTargetVersion( int targetVersion ) {
+		if( targetVersion < JASMIN_VERSION || targetVersion > MAX_TARGET_VERSION )
+			throw new IllegalArgumentException("Unsupported class file version: " + targetVersion);
+		this.targetVersion = targetVersion;
+		return this;
+	}
+
+	public boolean isBufferedOutput() {
+		return bufferedOutput;
+	}
+
+	/**
+	 * Sets whether system output goes through one large buffer instead of straight to
+	 * System.out. The buffer is flushed when the program ends, also when it ends with an
+	 * exception, but not before input is read. That makes it a good fit for programs that print
+	 * a lot, but not for programs that prompt for input.
+	 */
+	public CompilerOptions setBufferedOutput( boolean bufferedOutput ) {
+		this.bufferedOutput = bufferedOutput;
+		return this;
+	}
+
+	public PeepholeOptimizer getPeepholeOptimizer() {
+		return peepholeOptimizer;
+	}
+
+	/**
+	 * Sets the optimizer that cleans up the generated code of every method before it is
+	 * assembled, or null to leave the code as generated. The optimizer keeps counting its hits
+	 * over everything compiled with these options.
+	 */
+	public CompilerOptions setPeepholeOptimizer( PeepholeOptimizer peepholeOptimizer ) {
+		this.peepholeOptimizer = peepholeOptimizer;
+		return this;
+	}
+
+	public IrOptimizer getIrOptimizer() {
+		return irOptimizer;
+	}
+
+	/**
+	 * Sets the optimizer for the intermediate representation. With an optimizer, the checked
+	 * parse tree is first lowered to the IR, which is optimized and then turned into code for the
+	 * backend. Without one, which is the default, code is generated straight from the parse tree.
+	 */
+	public CompilerOptions setIrOptimizer( IrOptimizer irOptimizer ) {
+		this.irOptimizer = irOptimizer;
+		return this;
+	}
+
+	public CompilationCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the cache that classes are looked up in before they are compiled, and stored in
+	 * after, or null to always compile. A class that comes from the cache is not lexed, checked,
+	 * optimized or assembled again, so it does not add to the counters of the optimizers.
+	 */
+	public CompilerOptions setCache( CompilationCache cache ) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Sets the fingerprint of the compiler that is part of the key of a cached class, or null
+	 * for the hash of the compiler's own class files.
+	 */
+	CompilerOptions setFingerprint( String fingerprint ) {
+		this.fingerprint = fingerprint;
+		return this;
+	}
+
+	/**
+	 * Describes everything in these options that changes the class that is compiled, for the key
+	 * of a cached class: the fingerprint of the compiler, so classes compiled by another build of
+	 * it are never used, and the optimizers with the settings of their rules and passes.
+	 */
+	String describe() {
+		StringBuilder description = new StringBuilder()
+				.append("compiler=").append(fingerprint == null ? Compiler.fingerprint() : fingerprint)
+				.append(";backend=").append(backend)
+				.append(";target=").append(targetVersion)
+				.append(";buffered=").append(bufferedOutput);
+		if( peepholeOptimizer != null ) description.append(";peephole=").append(peepholeOptimizer.describe());
+		if( irOptimizer != null ) description.append(";ir=").append(irOptimizer.describe());
+		return description.toString();
+	}
+}
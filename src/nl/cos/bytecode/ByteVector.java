@@ -0,0 +1,95 @@
+package nl.cos.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * A growable big-endian byte buffer, as used by the class file format.
+ */
+class ByteVector {
+    private byte[] data;
+    private int length;
+
+    ByteVector() {
+        this(256);
+    }
+
+    ByteVector(int capacity) {
+        this.data = new byte[capacity];
+        this.length = 0;
+    }
+
+    ByteVector putByte(int b) {
+        ensureCapacity(1);
+        data[length++] = (byte) b;
+        return this;
+    }
+
+    ByteVector putShort(int s) {
+        ensureCapacity(2);
+        data[length++] = (byte) (s >>> 8);
+        data[length++] = (byte) s;
+        return this;
+    }
+
+    ByteVector putInt(int i) {
+        ensureCapacity(4);
+        data[length++] = (byte) (i >>> 24);
+        data[length++] = (byte) (i >>> 16);
+        data[length++] = (byte) (i >>> 8);
+        data[length++] = (byte) i;
+        return this;
+    }
+
+    ByteVector putBytes(ByteVector other) {
+        ensureCapacity(other.length);
+        System.arraycopy(other.data, 0, data, length, other.length);
+        length += other.length;
+        return this;
+    }
+
+    /**
+     * Writes a string in the modified UTF-8 encoding of the class file format, prefixed with
+     * its length.
+     */
+    ByteVector putUtf8(String s) {
+        int byteLength = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) byteLength++;
+            else if (c <= 0x07FF) byteLength += 2;
+            else byteLength += 3;
+        }
+        if (byteLength > 0xFFFF) throw new IllegalArgumentException("String constant is too long");
+
+        putShort(byteLength);
+        ensureCapacity(byteLength);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                data[length++] = (byte) c;
+            } else if (c <= 0x07FF) {
+                data[length++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                data[length++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                data[length++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                data[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                data[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+}
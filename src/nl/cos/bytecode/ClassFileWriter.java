@@ -0,0 +1,374 @@
+package nl.cos.bytecode;
+
+import nl.cos.exceptions.AssembleException;
+import nl.cos.jasmin.JasminField;
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.jasmin.Opcode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a JVM class file straight from the instructions produced by the code generator,
+ * without going through the Jasmin assembler. It reads the same instructions the Jasmin output
+ * is printed from, so both backends produce equivalent classes.
+ */
+public class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int REF_INVOKE_STATIC = 6;
+    private static final int WIDE = 0xc4;
+    private static final int FULL_FRAME = 255;
+    private static final String SUPER_CLASS = "java/lang/Object";
+
+    private final String className;
+    private final int majorVersion;
+    private final ConstantPool constantPool;
+    private final ByteVector fields;
+    private final ByteVector methods;
+    private int fieldCount;
+    private int methodCount;
+
+    /**
+     * Creates a writer for a class with the given class file version. From version 50 on, the
+     * writer adds a StackMapTable to every method.
+     */
+    public ClassFileWriter(String className, int majorVersion) {
+        this.className = className;
+        this.majorVersion = majorVersion;
+        this.constantPool = new ConstantPool();
+        this.fields = new ByteVector(64);
+        this.methods = new ByteVector(1024);
+        this.fieldCount = 0;
+        this.methodCount = 0;
+    }
+
+    /**
+     * Adds a private static field to the class.
+     */
+    public ClassFileWriter addField(JasminField field) {
+        fields.putShort(ACC_PRIVATE | ACC_STATIC | (field.isFinal() ? ACC_FINAL : 0))
+                .putShort(constantPool.utf8(field.getName()))
+                .putShort(constantPool.utf8(field.getDescriptor()))
+                .putShort(0);
+        fieldCount++;
+        return this;
+    }
+
+    /**
+     * Encodes a method and adds it to the class.
+     *
+     * @throws AssembleException if the method contains an instruction that can not be encoded
+     */
+    public ClassFileWriter addMethod(JasminMethod method) throws AssembleException {
+        List<Instruction> instructions = new ArrayList<>();
+        List<JasminInstruction> catchBlocks = new ArrayList<>();
+        HashMap<String, Integer> labels = new HashMap<>();
+        TreeMap<Integer, FrameComputer.Frame> frames = new TreeMap<>();
+
+        // Newer class files need the types at every branch target, which only exist for code that can run
+        List<JasminInstruction> lines = method.getInstructions();
+        FrameComputer frameComputer = null;
+        if (majorVersion >= 50) {
+            frameComputer = new FrameComputer(method);
+            lines = frameComputer.getReachableLines();
+        }
+
+        // First pass: size the instructions and work out where every label ends up
+        int offset = 0;
+        for (JasminInstruction line : lines) {
+            if (line.getKind() == JasminInstruction.Kind.CATCH) {
+                catchBlocks.add(line);
+                continue;
+            }
+            if (line.isLabel()) {
+                String label = line.getLabel();
+                labels.put(label, offset);
+                if (frameComputer != null && frameComputer.getFrame(label) != null) frames.put(offset, frameComputer.getFrame(label));
+                continue;
+            }
+
+            Instruction instruction = layOut(method, line);
+            instruction.offset = offset;
+            offset += instruction.size;
+            instructions.add(instruction);
+        }
+
+        // Second pass: encode the instructions now that all branch targets are known
+        ByteVector code = new ByteVector(offset);
+        for (Instruction instruction : instructions) {
+            encodeInstruction(method, instruction, labels, code);
+        }
+        if (code.length() > 0xFFFF) throw new AssembleException("Method '" + method.getName() + "' is too large");
+
+        ByteVector exceptionTable = new ByteVector(8 * catchBlocks.size());
+        for (JasminInstruction catchBlock : catchBlocks) {
+            for (String label : new String[] {catchBlock.getCatchStart(), catchBlock.getCatchEnd(), catchBlock.getCatchHandler()}) {
+                if (!labels.containsKey(label)) throw invalid(method, catchBlock, "undefined label");
+            }
+            exceptionTable.putShort(labels.get(catchBlock.getCatchStart()))
+                    .putShort(labels.get(catchBlock.getCatchEnd()))
+                    .putShort(labels.get(catchBlock.getCatchHandler()))
+                    .putShort(catchBlock.getClassName() == null ? 0 : constantPool.classRef(catchBlock.getClassName()));
+        }
+
+        ByteVector stackMapTable = frames.isEmpty() ? null : stackMapTable(method, frames, code.length());
+        int codeAttributeLength = 12 + code.length() + exceptionTable.length()
+                + (stackMapTable == null ? 0 : 6 + stackMapTable.length());
+        methods.putShort(ACC_PUBLIC | ACC_STATIC)
+                .putShort(constantPool.utf8(method.getName()))
+                .putShort(constantPool.utf8(method.getDescriptor()))
+                .putShort(1)
+                .putShort(constantPool.utf8("Code"))
+                .putInt(codeAttributeLength)
+                .putShort(method.getMaxStack())
+                .putShort(method.getMaxLocals())
+                .putInt(code.length())
+                .putBytes(code)
+                .putShort(catchBlocks.size())
+                .putBytes(exceptionTable)
+                .putShort(stackMapTable == null ? 0 : 1);
+        if (stackMapTable != null) {
+            methods.putShort(constantPool.utf8("StackMapTable"))
+                    .putInt(stackMapTable.length())
+                    .putBytes(stackMapTable);
+        }
+        methodCount++;
+        return this;
+    }
+
+    /**
+     * Returns the complete class file.
+     */
+    public byte[] toByteArray() {
+        int thisClass = constantPool.classRef(className);
+        int superClass = constantPool.classRef(SUPER_CLASS);
+
+        ByteVector out = new ByteVector(fields.length() + methods.length() + 1024);
+        out.putInt(MAGIC)
+                .putShort(0)
+                .putShort(majorVersion);
+        constantPool.writeTo(out);
+        out.putShort(ACC_PUBLIC | ACC_SUPER)
+                .putShort(thisClass)
+                .putShort(superClass)
+                .putShort(0)    // interfaces
+                .putShort(fieldCount)
+                .putBytes(fields)
+                .putShort(methodCount)
+                .putBytes(methods)
+                .putShort(0);   // attributes
+        return out.toByteArray();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Encodes the frames of a method as a StackMapTable. Every frame is written out in full,
+     * which is larger than the compressed forms but always valid.
+     */
+    private ByteVector stackMapTable(JasminMethod method, TreeMap<Integer, FrameComputer.Frame> frames, int codeLength)
+            throws AssembleException {
+        ByteVector entries = new ByteVector();
+        int count = 0;
+        int previous = -1;
+        for (Map.Entry<Integer, FrameComputer.Frame> entry : frames.entrySet()) {
+            int offset = entry.getKey();
+            FrameComputer.Frame frame = entry.getValue();
+            if (offset >= codeLength) continue;
+            if (frame.hasUninitialized()) throw new AssembleException("Method '" + method.getName() + "' branches while an object is being constructed");
+
+            int localCount = frame.locals.length;
+            while (localCount > 0 && frame.locals[localCount - 1].equals(FrameComputer.TOP)) localCount--;
+
+            entries.putByte(FULL_FRAME).putShort(offset - previous - 1).putShort(localCount);
+            for (int i = 0; i < localCount; i++) putVerificationType(entries, frame.locals[i]);
+            entries.putShort(frame.stack.size());
+            for (String type : frame.stack) putVerificationType(entries, type);
+
+            previous = offset;
+            count++;
+        }
+
+        ByteVector table = new ByteVector(entries.length() + 2);
+        return table.putShort(count).putBytes(entries);
+    }
+
+    private void putVerificationType(ByteVector out, String type) {
+        switch (type) {
+            case FrameComputer.TOP:
+                out.putByte(0);
+                break;
+            case FrameComputer.INT:
+                out.putByte(1);
+                break;
+            case FrameComputer.FLOAT:
+                out.putByte(2);
+                break;
+            case FrameComputer.NULL:
+                out.putByte(5);
+                break;
+            default:
+                out.putByte(7).putShort(constantPool.classRef(type));
+        }
+    }
+
+    /**
+     * Works out the size of an instruction and adds the constants it refers to to the pool.
+     */
+    private Instruction layOut(JasminMethod method, JasminInstruction line) throws AssembleException {
+        Opcode opcode = line.getOpcode();
+        Instruction instruction = new Instruction(line);
+        switch (opcode.getOperand()) {
+            case NONE:
+                instruction.size = 1;
+                break;
+            case BYTE:
+                instruction.value = line.getValue();
+                instruction.size = 2;
+                break;
+            case SHORT:
+                instruction.value = line.getValue();
+                instruction.size = 3;
+                break;
+            case CONSTANT:
+                if (line.getConstantType() == JasminInstruction.ConstantType.METHOD_HANDLE && majorVersion < 51) {
+                    throw invalid(method, line, "method handle constants need class file version 51 or later");
+                }
+                instruction.value = constantIndex(line);
+                instruction.size = instruction.value > 0xFF || opcode == Opcode.LDC_W ? 3 : 2;
+                break;
+            case LOCAL:
+                instruction.value = line.getValue();
+                if (instruction.value <= 3) instruction.size = 1;
+                else if (instruction.value <= 0xFF) instruction.size = 2;
+                else instruction.size = 4;
+                break;
+            case IINC:
+                instruction.value = line.getValue();
+                instruction.increment = line.getIncrement();
+                boolean wide = instruction.value > 0xFF
+                        || instruction.increment < Byte.MIN_VALUE || instruction.increment > Byte.MAX_VALUE;
+                instruction.size = wide ? 6 : 3;
+                break;
+            case BRANCH:
+                instruction.size = 3;
+                break;
+            case FIELD:
+                instruction.value = constantPool.fieldRef(line.getOwner(), line.getName(), line.getDescriptor());
+                instruction.size = 3;
+                break;
+            case METHOD:
+                instruction.value = constantPool.methodRef(line.getOwner(), line.getName(), line.getDescriptor());
+                instruction.size = 3;
+                break;
+            case CLASS:
+                instruction.value = constantPool.classRef(line.getClassName());
+                instruction.size = 3;
+                break;
+        }
+        return instruction;
+    }
+
+    private void encodeInstruction(JasminMethod method, Instruction instruction, HashMap<String, Integer> labels, ByteVector code)
+            throws AssembleException {
+        Opcode opcode = instruction.line.getOpcode();
+        switch (opcode.getOperand()) {
+            case NONE:
+                code.putByte(opcode.getCode());
+                break;
+            case BYTE:
+                code.putByte(opcode.getCode()).putByte(instruction.value);
+                break;
+            case SHORT:
+                code.putByte(opcode.getCode()).putShort(instruction.value);
+                break;
+            case CONSTANT:
+                if (instruction.size == 2) code.putByte(Opcode.LDC.getCode()).putByte(instruction.value);
+                else code.putByte(Opcode.LDC_W.getCode()).putShort(instruction.value);
+                break;
+            case LOCAL:
+                int slot = instruction.value;
+                if (instruction.size == 1) code.putByte(shortLocalForm(opcode) + slot);
+                else if (instruction.size == 2) code.putByte(opcode.getCode()).putByte(slot);
+                else code.putByte(WIDE).putByte(opcode.getCode()).putShort(slot);
+                break;
+            case IINC:
+                if (instruction.size == 3) {
+                    code.putByte(opcode.getCode()).putByte(instruction.value).putByte(instruction.increment);
+                } else {
+                    code.putByte(WIDE).putByte(opcode.getCode()).putShort(instruction.value).putShort(instruction.increment);
+                }
+                break;
+            case BRANCH:
+                Integer target = labels.get(instruction.line.getLabel());
+                if (target == null) throw invalid(method, instruction.line, "undefined label");
+                int jump = target - instruction.offset;
+                if (jump < Short.MIN_VALUE || jump > Short.MAX_VALUE) throw invalid(method, instruction.line, "branch offset out of range");
+                code.putByte(opcode.getCode()).putShort(jump);
+                break;
+            case FIELD:
+            case METHOD:
+            case CLASS:
+                code.putByte(opcode.getCode()).putShort(instruction.value);
+                break;
+        }
+    }
+
+    /**
+     * Returns the opcode of the one byte form of a load or store, such as iload_0.
+     */
+    private static int shortLocalForm(Opcode opcode) {
+        if (opcode.getCode() < Opcode.ISTORE.getCode()) return 0x1a + (opcode.getCode() - Opcode.ILOAD.getCode()) * 4;
+        return 0x3b + (opcode.getCode() - Opcode.ISTORE.getCode()) * 4;
+    }
+
+    /**
+     * Adds the constant an ldc instruction loads to the pool.
+     */
+    private int constantIndex(JasminInstruction ldc) {
+        switch (ldc.getConstantType()) {
+            case INT:
+                return constantPool.integer((Integer) ldc.getConstant());
+            case FLOAT:
+                return constantPool.floatValue((Float) ldc.getConstant());
+            case STRING:
+                return constantPool.string((String) ldc.getConstant());
+            case METHOD_HANDLE:
+                int reference = constantPool.methodRef(ldc.getOwner(), ldc.getName(), ldc.getDescriptor());
+                return constantPool.methodHandle(REF_INVOKE_STATIC, reference);
+            default:
+                return constantPool.classRef(ldc.getClassName());
+        }
+    }
+
+    private static AssembleException invalid(JasminMethod method, JasminInstruction line, String reason) {
+        return new AssembleException("Cannot encode '" + line + "' in method '" + method.getName() + "': " + reason);
+    }
+
+    /**
+     * An instruction together with its position and size in the code array, and the resolved
+     * value of its operand.
+     */
+    private static class Instruction {
+        private final JasminInstruction line;
+        private int offset;
+        private int size;
+        private int value;
+        private int increment;
+
+        private Instruction(JasminInstruction line) {
+            this.line = line;
+        }
+    }
+}
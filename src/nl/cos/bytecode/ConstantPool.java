@@ -0,0 +1,130 @@
+package nl.cos.bytecode;
+
+import java.util.HashMap;
+
+/**
+ * The constant pool of a class file that is being written. Every constant is only added once;
+ * asking for the same constant again returns the index of the existing entry.
+ */
+class ConstantPool {
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+
+    private final ByteVector entries;
+    private final HashMap<String, Integer> indexes;
+    private int count;
+
+    ConstantPool() {
+        this.entries = new ByteVector();
+        this.indexes = new HashMap<>();
+        this.count = 1;
+    }
+
+    int utf8(String value) {
+        String key = UTF8 + ":" + value;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        entries.putByte(UTF8).putUtf8(value);
+        return register(key);
+    }
+
+    int integer(int value) {
+        String key = INTEGER + ":" + value;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        entries.putByte(INTEGER).putInt(value);
+        return register(key);
+    }
+
+    int floatValue(float value) {
+        int bits = Float.floatToIntBits(value);
+        String key = FLOAT + ":" + bits;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        entries.putByte(FLOAT).putInt(bits);
+        return register(key);
+    }
+
+    int string(String value) {
+        String key = STRING + ":" + value;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        int utf8 = utf8(value);
+        entries.putByte(STRING).putShort(utf8);
+        return register(key);
+    }
+
+    int classRef(String internalName) {
+        String key = CLASS + ":" + internalName;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        int name = utf8(internalName);
+        entries.putByte(CLASS).putShort(name);
+        return register(key);
+    }
+
+    int nameAndType(String name, String descriptor) {
+        String key = NAME_AND_TYPE + ":" + name + ":" + descriptor;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        entries.putByte(NAME_AND_TYPE).putShort(nameIndex).putShort(descriptorIndex);
+        return register(key);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(FIELD_REF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(METHOD_REF, owner, name, descriptor);
+    }
+
+    int methodHandle(int referenceKind, int referenceIndex) {
+        String key = METHOD_HANDLE + ":" + referenceKind + ":" + referenceIndex;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        entries.putByte(METHOD_HANDLE).putByte(referenceKind).putShort(referenceIndex);
+        return register(key);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + ":" + owner + ":" + name + ":" + descriptor;
+        Integer index = indexes.get(key);
+        if (index != null) return index;
+
+        int classIndex = classRef(owner);
+        int nameAndTypeIndex = nameAndType(name, descriptor);
+        entries.putByte(tag).putShort(classIndex).putShort(nameAndTypeIndex);
+        return register(key);
+    }
+
+    private int register(String key) {
+        if (count > 0xFFFF) throw new IllegalStateException("Constant pool is full");
+        indexes.put(key, count);
+        return count++;
+    }
+
+    /**
+     * Writes the constant pool count followed by all entries.
+     */
+    void writeTo(ByteVector out) {
+        out.putShort(count);
+        out.putBytes(entries);
+    }
+}
@@ -0,0 +1,49 @@
+package nl.cos.bytecode;
+
+/**
+ * Reads type descriptors to find out how many words of the operand stack or local variables a
+ * value takes up.
+ */
+final class Descriptors {
+    private Descriptors() {
+    }
+
+    /**
+     * Returns the number of words the arguments of a method descriptor take up.
+     */
+    static int argumentSize(String methodDescriptor) {
+        int size = 0;
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            char c = methodDescriptor.charAt(i);
+            size += c == 'J' || c == 'D' ? 2 : 1;
+            i = skipType(methodDescriptor, i);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of words the return value of a method descriptor takes up.
+     */
+    static int returnSize(String methodDescriptor) {
+        return typeSize(methodDescriptor.substring(methodDescriptor.indexOf(')') + 1));
+    }
+
+    /**
+     * Returns the number of words a value of the given field descriptor takes up.
+     */
+    static int typeSize(String descriptor) {
+        char c = descriptor.charAt(0);
+        if (c == 'V') return 0;
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+
+    /**
+     * Returns the index just after the type that starts at the given index.
+     */
+    static int skipType(String descriptor, int index) {
+        while (descriptor.charAt(index) == '[') index++;
+        if (descriptor.charAt(index) == 'L') return descriptor.indexOf(';', index) + 1;
+        return index + 1;
+    }
+}
@@ -0,0 +1,454 @@
+package nl.cos.bytecode;
+
+import nl.cos.exceptions.AssembleException;
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.jasmin.Opcode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Works out the types of the local variables and the operand stack at every label of a method,
+ * by following every path through its instructions. Class files from version 50 on need these
+ * types in a StackMapTable, so that the verifier does not have to infer them itself.
+ * <p>
+ * Types are kept as strings: {@link #TOP}, {@link #INT}, {@link #FLOAT}, {@link #NULL}, or the
+ * internal name of a class or array, such as <code>java/lang/String</code>.
+ */
+final class FrameComputer {
+    static final String TOP = "top";
+    static final String INT = "int";
+    static final String FLOAT = "float";
+    static final String NULL = "null";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String UNINITIALIZED = "uninitialized ";
+
+    private final JasminMethod method;
+    private final List<JasminInstruction> lines;
+    private final HashMap<String, Integer> labels;
+    private final List<JasminInstruction> catchBlocks;
+    private final Frame[] frames;
+
+    FrameComputer(JasminMethod method) throws AssembleException {
+        this.method = method;
+        this.lines = method.getInstructions();
+        this.labels = new HashMap<>();
+        this.catchBlocks = new ArrayList<>();
+        this.frames = new Frame[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).isLabel()) labels.put(lines.get(i).getLabel(), i);
+            if (lines.get(i).getKind() == JasminInstruction.Kind.CATCH) catchBlocks.add(lines.get(i));
+        }
+        for (JasminInstruction catchBlock : catchBlocks) {
+            for (String label : new String[] {catchBlock.getCatchStart(), catchBlock.getCatchEnd(), catchBlock.getCatchHandler()}) {
+                if (!labels.containsKey(label)) throw invalid(catchBlock, "undefined label '" + label + "' in catch block");
+            }
+        }
+        compute();
+    }
+
+    /**
+     * Returns the lines of the method without the instructions that can never run. Those
+     * instructions would need frames too, but there is nothing to base them on.
+     */
+    List<JasminInstruction> getReachableLines() {
+        List<JasminInstruction> reachable = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (frames[i] != null || !lines.get(i).isInstruction()) reachable.add(lines.get(i));
+        }
+        return reachable;
+    }
+
+    /**
+     * Returns the frame at a label, or null if the label can never be reached.
+     */
+    Frame getFrame(String label) {
+        return frames[labels.get(label)];
+    }
+
+    private void compute() throws AssembleException {
+        if (lines.isEmpty()) return;
+
+        frames[0] = entryFrame();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(0);
+
+        while (!pending.isEmpty()) {
+            int index = pending.pop();
+            Frame frame = frames[index].copy();
+
+            while (true) {
+                JasminInstruction line = lines.get(index);
+                if (line.isInstruction()) {
+                    Opcode opcode = line.getOpcode();
+                    flowToHandlers(index, frame, line, pending);
+                    execute(frame, line, index);
+
+                    if (opcode.getOperand() == Opcode.Operand.BRANCH) {
+                        Integer target = labels.get(line.getLabel());
+                        if (target == null) throw invalid(line, "undefined label");
+                        if (flowTo(target, frame, line)) pending.push(target);
+                    }
+                    if (opcode.endsFlow()) break;
+                }
+
+                index++;
+                if (index >= lines.size() || !flowTo(index, frame, line)) break;
+                frame = frames[index].copy();
+            }
+        }
+    }
+
+    /**
+     * Lets the locals before an instruction flow to the handlers of all catch blocks the
+     * instruction is in, as the instruction may throw before it has done anything.
+     */
+    private void flowToHandlers(int index, Frame frame, JasminInstruction line, Deque<Integer> pending) throws AssembleException {
+        for (JasminInstruction catchBlock : catchBlocks) {
+            if (index <= labels.get(catchBlock.getCatchStart()) || index >= labels.get(catchBlock.getCatchEnd())) continue;
+
+            Frame handlerFrame = new Frame(frame.locals.clone(), new ArrayList<>());
+            handlerFrame.push(catchBlock.getClassName() == null ? "java/lang/Throwable" : catchBlock.getClassName());
+            int handler = labels.get(catchBlock.getCatchHandler());
+            if (flowTo(handler, handlerFrame, line)) pending.push(handler);
+        }
+    }
+
+    /**
+     * Merges a frame into the frame known at a line. Returns true if that changed anything, so
+     * the instructions from that line on have to be followed (again).
+     */
+    private boolean flowTo(int index, Frame frame, JasminInstruction line) throws AssembleException {
+        if (frames[index] == null) {
+            frames[index] = frame.copy();
+            return true;
+        }
+
+        Frame known = frames[index];
+        if (known.stack.size() != frame.stack.size()) throw invalid(line, "stack height differs between paths");
+        boolean changed = false;
+        for (int i = 0; i < known.locals.length; i++) {
+            String merged = mergeLocal(known.locals[i], frame.locals[i]);
+            if (!merged.equals(known.locals[i])) {
+                known.locals[i] = merged;
+                changed = true;
+            }
+        }
+        for (int i = 0; i < known.stack.size(); i++) {
+            String merged = mergeStack(known.stack.get(i), frame.stack.get(i), line);
+            if (!merged.equals(known.stack.get(i))) {
+                known.stack.set(i, merged);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static String mergeLocal(String a, String b) {
+        if (a.equals(b)) return a;
+        if (!isReference(a) || !isReference(b)) return TOP;
+        return mergeReferences(a, b);
+    }
+
+    private String mergeStack(String a, String b, JasminInstruction line) throws AssembleException {
+        if (a.equals(b)) return a;
+        if (!isReference(a) || !isReference(b)) throw invalid(line, "stack types differ between paths");
+        return mergeReferences(a, b);
+    }
+
+    private static String mergeReferences(String a, String b) {
+        if (a.equals(NULL)) return b;
+        if (b.equals(NULL)) return a;
+        return OBJECT;
+    }
+
+    private static boolean isReference(String type) {
+        return !type.equals(TOP) && !type.equals(INT) && !type.equals(FLOAT) && !type.startsWith(UNINITIALIZED);
+    }
+
+    private Frame entryFrame() {
+        Frame frame = new Frame(method.getMaxLocals());
+        String descriptor = method.getDescriptor();
+        int slot = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            int end = Descriptors.skipType(descriptor, i);
+            frame.locals[slot++] = fromDescriptor(descriptor.substring(i, end));
+            i = end;
+        }
+        return frame;
+    }
+
+    /**
+     * Applies the effect of one instruction to a frame.
+     */
+    private void execute(Frame frame, JasminInstruction line, int index) throws AssembleException {
+        Opcode opcode = line.getOpcode();
+        switch (opcode) {
+            case NOP:
+            case GOTO:
+            case IINC:
+            case RETURN:
+                break;
+            case ACONST_NULL:
+                frame.push(NULL);
+                break;
+            case ICONST_M1:
+            case ICONST_0:
+            case ICONST_1:
+            case ICONST_2:
+            case ICONST_3:
+            case ICONST_4:
+            case ICONST_5:
+            case BIPUSH:
+            case SIPUSH:
+                frame.push(INT);
+                break;
+            case FCONST_0:
+            case FCONST_1:
+            case FCONST_2:
+                frame.push(FLOAT);
+                break;
+            case LDC:
+            case LDC_W:
+                frame.push(constantType(line));
+                break;
+            case ILOAD:
+                frame.push(INT);
+                break;
+            case FLOAD:
+                frame.push(FLOAT);
+                break;
+            case ALOAD:
+                frame.push(frame.locals[slot(frame, line)]);
+                break;
+            case ISTORE:
+            case FSTORE:
+            case ASTORE:
+                frame.locals[slot(frame, line)] = frame.pop(this, line);
+                break;
+            case CASTORE:
+                frame.pop(this, line);
+                frame.pop(this, line);
+                frame.pop(this, line);
+                break;
+            case POP:
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+            case IFNULL:
+            case IFNONNULL:
+            case IRETURN:
+            case FRETURN:
+            case ARETURN:
+            case ATHROW:
+            case PUTSTATIC:
+                frame.pop(this, line);
+                break;
+            case DUP:
+                String top = frame.pop(this, line);
+                frame.push(top);
+                frame.push(top);
+                break;
+            case DUP_X1:
+                String first = frame.pop(this, line);
+                String second = frame.pop(this, line);
+                frame.push(first);
+                frame.push(second);
+                frame.push(first);
+                break;
+            case SWAP:
+                String upper = frame.pop(this, line);
+                String lower = frame.pop(this, line);
+                frame.push(upper);
+                frame.push(lower);
+                break;
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case IDIV:
+            case IREM:
+            case ISHL:
+            case ISHR:
+            case IUSHR:
+            case IAND:
+            case IOR:
+            case IXOR:
+            case FCMPL:
+            case FCMPG:
+                frame.pop(this, line);
+                frame.pop(this, line);
+                frame.push(INT);
+                break;
+            case FADD:
+            case FSUB:
+            case FMUL:
+            case FDIV:
+            case FREM:
+                frame.pop(this, line);
+                frame.pop(this, line);
+                frame.push(FLOAT);
+                break;
+            case INEG:
+            case FNEG:
+                break;
+            case IF_ICMPEQ:
+            case IF_ICMPNE:
+            case IF_ICMPLT:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case IF_ICMPLE:
+            case IF_ACMPEQ:
+            case IF_ACMPNE:
+                frame.pop(this, line);
+                frame.pop(this, line);
+                break;
+            case GETSTATIC:
+                frame.push(fromDescriptor(line.getDescriptor()));
+                break;
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKENONVIRTUAL:
+            case INVOKESTATIC:
+                invoke(frame, line);
+                break;
+            case NEW:
+                frame.push(UNINITIALIZED + index + " " + line.getClassName());
+                break;
+            case CHECKCAST:
+                frame.pop(this, line);
+                frame.push(line.getClassName());
+                break;
+            default:
+                throw invalid(line, "unsupported instruction");
+        }
+    }
+
+    private void invoke(Frame frame, JasminInstruction line) throws AssembleException {
+        String descriptor = line.getDescriptor();
+        for (int i = Descriptors.argumentSize(descriptor); i > 0; i--) frame.pop(this, line);
+
+        if (line.getOpcode() != Opcode.INVOKESTATIC) {
+            String receiver = frame.pop(this, line);
+            // A constructor call turns every copy of the new object into an initialized object
+            if (line.getName().equals("<init>") && receiver.startsWith(UNINITIALIZED)) {
+                String type = receiver.substring(receiver.lastIndexOf(' ') + 1);
+                frame.replace(receiver, type);
+            }
+        }
+
+        String returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+        if (!returnType.equals("V")) frame.push(fromDescriptor(returnType));
+    }
+
+    private int slot(Frame frame, JasminInstruction line) throws AssembleException {
+        int slot = line.getValue();
+        if (slot >= frame.locals.length) throw invalid(line, "local variable outside of the method limits");
+        return slot;
+    }
+
+    /**
+     * Returns the type an ldc instruction pushes.
+     */
+    private static String constantType(JasminInstruction ldc) {
+        switch (ldc.getConstantType()) {
+            case INT:
+                return INT;
+            case FLOAT:
+                return FLOAT;
+            case STRING:
+                return "java/lang/String";
+            case METHOD_HANDLE:
+                return "java/lang/invoke/MethodHandle";
+            default:
+                return "java/lang/Class";
+        }
+    }
+
+    /**
+     * Returns the type of a value of the given field descriptor, as it is kept on the stack.
+     */
+    private static String fromDescriptor(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'I':
+                return INT;
+            case 'F':
+                return FLOAT;
+            case 'L':
+                return descriptor.substring(1, descriptor.length() - 1);
+            default:
+                return descriptor;
+        }
+    }
+
+    private AssembleException invalid(JasminInstruction line, String reason) {
+        return new AssembleException("Cannot compute frames for '" + line + "' in method '" + method.getName() + "': " + reason);
+    }
+
+    /**
+     * The types of the local variables and the operand stack at one point in a method.
+     */
+    static class Frame {
+        final String[] locals;
+        final List<String> stack;
+
+        private Frame(int maxLocals) {
+            this.locals = new String[maxLocals];
+            this.stack = new ArrayList<>();
+            Arrays.fill(locals, TOP);
+        }
+
+        private Frame(String[] locals, List<String> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        private Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        private void push(String type) {
+            stack.add(type);
+        }
+
+        private String pop(FrameComputer computer, JasminInstruction line) throws AssembleException {
+            if (stack.isEmpty()) throw computer.invalid(line, "stack underflow");
+            return stack.remove(stack.size() - 1);
+        }
+
+        private void replace(String from, String to) {
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i].equals(from)) locals[i] = to;
+            }
+            for (int i = 0; i < stack.size(); i++) {
+                if (stack.get(i).equals(from)) stack.set(i, to);
+            }
+        }
+
+        /**
+         * Returns true if an object is still being constructed in this frame. The class file
+         * writer never needs such frames, as the code generator never branches in between.
+         */
+        boolean hasUninitialized() {
+            for (String local : locals) {
+                if (local.startsWith(UNINITIALIZED)) return true;
+            }
+            for (String type : stack) {
+                if (type.startsWith(UNINITIALIZED)) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package nl.cos.bytecode;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.jasmin.Opcode;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Works out the maximum operand stack depth and the number of local variable slots a method
+ * needs, by following every path through its instructions.
+ */
+public final class LimitCalculator {
+    private LimitCalculator() {
+    }
+
+    /**
+     * Computes the limits of a method and stores them in it.
+     */
+    public static void computeLimits(JasminMethod method) {
+        List<JasminInstruction> lines = method.getInstructions();
+        HashMap<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).isLabel()) labels.put(lines.get(i).getLabel(), i);
+        }
+
+        int maxLocals = Descriptors.argumentSize(method.getDescriptor());
+        for (JasminInstruction line : lines) {
+            if (!line.isInstruction()) continue;
+            Opcode.Operand operand = line.getOpcode().getOperand();
+            if (operand == Opcode.Operand.LOCAL || operand == Opcode.Operand.IINC) maxLocals = Math.max(maxLocals, line.getValue() + 1);
+        }
+
+        // Follow all paths through the method, remembering the stack depth at every line
+        int[] depths = new int[lines.size()];
+        Arrays.fill(depths, -1);
+        Deque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[] {0, 0});
+        for (JasminInstruction line : lines) {
+            // Exception handlers start with just the exception on the stack
+            if (line.getKind() == JasminInstruction.Kind.CATCH && labels.containsKey(line.getCatchHandler())) {
+                pending.push(new int[] {labels.get(line.getCatchHandler()), 1});
+            }
+        }
+        int maxStack = 0;
+
+        while (!pending.isEmpty()) {
+            int[] state = pending.pop();
+            int index = state[0];
+            int depth = state[1];
+
+            while (index < lines.size() && depths[index] == -1) {
+                depths[index] = depth;
+                JasminInstruction line = lines.get(index);
+                index++;
+                if (!line.isInstruction()) continue;
+
+                Opcode opcode = line.getOpcode();
+                depth += stackDelta(line);
+                maxStack = Math.max(maxStack, depth);
+
+                if (opcode.getOperand() == Opcode.Operand.BRANCH) {
+                    Integer target = labels.get(line.getLabel());
+                    if (target != null) pending.push(new int[] {target, depth});
+                }
+                if (opcode.endsFlow()) break;
+            }
+        }
+
+        method.setLimits(maxStack, maxLocals);
+    }
+
+    /**
+     * Returns the effect of an instruction on the depth of the operand stack.
+     */
+    static int stackDelta(JasminInstruction instruction) {
+        Opcode opcode = instruction.getOpcode();
+        switch (opcode.getOperand()) {
+            case FIELD:
+                int size = Descriptors.typeSize(instruction.getDescriptor());
+                return opcode == Opcode.GETSTATIC ? size : -size;
+            case METHOD:
+                String descriptor = instruction.getDescriptor();
+                int delta = Descriptors.returnSize(descriptor) - Descriptors.argumentSize(descriptor);
+                return opcode == Opcode.INVOKESTATIC ? delta : delta - 1;
+            default:
+                return opcode.getStackDelta();
+        }
+    }
+}
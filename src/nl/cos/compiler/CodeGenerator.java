@@ -2,69 +2,99 @@ package nl.cos.compiler;
 
 import nl.cos.ArcLangBaseVisitor;
 import nl.cos.ArcLangParser;
+import nl.cos.CompilerOptions;
 import nl.cos.exceptions.CompilerException;
 import nl.cos.jasmin.DataType;
+import nl.cos.jasmin.JasminField;
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
 import nl.cos.jasmin.MathInstr;
+import nl.cos.jasmin.Opcode;
 import nl.cos.typing.SymbolTable;
+import nl.cos.typing.symbols.FunctionParamVariableSymbol;
 import nl.cos.typing.symbols.FunctionSymbolInterface;
+import nl.cos.typing.symbols.SelfFunctionSymbol;
 import nl.cos.typing.symbols.Symbol;
 import nl.cos.typing.symbols.VariableSymbol;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
 import java.util.*;
 
 public class CodeGenerator extends ArcLangBaseVisitor<Void> {
     private final String className;
-    private final ArrayList<String> jasminMainCode;
-    private final HashMap<String, ArrayList<String>> jasminMethodCode;
+    private final ArrayList<JasminInstruction> jasminMainCode;
+    private final LinkedHashMap<String, JasminMethod> jasminMethodCode;
+    private final LinkedHashMap<String, String> methodHandles;
     private final ParseTreeProperty<DataType> pt;
     private final ParseTreeProperty<SymbolTable> st;
+    private final UsageAnalyzer usage;
+    private final ConstantFolder constants;
+    private final boolean constantMethodHandles;
+    private final boolean bufferedOutput;
     private boolean writeToMethod;
     private int labelCount;
     private final Stack<String> functionNameStack;
 
-    public CodeGenerator(ParseTreeProperty<DataType> pt, ParseTreeProperty<SymbolTable> st, String className) {
+    public CodeGenerator(ParseTreeProperty<DataType> pt, ParseTreeProperty<SymbolTable> st, String className, UsageAnalyzer usage, ConstantFolder constants, CompilerOptions options) {
         jasminMainCode = new ArrayList<>();
-        jasminMethodCode = new HashMap<>();
+        jasminMethodCode = new LinkedHashMap<>();
+        methodHandles = new LinkedHashMap<>();
         this.labelCount = 0;
         this.pt = pt;
         this.st = st;
+        this.usage = usage;
+        this.constants = constants;
+        this.constantMethodHandles = options.getTargetVersion() >= 52;
+        this.bufferedOutput = options.isBufferedOutput();
+        if (bufferedOutput) jasminMethodCode.put(RuntimeLibrary.FLUSH, RuntimeLibrary.flushMethod(className));
         writeToMethod = false;
         this.className = className;
         this.functionNameStack = new Stack<>();
     }
 
+    @Override
+    public Void visit(ParseTree tree) {
+        //Expressions with a value that is known at compile time are pushed as a single constant
+        Object value = constants.getValue(tree);
+        if (value == null) return super.visit(tree);
+        generateConstant(value);
+        return null;
+    }
+
     @Override
     public Void visitFunctionInit(ArcLangParser.FunctionInitContext ctx) {
         String returnType = ctx.codeBlockFunc().returnScope() == null ? DataType.VOID.getDescriptor() : pt.get(ctx.codeBlockFunc().returnScope()).getDescriptor();
         String fName = functionNameStack.peek();
-        jasminMethodCode.put(fName, new ArrayList<>());
 
         //Generate method signature
-        jasminMethodCode.get(fName).add(
-                generateMethodSignature(ctx,returnType,fName)
-        );
+        jasminMethodCode.put(fName, new JasminMethod(fName, generateMethodDescriptor(ctx,returnType)));
 
-        //Add method code
+        //Add method code, with labels counted from zero again, so a method always comes out the same
+        int outerLabelCount = labelCount;
+        labelCount = 0;
         writeToMethod = true;
-        addJasminCode(".limit stack 99");
-        addJasminCode(".limit locals 99");
         visit(ctx.codeBlockFunc());
-        if (returnType.equals(DataType.VOID.getDescriptor())) addJasminCode("return");
+        if (returnType.equals(DataType.VOID.getDescriptor())) addJasminCode(JasminInstruction.of(Opcode.RETURN));
+        labelCount = outerLabelCount;
         functionNameStack.pop();
         if (functionNameStack.empty()) writeToMethod = false;
-        jasminMethodCode.get(fName).add(".end method");
         return null;
     }
 
-    private String generateMethodSignature(ArcLangParser.FunctionInitContext ctx, String returnType, String fName){
+    private String generateMethodDescriptor(ArcLangParser.FunctionInitContext ctx, String returnType){
         StringBuilder initString = new StringBuilder();
-        initString.append(".method public static ").append(fName).append("(");
+        initString.append("(");
 
         if (ctx.variableDecList() != null) {
-            for (Symbol symbol : st.get(ctx.variableDecList()).getCurrentScopeSymbols()) {
-                initString.append(((VariableSymbol) symbol).getType().getDescriptor());
+            //Parameters are stored by name, so put them back in declaration order first
+            List<Symbol> params = st.get(ctx.variableDecList()).getCurrentScopeSymbols();
+            DataType[] paramTypes = new DataType[params.size()];
+            for (Symbol symbol : params) {
+                FunctionParamVariableSymbol param = (FunctionParamVariableSymbol) symbol;
+                paramTypes[param.getParamIndex()] = param.getType();
             }
+            for (DataType paramType : paramTypes) initString.append(paramType.getDescriptor());
         }
 
         initString.append(")").append(returnType);
@@ -73,47 +103,48 @@ public class CodeGenerator extends ArcLangBaseVisitor<Void> {
 
     @Override
     public Void visitFunctionCall(ArcLangParser.FunctionCallContext ctx) {
-        //Get method handle
-        int index = ((VariableSymbol) st.get(ctx).lookup(ctx.E_IDENTIFIER().getText())).getIndex();
-        FunctionSymbolInterface functionSymbol = (FunctionSymbolInterface) st.get(ctx).lookup(ctx.E_IDENTIFIER().getText());
-        addJasminCode("aload "+index);
+        String name = ctx.E_IDENTIFIER().getText();
+        Symbol symbol = st.get(ctx).lookup(name);
+        FunctionSymbolInterface functionSymbol = (FunctionSymbolInterface) symbol;
+        String descriptor = DataType.methodDescriptor(functionSymbol.getParams(), functionSymbol.getReturnType());
+
+        //Functions that can only ever be one method are called directly, and so are calls of a function to itself
+        if (symbol instanceof SelfFunctionSymbol || usage.isStaticallyKnown(symbol)) {
+            if (ctx.expressionList() != null) visit(ctx.expressionList());
+            String method = symbol instanceof SelfFunctionSymbol ? functionNameStack.peek() : name;
+            addJasminCode(JasminInstruction.method(Opcode.INVOKESTATIC, className, method, descriptor));
+            return null;
+        }
 
-        //Figure out the invocation handle
+        //Get method handle
+        addJasminCode(JasminInstruction.of(Opcode.ALOAD, ((VariableSymbol) symbol).getIndex()));
         if (ctx.expressionList() != null) visit(ctx.expressionList());
-        StringBuilder invocationDescriptors = new StringBuilder();
-        for (DataType param : functionSymbol.getParams()){
-            invocationDescriptors.append(param.getDescriptor());
-        }
-        addJasminCode("invokevirtual java/lang/invoke/MethodHandle/invoke("+invocationDescriptors+")"+functionSymbol.getReturnType().getDescriptor());
+        addJasminCode(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invoke", descriptor));
         return null;
     }
 
     @Override
     public Void visitSystemInput(ArcLangParser.SystemInputContext ctx) {
-        addJasminCode("new java/util/Scanner");
-        addJasminCode("dup");
-        addJasminCode("getstatic java/lang/System/in Ljava/io/InputStream;");
-        addJasminCode("invokenonvirtual java/util/Scanner/<init>(Ljava/io/InputStream;)V");
-        addJasminCode("invokevirtual java/util/Scanner/nextLine()Ljava/lang/String;");
+        addJasminCode(RuntimeLibrary.readLine(className, jasminMethodCode));
 
         visit(ctx.right);
         DataType t = pt.get(ctx);
         int index = ((VariableSymbol)st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText())).getIndex();
-        addJasminCode(t.getMnemonic() + "store " + index);
+        addJasminCode(JasminInstruction.of(t.getStore(), index));
         return null;
     }
 
     @Override
     public Void visitLoop(ArcLangParser.LoopContext ctx) {
         String labelLoopStart = "BR" + labelCount++;
-        String labelLoopEnd = "BR" + labelCount++;
+        String labelLoopCondition = "BR" + labelCount++;
 
-        addJasminCode(labelLoopStart + ":");
-        visit(ctx.expression());
-        addJasminCode("ifeq "+ labelLoopEnd);
+        //The condition is tested at the bottom, so every iteration takes just one branch
+        addJasminCode(JasminInstruction.jump(Opcode.GOTO, labelLoopCondition));
+        addJasminCode(JasminInstruction.label(labelLoopStart));
         visit(ctx.codeBlock());
-        addJasminCode("goto " + labelLoopStart);
-        addJasminCode(labelLoopEnd + ":");
+        addJasminCode(JasminInstruction.label(labelLoopCondition));
+        generateJump(ctx.expression(), labelLoopStart, true);
 
         return null;
     }
@@ -121,8 +152,12 @@ public class CodeGenerator extends ArcLangBaseVisitor<Void> {
     @Override
     public Void visitVariableExpr(ArcLangParser.VariableExprContext ctx) {
         DataType t = pt.get(ctx);
-        int index = ((VariableSymbol) st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText())).getIndex();
-        addJasminCode(t.getMnemonic() + "load " + index);
+        Symbol symbol = st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
+        if (symbol instanceof SelfFunctionSymbol) {
+            generateMethodHandleText(functionNameStack.peek(), symbol);
+            return null;
+        }
+        addJasminCode(JasminInstruction.of(t.getLoad(), ((VariableSymbol) symbol).getIndex()));
         return null;
     }
 
@@ -132,64 +167,65 @@ public class CodeGenerator extends ArcLangBaseVisitor<Void> {
         int index = ((VariableSymbol)st.get(ctx).lookup(ctx.E_IDENTIFIER().getText())).getIndex();
         switch (t) {
             case STRING:
-                addJasminCode("aconst_null");
+                addJasminCode(JasminInstruction.of(Opcode.ACONST_NULL));
                 break;
             case FUNCTION:
-                addJasminCode("aconst_null");
-                functionNameStack.push(ctx.E_IDENTIFIER().getText());
+                addJasminCode(JasminInstruction.of(Opcode.ACONST_NULL));
                 break;
             case FLOAT:
-                addJasminCode("ldc 0.0");
+                addJasminCode(JasminInstruction.ldc(0.0f));
                 break;
             case INT:
             case BOOLEAN:
-                addJasminCode("ldc 0");
+                addJasminCode(JasminInstruction.ldc(0));
                 break;
         }
-        if (t != DataType.FUNCTION) addJasminCode(t.getMnemonic() + "store " + index);
+        addJasminCode(JasminInstruction.of(t.getStore(), index));
         return null;
     }
 
     @Override
     public Void visitVariableInitDec(ArcLangParser.VariableInitDecContext ctx) {
         DataType t = pt.get(ctx);
-        if (t == DataType.FUNCTION) functionNameStack.push(ctx.E_IDENTIFIER().getText());
         VariableSymbol symbol = (VariableSymbol)st.get(ctx).lookup(ctx.E_IDENTIFIER().getText());
-
-        visit(ctx.expression());
-
-        if (t == DataType.FUNCTION) {
-            initializeVariable(t,symbol,ctx.E_IDENTIFIER().getText(),st.get(ctx).lookup(ctx.E_IDENTIFIER().getText()));
-        } else initializeVariable(t,symbol, null, null);
+        initializeVariable(t, symbol, ctx.E_IDENTIFIER().getText(), ctx.expression());
         return null;
     }
 
     @Override
     public Void visitVariableInitialization(ArcLangParser.VariableInitializationContext ctx) {
-        visit(ctx.expression());
-
         DataType t = pt.get(ctx);
         VariableSymbol symbol = (VariableSymbol)st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
-
-        if (t == DataType.FUNCTION) {
-            initializeVariable(t,symbol,ctx.variable().E_IDENTIFIER().getText(),st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText()));
-        } else initializeVariable(t,symbol, null, null);
+        initializeVariable(t, symbol, ctx.variable().E_IDENTIFIER().getText(), ctx.expression());
         return null;
     }
 
-    private void initializeVariable(DataType type, VariableSymbol variableSymbol, String functionName, Symbol functionSymbol){
-        if (type == DataType.FUNCTION) generateMethodHandleText(functionName, functionSymbol);
+    private void initializeVariable(DataType type, VariableSymbol variableSymbol, String name, ArcLangParser.ExpressionContext expression){
+        //Function literals become a method; the variable only needs a handle to it if it is ever looked up at runtime
+        if (type == DataType.FUNCTION && UsageAnalyzer.isFunctionLiteral(expression)) {
+            functionNameStack.push(name);
+            visit(expression);
+            if (!usage.needsMethodHandle(variableSymbol)) return;
+            generateMethodHandleText(name, variableSymbol);
+        } else visit(expression);
+
         int index = variableSymbol.getIndex();
-        addJasminCode(type.getMnemonic() + "store " + index);
+        addJasminCode(JasminInstruction.of(type.getStore(), index));
     }
 
     @Override
     public Void visitSystemReturn(ArcLangParser.SystemReturnContext ctx) {
-        addJasminCode("getstatic java/lang/System/out Ljava/io/PrintStream;");
+        if (bufferedOutput) {
+            visit(ctx.expression());
+            addJasminCode(RuntimeLibrary.printLine(className, pt.get(ctx), jasminMethodCode));
+            return null;
+        }
+
+        addJasminCode(JasminInstruction.field(Opcode.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;"));
         visit(ctx.expression());
         DataType t = pt.get(ctx);
         if(t == DataType.VOID) t = DataType.STRING;
-        addJasminCode("invokevirtual java/io/PrintStream/println(" + t.getDescriptor() + ")V");
+        addJasminCode(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + t.getDescriptor() + ")V"));
         return null;
     }
 
@@ -219,126 +255,85 @@ public class CodeGenerator extends ArcLangBaseVisitor<Void> {
 
     @Override
     public Void visitLiteralTrue(ArcLangParser.LiteralTrueContext ctx) {
-        addJasminCode("ldc 1");
+        addJasminCode(JasminInstruction.ldc(1));
         return null;
     }
 
     @Override
     public Void visitLiteralFalse(ArcLangParser.LiteralFalseContext ctx) {
-        addJasminCode("ldc 0");
+        addJasminCode(JasminInstruction.ldc(0));
         return null;
     }
 
     @Override
     public Void visitLiteralString(ArcLangParser.LiteralStringContext ctx) {
-        addJasminCode("ldc " + ctx.getText());
+        addJasminCode(JasminInstruction.ldcString(ctx.getText()));
         return null;
     }
 
     @Override
     public Void visitLiteralNull(ArcLangParser.LiteralNullContext ctx) {
-        addJasminCode("aconst_null");
+        addJasminCode(JasminInstruction.of(Opcode.ACONST_NULL));
         return null;
     }
 
     @Override
     public Void visitBoolNotExpr(ArcLangParser.BoolNotExprContext ctx) {
-        visit(ctx.expression());
-        String labelTrue = "BR"+new Random().nextInt(Integer.MAX_VALUE);
-        String labelFalse = "BR"+new Random().nextInt(Integer.MAX_VALUE);
-        addJasminCode("ifeq "+labelTrue);
-        generateComparisonOnStack(labelTrue, labelFalse);
+        generateBoolean(ctx);
         return null;
     }
 
     @Override
-    public Void visitMathAddExpr(ArcLangParser.MathAddExprContext ctx) {
+    public Void visitMathMultiplicativeExpr(ArcLangParser.MathMultiplicativeExprContext ctx) {
         visit(ctx.left);
         visit(ctx.right);
 
-        addJasminCode(pt.get(ctx.left).getMnemonic() + MathInstr.ADD.getCode());
+        DataType typeL = pt.get(ctx.left);
+        if (ctx.op.getType() == ArcLangParser.MATH_MUL) addJasminCode(JasminInstruction.of(MathInstr.MUL.forType(typeL)));
+        else if (ctx.op.getType() == ArcLangParser.MATH_DIV) addJasminCode(JasminInstruction.of(MathInstr.DIV.forType(typeL)));
+        else addJasminCode(JasminInstruction.of(MathInstr.REM.forType(typeL)));
 
         return null;
     }
 
     @Override
-    public Void visitMathSubExpr(ArcLangParser.MathSubExprContext ctx) {
+    public Void visitMathAdditiveExpr(ArcLangParser.MathAdditiveExprContext ctx) {
         visit(ctx.left);
         visit(ctx.right);
 
-        String typeL = pt.get(ctx.left).getMnemonic();
-        addJasminCode(typeL + MathInstr.SUB.getCode());
-
-        return null;
-    }
-
-    @Override
-    public Void visitMathMulExpr(ArcLangParser.MathMulExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        String typeL = pt.get(ctx.left).getMnemonic();
-        addJasminCode(typeL + MathInstr.MUL.getCode());
-
-        return null;
-    }
-
-    @Override
-    public Void visitMathDivExpr(ArcLangParser.MathDivExprContext ctx) {
-        if(ctx.right.getText().equals("0")) throw new CompilerException("Cannot do division by zero!");
-        visit(ctx.left);
-        visit(ctx.right);
-
-        String typeL = pt.get(ctx.left).getMnemonic();
-        addJasminCode(typeL + MathInstr.DIV.getCode());
-
-        return null;
-    }
-
-    @Override
-    public Void visitMathModExpr(ArcLangParser.MathModExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        String typeL = pt.get(ctx.left).getMnemonic();
-        addJasminCode(typeL + MathInstr.REM.getCode());
+        DataType typeL = pt.get(ctx.left);
+        if (ctx.op.getType() == ArcLangParser.MATH_ADD) addJasminCode(JasminInstruction.of(MathInstr.ADD.forType(typeL)));
+        else addJasminCode(JasminInstruction.of(MathInstr.SUB.forType(typeL)));
 
         return null;
     }
 
     @Override
     public Void visitCondition(ArcLangParser.ConditionContext ctx) {
-        visit(ctx.expression());
         if(pt.get(ctx.expression()) != DataType.BOOLEAN) throw new CompilerException("Condition statement expected a boolean!");
-        String labelTrue = "BR" + labelCount++;
         String labelFalse = "BR" + labelCount++;
+        String labelEnd = "BR" + labelCount++;
 
-        addJasminCode("ifne "+labelTrue); // Are we TRUE?
-        if (ctx.conditionBranchFalse() != null) visit(ctx.conditionBranchFalse()); // Create FALSE code if we have it
-        addJasminCode("goto "+labelFalse); // Exit statement after FALSE
-        addJasminCode(labelTrue+":");
+        generateJump(ctx.expression(), labelFalse, false); // Skip the TRUE code if we are FALSE
         visit(ctx.conditionBranchTrue()); // Create TRUE code
-        addJasminCode(labelFalse+":"); // Go here to exit
+        if (ctx.conditionBranchFalse() != null) {
+            addJasminCode(JasminInstruction.jump(Opcode.GOTO, labelEnd)); // Exit statement after TRUE
+            addJasminCode(JasminInstruction.label(labelFalse));
+            visit(ctx.conditionBranchFalse()); // Create FALSE code if we have it
+            addJasminCode(JasminInstruction.label(labelEnd)); // Go here to exit
+        } else addJasminCode(JasminInstruction.label(labelFalse));
         return null;
     }
 
     @Override
     public Void visitBoolComprExpr(ArcLangParser.BoolComprExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        generateComparison(ctx.booleanComparator(), null, pt.get(ctx.left).getMnemonic());
-        visit(ctx.booleanComparator());
+        generateBoolean(ctx);
         return null;
     }
 
     @Override
     public Void visitBoolLogicalComprExpr(ArcLangParser.BoolLogicalComprExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        generateComparison(null,ctx.booleanLogicalComperator(), pt.get(ctx.left).getMnemonic());
-        visit(ctx.booleanLogicalComperator());
+        generateBoolean(ctx);
         return null;
     }
 
@@ -347,144 +342,178 @@ public class CodeGenerator extends ArcLangBaseVisitor<Void> {
         visit(ctx.expression());
         DataType returnType = pt.get(ctx);
 
-        addJasminCode(returnType.getMnemonic() + "return");
+        addJasminCode(JasminInstruction.of(returnType.getReturn()));
         return null;
     }
 
     private void generateIntCode(String intNum){
+        int value;
         try {
-            Integer.parseInt(intNum);
+            value = Integer.parseInt(intNum);
         }catch (NumberFormatException e){
             throw new CompilerException("Number literal is incorrect!");
         }
-        addJasminCode("ldc " + intNum);
+        addJasminCode(JasminInstruction.ldc(value));
     }
 
     private void generateFloatCode(String floatNum){
+        float value;
         try {
-            Float.parseFloat(floatNum);
+            value = Float.parseFloat(floatNum);
         }catch (NumberFormatException e){
             throw new CompilerException("Float literal is incorrect!");
         }
-        addJasminCode("ldc " + floatNum);
+        addJasminCode(JasminInstruction.ldc(value));
     }
 
-    private void generateComparison(ArcLangParser.BooleanComparatorContext ctx, ArcLangParser.BooleanLogicalComperatorContext ctx2, String type){
-        String labelTrue = "BR" + labelCount++;
-        String labelFalse = "BR" + labelCount++;
-        ArrayList<String> instructions = new ArrayList<>();
+    private void generateConstant(Object value) {
+        if (value instanceof Boolean) addJasminCode(JasminInstruction.ldc((Boolean) value ? 1 : 0));
+        else if (value instanceof Float) generateFloatConstant((Float) value);
+        else addJasminCode(JasminInstruction.ldc((Integer) value));
+    }
 
-        //Float comparisons require special treatment, so we check it here
-        if (!type.equals("i")) instructions.addAll(generateFloatCompare(ctx));
-        else instructions.addAll(generateIntegerCompare(ctx, ctx2));
+    private void generateFloatConstant(float value) {
+        for (JasminInstruction instruction : floatConstant(value)) addJasminCode(instruction);
+    }
 
-        instructions.set(instructions.size()-1, instructions.get(instructions.size()-1)+" "+labelTrue);
-        if(writeToMethod) jasminMethodCode.get(functionNameStack.peek()).addAll(instructions);
-        else jasminMainCode.addAll(instructions);
+    /**
+     * Returns the instructions that push a float constant. NaN and the infinities have no
+     * literal, so they are made by dividing by zero.
+     */
+    static List<JasminInstruction> floatConstant(float value) {
+        if (Float.isNaN(value)) return Arrays.asList(JasminInstruction.ldc(0.0f), JasminInstruction.ldc(0.0f), JasminInstruction.of(Opcode.FDIV));
+        if (Float.isInfinite(value)) {
+            return Arrays.asList(JasminInstruction.ldc(value > 0 ? 1.0f : -1.0f), JasminInstruction.ldc(0.0f), JasminInstruction.of(Opcode.FDIV));
+        }
+        return Collections.singletonList(JasminInstruction.ldc(value));
+    }
 
-        generateComparisonOnStack(labelTrue, labelFalse);
+    /**
+     * Returns the instruction that compares two floats before a jump. fcmpl pushes -1 and fcmpg
+     * pushes 1 for NaN, so picking the one that fails the comparison makes only not equal true
+     * for NaN.
+     */
+    static Opcode floatComparison(boolean lessThan) {
+        return lessThan ? Opcode.FCMPG : Opcode.FCMPL;
     }
 
     private void generateComparisonOnStack(String labelTrue, String labelFalse){
-        addJasminCode("iconst_0");
-        addJasminCode("goto "+labelFalse);
-        addJasminCode(labelTrue+":");
-        addJasminCode("iconst_1");
-        addJasminCode(labelFalse+":");
-    }
-
-    private ArrayList<String> generateIntegerCompare(ArcLangParser.BooleanComparatorContext ctx, ArcLangParser.BooleanLogicalComperatorContext ctx2){
-        ArrayList<String> instructions = new ArrayList<>();
-        if(ctx != null){
-            if (ctx.B_GRATER() != null) instructions.add("if_icmpgt");
-            if (ctx.B_EQUAL() != null) instructions.add("if_icmpeq");
-            if (ctx.B_LESS() != null) instructions.add("if_icmplt");
-            if (ctx.B_GREATER_EQUAL() != null) instructions.add("if_icmpge");
-            if (ctx.B_LESS_EQUAL() != null) instructions.add("if_icmple");
-            if (ctx.B_NOT_EQUAL() != null) instructions.add("if_icmpne");
-        }
-        else if(ctx2 != null) {
-            if (ctx2.B_OR() != null) {
-                instructions.add("ior");
-                instructions.add("ifne");
-            }
-            if (ctx2.B_AND() != null){
-                instructions.add("iand");
-                instructions.add("ifne");
-            }
+        addJasminCode(JasminInstruction.of(Opcode.ICONST_0));
+        addJasminCode(JasminInstruction.jump(Opcode.GOTO, labelFalse));
+        addJasminCode(JasminInstruction.label(labelTrue));
+        addJasminCode(JasminInstruction.of(Opcode.ICONST_1));
+        addJasminCode(JasminInstruction.label(labelFalse));
+    }
+
+    /**
+     * Pushes the value of a logic expression that is only known at runtime, by jumping over the
+     * code that pushes false when the expression is true.
+     */
+    private void generateBoolean(ArcLangParser.ExpressionContext expression) {
+        String labelTrue = "BR" + labelCount++;
+        String labelEnd = "BR" + labelCount++;
+        generateJump(expression, labelTrue, true);
+        generateComparisonOnStack(labelTrue, labelEnd);
+    }
+
+    /**
+     * Jumps to the target if the logic expression is equal to jumpIf, and falls through
+     * otherwise. Comparisons and logical operators jump straight to their target, so their value
+     * never has to be pushed and tested again.
+     */
+    private void generateJump(ArcLangParser.ExpressionContext expression, String target, boolean jumpIf) {
+        Object value = constants.getValue(expression);
+        if (value != null) {
+            if (value.equals(jumpIf)) addJasminCode(JasminInstruction.jump(Opcode.GOTO, target));
+        } else if (expression instanceof ArcLangParser.ParenedExprContext) {
+            generateJump(((ArcLangParser.ParenedExprContext) expression).expression(), target, jumpIf);
+        } else if (expression instanceof ArcLangParser.BoolNotExprContext) {
+            generateJump(((ArcLangParser.BoolNotExprContext) expression).expression(), target, !jumpIf);
+        } else if (expression instanceof ArcLangParser.BoolComprExprContext) {
+            generateComparisonJump((ArcLangParser.BoolComprExprContext) expression, target, jumpIf);
+        } else if (expression instanceof ArcLangParser.BoolLogicalComprExprContext) {
+            generateLogicalJump((ArcLangParser.BoolLogicalComprExprContext) expression, target, jumpIf);
+        } else {
+            visit(expression);
+            addJasminCode(JasminInstruction.jump(jumpIf ? Opcode.IFNE : Opcode.IFEQ, target));
         }
-        return instructions;
     }
 
-    private ArrayList<String> generateFloatCompare(ArcLangParser.BooleanComparatorContext ctx){
-        ArrayList<String> instructions = new ArrayList<>();
-        if (ctx.B_GRATER() != null) {
-            instructions.add("fcmpl");
-            instructions.add("ifge");
-        }
-        if (ctx.B_EQUAL() != null) {
-            instructions.add("fcmpl");
-            instructions.add("ifeq");
-        }
-        if (ctx.B_LESS() != null) {
-            instructions.add("fcmpg");
-            instructions.add("ifle");
-        }
-        if (ctx.B_GREATER_EQUAL() != null) {
-            instructions.add("fcmpl");
-            instructions.add("ifgt");
-        }
-        if (ctx.B_LESS_EQUAL() != null) {
-            instructions.add("fcmpg");
-            instructions.add("iflt");
-        }
-        if (ctx.B_NOT_EQUAL() != null) {
-            instructions.add("fcmpl");
-            instructions.add("ifne");
+    private void generateComparisonJump(ArcLangParser.BoolComprExprContext ctx, String target, boolean jumpIf) {
+        visit(ctx.left);
+        visit(ctx.right);
+
+        int comparator = ctx.op.getType();
+        String condition;
+        if (comparator == ArcLangParser.B_GRATER) condition = jumpIf ? "gt" : "le";
+        else if (comparator == ArcLangParser.B_LESS) condition = jumpIf ? "lt" : "ge";
+        else if (comparator == ArcLangParser.B_GREATER_EQUAL) condition = jumpIf ? "ge" : "lt";
+        else if (comparator == ArcLangParser.B_LESS_EQUAL) condition = jumpIf ? "le" : "gt";
+        else if (comparator == ArcLangParser.B_EQUAL) condition = jumpIf ? "eq" : "ne";
+        else condition = jumpIf ? "ne" : "eq";
+
+        if (pt.get(ctx.left) == DataType.FLOAT) {
+            addJasminCode(JasminInstruction.of(floatComparison(comparator == ArcLangParser.B_LESS || comparator == ArcLangParser.B_LESS_EQUAL)));
+            addJasminCode(JasminInstruction.jump(Opcode.forMnemonic("if" + condition), target));
+        } else addJasminCode(JasminInstruction.jump(Opcode.forMnemonic("if_icmp" + condition), target));
+    }
+
+    private void generateLogicalJump(ArcLangParser.BoolLogicalComprExprContext ctx, String target, boolean jumpIf) {
+        //The right side is only evaluated if the left side does not decide the result yet
+        boolean or = ctx.op.getType() == ArcLangParser.B_OR;
+        if (jumpIf == or) {
+            generateJump(ctx.left, target, jumpIf);
+            generateJump(ctx.right, target, jumpIf);
+        } else {
+            String labelDecided = "BR" + labelCount++;
+            generateJump(ctx.left, labelDecided, or);
+            generateJump(ctx.right, target, jumpIf);
+            addJasminCode(JasminInstruction.label(labelDecided));
         }
-        return instructions;
     }
 
     private void generateMethodHandleText(String name, Symbol functionSymbol) {
         //Generate method signature
-        StringBuilder methodSignature = new StringBuilder();
-        methodSignature.append("(");
-        FunctionSymbolInterface symbol;
-        symbol = (FunctionSymbolInterface) functionSymbol;
-        if (symbol.getParams() != null) {
-            for (DataType param : symbol.getParams()) {
-                methodSignature.append(param.getDescriptor());
-            }
-        }
-        methodSignature.append(")")
-                .append(symbol.getReturnType().getDescriptor());
+        FunctionSymbolInterface symbol = (FunctionSymbolInterface) functionSymbol;
+        String descriptor = DataType.methodDescriptor(symbol.getParams(), symbol.getReturnType());
 
-        //Some really fun code to generate a handle
-        addJasminCode("invokestatic java/lang/invoke/MethodHandles.lookup()Ljava/lang/invoke/MethodHandles$Lookup;");
-        addJasminCode("ldc " + this.className);
-        addJasminCode("ldc \"" + name + "\"");
-        addJasminCode("ldc \"" + methodSignature + "\"");
-        addJasminCode("invokestatic java/lang/ClassLoader.getSystemClassLoader()Ljava/lang/ClassLoader;");
-        addJasminCode("invokestatic java/lang/invoke/MethodType.fromMethodDescriptorString(Ljava/lang/String;Ljava/lang/ClassLoader;)Ljava/lang/invoke/MethodType;");
-        addJasminCode("invokevirtual java/lang/invoke/MethodHandles$Lookup.findStatic(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;");
+        addJasminCode(RuntimeLibrary.loadHandle(className, name, descriptor, constantMethodHandles, methodHandles));
     }
 
-    private void addJasminCode(String codeToAdd) {
+    private void addJasminCode(JasminInstruction codeToAdd) {
         if(writeToMethod) jasminMethodCode.get(functionNameStack.peek()).add(codeToAdd);
         else jasminMainCode.add(codeToAdd);
     }
 
-    public List<String> getCode(){
-        return jasminMainCode;
+    /**
+     * Returns the main method of the class. With buffered output, the main method first creates
+     * the output writer, and flushes it when it ends, also when it ends with an exception.
+     */
+    public JasminMethod getMainMethod() {
+        // NOTE: The args-parameter is a local too
+        return RuntimeLibrary.mainMethod(className, jasminMainCode, bufferedOutput);
     }
 
-    public List<String> getMethodCode() {
-        List<String> returnCode = new ArrayList<>();
-        for (Map.Entry<String, ArrayList<String>> e : jasminMethodCode.entrySet()){
-            returnCode.add(" ");
-            returnCode.add("; ---Method: '"+e.getKey()+"' ---");
-            returnCode.addAll(e.getValue());
-        }
-        return returnCode;
+    /**
+     * Returns the functions and runtime helpers, in the order they were first generated.
+     */
+    public Collection<JasminMethod> getMethods() {
+        return jasminMethodCode.values();
+    }
+
+    /**
+     * Returns the static fields of the class: the shared input reader if the program reads input,
+     * the output writer if output is buffered, and the handles of functions used as values.
+     */
+    public List<JasminField> getFields() {
+        return RuntimeLibrary.fields(jasminMethodCode, bufferedOutput, methodHandles);
+    }
+
+    /**
+     * Returns the static initializer that looks up every method handle once, or null if the
+     * class does not need any handles.
+     */
+    public JasminMethod getStaticInitializer() {
+        return RuntimeLibrary.staticInitializer(className, methodHandles);
     }
 }
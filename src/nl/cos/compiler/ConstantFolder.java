@@ -0,0 +1,223 @@
+package nl.cos.compiler;
+
+import nl.cos.ArcLangBaseVisitor;
+import nl.cos.ArcLangParser;
+import nl.cos.exceptions.CompilerException;
+import nl.cos.jasmin.DataType;
+import nl.cos.typing.SymbolTable;
+import nl.cos.typing.symbols.Symbol;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.RuleNode;
+
+import java.util.HashMap;
+
+/**
+ * Works out the value of every expression that is known at compile time: literals, math,
+ * comparisons and boolean logic on known values, and variables that are declared with a known
+ * value and never assigned again. Values are Integers for num, Floats for frac and Booleans for
+ * logic, and are calculated with the same overflow and rounding rules as the JVM instructions
+ * they replace. Runs after the type checker and the usage analyzer.
+ */
+public class ConstantFolder extends ArcLangBaseVisitor<Object> {
+    private final ParseTreeProperty<DataType> pt;
+    private final ParseTreeProperty<SymbolTable> st;
+    private final UsageAnalyzer usage;
+    private final ParseTreeProperty<Object> values;
+    private final HashMap<Symbol, Object> constantVariables;
+
+    public ConstantFolder(ParseTreeProperty<DataType> pt, ParseTreeProperty<SymbolTable> st, UsageAnalyzer usage) {
+        this.pt = pt;
+        this.st = st;
+        this.usage = usage;
+        this.values = new ParseTreeProperty<>();
+        this.constantVariables = new HashMap<>();
+    }
+
+    /**
+     * Returns the value of an expression, or null if it is not known at compile time.
+     */
+    public Object getValue(ParseTree tree) {
+        return values.get(tree);
+    }
+
+    @Override
+    public Object visit(ParseTree tree) {
+        Object value = tree.accept(this);
+        if (value != null && tree instanceof ArcLangParser.ExpressionContext) values.put(tree, value);
+        return value;
+    }
+
+    @Override
+    public Object visitChildren(RuleNode node) {
+        //Go through visit, so the value of every expression below a statement is recorded too
+        for (int i = 0; i < node.getChildCount(); i++) visit(node.getChild(i));
+        return null;
+    }
+
+    @Override
+    public Object visitVariableInitDec(ArcLangParser.VariableInitDecContext ctx) {
+        Object value = visit(ctx.expression());
+        Symbol symbol = st.get(ctx).lookup(ctx.E_IDENTIFIER().getText());
+        if (value != null && usage.getAssignmentCount(symbol) == 1) constantVariables.put(symbol, value);
+        return null;
+    }
+
+    @Override
+    public Object visitVariableExpr(ArcLangParser.VariableExprContext ctx) {
+        return constantVariables.get(st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText()));
+    }
+
+    @Override
+    public Object visitLiteralExpr(ArcLangParser.LiteralExprContext ctx) {
+        return visit(ctx.literal());
+    }
+
+    @Override
+    public Object visitLiteralNumber(ArcLangParser.LiteralNumberContext ctx) {
+        return visit(ctx.number());
+    }
+
+    @Override
+    public Object visitParenedExpr(ArcLangParser.ParenedExprContext ctx) {
+        return visit(ctx.expression());
+    }
+
+    @Override
+    public Object visitPositiveInt(ArcLangParser.PositiveIntContext ctx) {
+        return parseInt(ctx.getText());
+    }
+
+    @Override
+    public Object visitNegativeInt(ArcLangParser.NegativeIntContext ctx) {
+        return parseInt(ctx.getText());
+    }
+
+    @Override
+    public Object visitPositiveFloat(ArcLangParser.PositiveFloatContext ctx) {
+        return parseFloat(ctx.getText());
+    }
+
+    @Override
+    public Object visitNegativeFloat(ArcLangParser.NegativeFloatContext ctx) {
+        return parseFloat(ctx.getText());
+    }
+
+    @Override
+    public Object visitLiteralTrue(ArcLangParser.LiteralTrueContext ctx) {
+        return true;
+    }
+
+    @Override
+    public Object visitLiteralFalse(ArcLangParser.LiteralFalseContext ctx) {
+        return false;
+    }
+
+    @Override
+    public Object visitMathMultiplicativeExpr(ArcLangParser.MathMultiplicativeExprContext ctx) {
+        Object left = visit(ctx.left);
+        Object right = visit(ctx.right);
+        int operator = ctx.op.getType();
+        if (operator != ArcLangParser.MATH_MUL) checkDivisor(ctx.left, right);
+        if (left == null || right == null) return null;
+        if (pt.get(ctx.left) == DataType.FLOAT) {
+            if (operator == ArcLangParser.MATH_MUL) return (Float) left * (Float) right;
+            if (operator == ArcLangParser.MATH_DIV) return (Float) left / (Float) right;
+            return (Float) left % (Float) right;
+        }
+        if (operator == ArcLangParser.MATH_MUL) return (Integer) left * (Integer) right;
+        if (operator == ArcLangParser.MATH_DIV) return (Integer) left / (Integer) right;
+        return (Integer) left % (Integer) right;
+    }
+
+    @Override
+    public Object visitMathAdditiveExpr(ArcLangParser.MathAdditiveExprContext ctx) {
+        Object left = visit(ctx.left);
+        Object right = visit(ctx.right);
+        if (left == null || right == null) return null;
+        boolean add = ctx.op.getType() == ArcLangParser.MATH_ADD;
+        if (pt.get(ctx.left) == DataType.FLOAT) return add ? (Float) left + (Float) right : (Float) left - (Float) right;
+        return add ? (Integer) left + (Integer) right : (Integer) left - (Integer) right;
+    }
+
+    @Override
+    public Object visitBoolComprExpr(ArcLangParser.BoolComprExprContext ctx) {
+        Object left = visit(ctx.left);
+        Object right = visit(ctx.right);
+        if (left == null || right == null) return null;
+
+        int comparator = ctx.op.getType();
+        //Comparisons with NaN are false, except for not equal; just like fcmpl and fcmpg
+        if (pt.get(ctx.left) == DataType.FLOAT) {
+            float l = (Float) left;
+            float r = (Float) right;
+            if (comparator == ArcLangParser.B_GRATER) return l > r;
+            if (comparator == ArcLangParser.B_LESS) return l < r;
+            if (comparator == ArcLangParser.B_GREATER_EQUAL) return l >= r;
+            if (comparator == ArcLangParser.B_LESS_EQUAL) return l <= r;
+            if (comparator == ArcLangParser.B_EQUAL) return l == r;
+            return l != r;
+        }
+
+        int l = toInt(left);
+        int r = toInt(right);
+        if (comparator == ArcLangParser.B_GRATER) return l > r;
+        if (comparator == ArcLangParser.B_LESS) return l < r;
+        if (comparator == ArcLangParser.B_GREATER_EQUAL) return l >= r;
+        if (comparator == ArcLangParser.B_LESS_EQUAL) return l <= r;
+        if (comparator == ArcLangParser.B_EQUAL) return l == r;
+        return l != r;
+    }
+
+    @Override
+    public Object visitBoolLogicalComprExpr(ArcLangParser.BoolLogicalComprExprContext ctx) {
+        Object left = visit(ctx.left);
+        Object right = visit(ctx.right);
+        //The right side is never evaluated when a known left side decides the result
+        boolean or = ctx.op.getType() == ArcLangParser.B_OR;
+        if (left != null && (Boolean) left == or) return left;
+        if (left == null || right == null) return null;
+        return right;
+    }
+
+    @Override
+    public Object visitBoolNotExpr(ArcLangParser.BoolNotExprContext ctx) {
+        Object value = visit(ctx.expression());
+        if (value == null) return null;
+        return !(Boolean) value;
+    }
+
+    /**
+     * Integer division and remainder by zero always throw at runtime, so they are reported as
+     * soon as the divisor is known to be zero, whether or not the dividend is known.
+     */
+    private void checkDivisor(ArcLangParser.ExpressionContext left, Object right) {
+        if (pt.get(left) == DataType.INT && Integer.valueOf(0).equals(right)) {
+            throw new CompilerException("Cannot do division by zero!");
+        }
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        return (Integer) value;
+    }
+
+    /**
+     * Literals that do not fit their type are left alone, so the code generator reports them.
+     */
+    private static Integer parseInt(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Float parseFloat(String text) {
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
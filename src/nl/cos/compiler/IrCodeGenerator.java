@@ -0,0 +1,313 @@
+package nl.cos.compiler;
+
+import nl.cos.CompilerOptions;
+import nl.cos.ir.BasicBlock;
+import nl.cos.ir.Comparison;
+import nl.cos.ir.Constant;
+import nl.cos.ir.Instruction;
+import nl.cos.ir.IrFunction;
+import nl.cos.ir.IrProgram;
+import nl.cos.ir.Register;
+import nl.cos.ir.SlotAllocator;
+import nl.cos.ir.Value;
+import nl.cos.jasmin.DataType;
+import nl.cos.jasmin.JasminField;
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.jasmin.MathInstr;
+import nl.cos.jasmin.Opcode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Turns a program in the IR into Jasmin code, which either backend can then assemble. Blocks are
+ * written in the order of the function, so jumps to the next block are left out. Registers are
+ * given local variable slots by the {@link SlotAllocator}, so registers that are never live at the
+ * same time share a slot.
+ */
+public class IrCodeGenerator {
+    private final String className;
+    private final boolean constantMethodHandles;
+    private final boolean bufferedOutput;
+    private final LinkedHashMap<String, JasminMethod> helpers;
+    private final LinkedHashMap<String, String> methodHandles;
+    private final List<JasminMethod> methods;
+    private JasminMethod mainMethod;
+    private List<JasminInstruction> code;
+    private SlotAllocator slots;
+    private int labelCount;
+
+    public IrCodeGenerator(String className, CompilerOptions options) {
+        this.className = className;
+        this.constantMethodHandles = options.getTargetVersion() >= 52;
+        this.bufferedOutput = options.isBufferedOutput();
+        this.helpers = new LinkedHashMap<>();
+        this.methodHandles = new LinkedHashMap<>();
+        this.methods = new ArrayList<>();
+        if (bufferedOutput) helpers.put(RuntimeLibrary.FLUSH, RuntimeLibrary.flushMethod(className));
+    }
+
+    public void generate(IrProgram program) {
+        List<IrFunction> functions = program.getFunctions();
+        mainMethod = RuntimeLibrary.mainMethod(className, generateBody(functions.get(0), true), bufferedOutput);
+        for (IrFunction function : functions.subList(1, functions.size())) {
+            methods.add(new JasminMethod(function.getName(), function.getDescriptor()).addAll(generateBody(function, false)));
+        }
+    }
+
+    private List<JasminInstruction> generateBody(IrFunction function, boolean main) {
+        code = new ArrayList<>();
+        slots = new SlotAllocator(function);
+        labelCount = 0;
+        String labelReturn = "RETURN";
+        boolean returnUsed = false;
+
+        List<BasicBlock> blocks = function.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            code.add(JasminInstruction.label(block.getName()));
+            for (Instruction instruction : block.getInstructions()) {
+                switch (instruction.getOpcode()) {
+                    case JUMP:
+                        if (instruction.getTargets()[0] != next) code.add(JasminInstruction.jump(Opcode.GOTO, instruction.getTargets()[0].getName()));
+                        break;
+                    case BRANCH:
+                        generateBranch(instruction, next);
+                        break;
+                    case RETURN:
+                        //The main method gets its return when it is built, so it only needs to get to the end
+                        if (main) {
+                            if (next != null) {
+                                code.add(JasminInstruction.jump(Opcode.GOTO, labelReturn));
+                                returnUsed = true;
+                            }
+                        } else if (instruction.getOperands().isEmpty()) code.add(JasminInstruction.of(Opcode.RETURN));
+                        else {
+                            load(instruction.getOperand(0));
+                            code.add(JasminInstruction.of(function.getReturnType().getReturn()));
+                        }
+                        break;
+                    default:
+                        generateInstruction(instruction);
+                }
+            }
+        }
+        if (returnUsed) code.add(JasminInstruction.label(labelReturn));
+        return code;
+    }
+
+    private void generateInstruction(Instruction instruction) {
+        Register target = instruction.getTarget();
+        switch (instruction.getOpcode()) {
+            case COPY:
+                //A copy between registers that share a slot has nothing to do
+                Value source = instruction.getOperand(0);
+                if (source instanceof Register && slots.getSlot((Register) source) == slots.getSlot(target)) break;
+                load(source);
+                store(target);
+                break;
+            case ADD:
+                if (!generateIncrement(instruction)) generateMath(instruction, MathInstr.ADD);
+                break;
+            case SUB:
+                if (!generateIncrement(instruction)) generateMath(instruction, MathInstr.SUB);
+                break;
+            case MUL:
+                generateMath(instruction, MathInstr.MUL);
+                break;
+            case DIV:
+                generateMath(instruction, MathInstr.DIV);
+                break;
+            case REM:
+                generateMath(instruction, MathInstr.REM);
+                break;
+            case SHL:
+                generateMath(instruction, MathInstr.SHL);
+                break;
+            case SHR:
+                generateMath(instruction, MathInstr.SHR);
+                break;
+            case USHR:
+                generateMath(instruction, MathInstr.USHR);
+                break;
+            case AND:
+                generateMath(instruction, MathInstr.AND);
+                break;
+            case COMPARE:
+                String labelTrue = "L" + labelCount++;
+                String labelEnd = "L" + labelCount++;
+                generateComparisonJump(instruction.getComparison(), false, instruction.getOperand(0), instruction.getOperand(1), labelTrue);
+                code.add(JasminInstruction.of(Opcode.ICONST_0));
+                code.add(JasminInstruction.jump(Opcode.GOTO, labelEnd));
+                code.add(JasminInstruction.label(labelTrue));
+                code.add(JasminInstruction.of(Opcode.ICONST_1));
+                code.add(JasminInstruction.label(labelEnd));
+                store(target);
+                break;
+            case NOT:
+                load(instruction.getOperand(0));
+                code.add(JasminInstruction.of(Opcode.ICONST_1));
+                code.add(JasminInstruction.of(Opcode.IXOR));
+                store(target);
+                break;
+            case CALL:
+                for (Value argument : instruction.getOperands()) load(argument);
+                code.add(JasminInstruction.method(Opcode.INVOKESTATIC, className, instruction.getMethod(), instruction.getDescriptor()));
+                storeResult(instruction);
+                break;
+            case CALL_HANDLE:
+                for (Value operand : instruction.getOperands()) load(operand);
+                code.add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invoke", instruction.getDescriptor()));
+                storeResult(instruction);
+                break;
+            case HANDLE:
+                code.add(RuntimeLibrary.loadHandle(className, instruction.getMethod(), instruction.getDescriptor(), constantMethodHandles, methodHandles));
+                store(target);
+                break;
+            case READ:
+                code.add(RuntimeLibrary.readLine(className, helpers));
+                store(target);
+                break;
+            case PRINT:
+                generatePrint(instruction.getOperand(0), instruction.getPrintType());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected instruction " + instruction);
+        }
+    }
+
+    private void generateMath(Instruction instruction, MathInstr math) {
+        load(instruction.getOperand(0));
+        load(instruction.getOperand(1));
+        code.add(JasminInstruction.of(math.forType(instruction.getTarget().getType())));
+        store(instruction.getTarget());
+    }
+
+    /**
+     * Adds a constant to an int register in place with iinc, if the register and the result
+     * share a slot, such as for <code>i &lt;- i + 1</code>.
+     *
+     * @return  True if the instruction was generated
+     */
+    private boolean generateIncrement(Instruction instruction) {
+        Register target = instruction.getTarget();
+        if (target.getType() != DataType.INT) return false;
+
+        Value left = instruction.getOperand(0);
+        Value right = instruction.getOperand(1);
+        boolean add = instruction.getOpcode() == nl.cos.ir.Opcode.ADD;
+        //Addition works both ways around, so the constant may come first as well
+        if (add && left instanceof Constant) {
+            Value swap = left;
+            left = right;
+            right = swap;
+        }
+        if (!(left instanceof Register) || slots.getSlot((Register) left) != slots.getSlot(target) || !(right instanceof Constant)) return false;
+
+        //iinc takes a signed 16 bit increment at most
+        long increment = (Integer) ((Constant) right).getValue();
+        if (!add) increment = -increment;
+        if (increment < Short.MIN_VALUE || increment > Short.MAX_VALUE) return false;
+        code.add(JasminInstruction.increment(slots.getSlot(target), (int) increment));
+        return true;
+    }
+
+    /**
+     * Jumps to the true block, and falls through into the false block if that comes next.
+     * Otherwise the comparison is turned around when the true block comes next.
+     */
+    private void generateBranch(Instruction branch, BasicBlock next) {
+        BasicBlock whenTrue = branch.getTargets()[0];
+        BasicBlock whenFalse = branch.getTargets()[1];
+        Comparison comparison = branch.getComparison();
+        if (whenTrue == next) {
+            generateComparisonJump(comparison, true, branch.getOperand(0), branch.getOperand(1), whenFalse.getName());
+            return;
+        }
+        generateComparisonJump(comparison, false, branch.getOperand(0), branch.getOperand(1), whenTrue.getName());
+        if (whenFalse != next) code.add(JasminInstruction.jump(Opcode.GOTO, whenFalse.getName()));
+    }
+
+    /**
+     * Jumps to the target if the comparison holds, or if it does not hold when negate is set.
+     */
+    private void generateComparisonJump(Comparison comparison, boolean negate, Value left, Value right, String target) {
+        String suffix = (negate ? comparison.negate() : comparison).getSuffix();
+        load(left);
+        if (left.getType() == DataType.FLOAT) {
+            load(right);
+            code.add(JasminInstruction.of(CodeGenerator.floatComparison(comparison == Comparison.LT || comparison == Comparison.LE)));
+            code.add(JasminInstruction.jump(Opcode.forMnemonic("if" + suffix), target));
+        } else if (isZero(right)) {
+            code.add(JasminInstruction.jump(Opcode.forMnemonic("if" + suffix), target));
+        } else {
+            load(right);
+            code.add(JasminInstruction.jump(Opcode.forMnemonic("if_icmp" + suffix), target));
+        }
+    }
+
+    private static boolean isZero(Value value) {
+        if (!(value instanceof Constant)) return false;
+        Object known = ((Constant) value).getValue();
+        return Boolean.FALSE.equals(known) || Integer.valueOf(0).equals(known);
+    }
+
+    private void generatePrint(Value value, DataType type) {
+        if (bufferedOutput) {
+            load(value);
+            code.add(RuntimeLibrary.printLine(className, type, helpers));
+            return;
+        }
+
+        code.add(JasminInstruction.field(Opcode.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;"));
+        load(value);
+        if (type == DataType.VOID) type = DataType.STRING;
+        code.add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + type.getDescriptor() + ")V"));
+    }
+
+    private void storeResult(Instruction call) {
+        if (call.getTarget() != null) store(call.getTarget());
+        else if (!call.getDescriptor().endsWith(")V")) code.add(JasminInstruction.of(Opcode.POP));
+    }
+
+    private void load(Value value) {
+        if (value instanceof Register) {
+            Register register = (Register) value;
+            code.add(JasminInstruction.of(register.getType().getLoad(), slots.getSlot(register)));
+            return;
+        }
+
+        Object known = ((Constant) value).getValue();
+        if (known == null) code.add(JasminInstruction.of(Opcode.ACONST_NULL));
+        else if (known instanceof Boolean) code.add(JasminInstruction.ldc((Boolean) known ? 1 : 0));
+        else if (known instanceof Float) code.addAll(CodeGenerator.floatConstant((Float) known));
+        else if (known instanceof Integer) code.add(JasminInstruction.ldc((Integer) known));
+        else code.add(JasminInstruction.ldcString((String) known));
+    }
+
+    private void store(Register register) {
+        code.add(JasminInstruction.of(register.getType().getStore(), slots.getSlot(register)));
+    }
+
+    public JasminMethod getMainMethod() {
+        return mainMethod;
+    }
+
+    public Collection<JasminMethod> getMethods() {
+        List<JasminMethod> all = new ArrayList<>(methods);
+        all.addAll(helpers.values());
+        return all;
+    }
+
+    public List<JasminField> getFields() {
+        return RuntimeLibrary.fields(helpers, bufferedOutput, methodHandles);
+    }
+
+    public JasminMethod getStaticInitializer() {
+        return RuntimeLibrary.staticInitializer(className, methodHandles);
+    }
+}
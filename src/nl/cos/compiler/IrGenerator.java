@@ -0,0 +1,416 @@
+package nl.cos.compiler;
+
+import nl.cos.ArcLangBaseVisitor;
+import nl.cos.ArcLangParser;
+import nl.cos.exceptions.CompilerException;
+import nl.cos.ir.BasicBlock;
+import nl.cos.ir.Comparison;
+import nl.cos.ir.Constant;
+import nl.cos.ir.Instruction;
+import nl.cos.ir.IrFunction;
+import nl.cos.ir.IrProgram;
+import nl.cos.ir.Opcode;
+import nl.cos.ir.Register;
+import nl.cos.ir.Value;
+import nl.cos.jasmin.DataType;
+import nl.cos.typing.SymbolTable;
+import nl.cos.typing.symbols.FunctionParamVariableSymbol;
+import nl.cos.typing.symbols.FunctionSymbolInterface;
+import nl.cos.typing.symbols.SelfFunctionSymbol;
+import nl.cos.typing.symbols.Symbol;
+import nl.cos.typing.symbols.VariableSymbol;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Lowers the checked parse tree into the IR. Every variable becomes a register of the function
+ * it is declared in, every function literal becomes a function of its own, and all control flow
+ * (conditions, loops and the logical operators) becomes branches between basic blocks. Values the
+ * {@link ConstantFolder} worked out become constants.
+ */
+public class IrGenerator extends ArcLangBaseVisitor<Value> {
+    private final ParseTreeProperty<DataType> pt;
+    private final ParseTreeProperty<SymbolTable> st;
+    private final UsageAnalyzer usage;
+    private final ConstantFolder constants;
+    private final IrProgram program;
+    private final HashMap<Symbol, Register> registers;
+    private final HashMap<Symbol, String> knownFunctions;
+    private final HashSet<String> methodNames;
+    private IrFunction function;
+    private BasicBlock block;
+
+    public IrGenerator(ParseTreeProperty<DataType> pt, ParseTreeProperty<SymbolTable> st, String className, UsageAnalyzer usage, ConstantFolder constants) {
+        this.pt = pt;
+        this.st = st;
+        this.usage = usage;
+        this.constants = constants;
+        this.program = new IrProgram(className);
+        this.registers = new HashMap<>();
+        this.knownFunctions = new HashMap<>();
+        this.methodNames = new HashSet<>();
+    }
+
+    /**
+     * Lowers a whole program. The statements outside of functions make up the main method.
+     */
+    public IrProgram generate(ParseTree parseTree) {
+        function = new IrFunction("main", "([Ljava/lang/String;)V", DataType.VOID);
+        function.newParam(DataType.STRING, "args");
+        program.addFunction(function);
+        startBlock(function.newBlock());
+
+        visit(parseTree);
+        emit(Instruction.ret(null));
+        return program;
+    }
+
+    @Override
+    public Value visitVariableEmptyDec(ArcLangParser.VariableEmptyDecContext ctx) {
+        DataType t = pt.get(ctx);
+        Register register = registerOf(st.get(ctx).lookup(ctx.E_IDENTIFIER().getText()));
+        switch (t) {
+            case FLOAT:
+                emit(Instruction.copy(register, new Constant(0.0f, t)));
+                break;
+            case INT:
+                emit(Instruction.copy(register, new Constant(0, t)));
+                break;
+            case BOOLEAN:
+                emit(Instruction.copy(register, new Constant(false, t)));
+                break;
+            default:
+                emit(Instruction.copy(register, new Constant(null, t)));
+        }
+        return null;
+    }
+
+    @Override
+    public Value visitVariableInitDec(ArcLangParser.VariableInitDecContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.E_IDENTIFIER().getText());
+        return assign(symbol, ctx.expression());
+    }
+
+    @Override
+    public Value visitVariableInitialization(ArcLangParser.VariableInitializationContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
+        return assign(symbol, ctx.expression());
+    }
+
+    private Value assign(Symbol symbol, ArcLangParser.ExpressionContext expression) {
+        Register register = registerOf(symbol);
+
+        //Function literals become a function; the variable only needs a handle to it if it is ever looked up at runtime
+        if (UsageAnalyzer.isFunctionLiteral(expression)) {
+            String name = generateFunction(functionLiteral(expression), symbol.getName(), (FunctionSymbolInterface) symbol);
+            if (usage.isStaticallyKnown(symbol)) knownFunctions.put(symbol, name);
+            if (usage.needsMethodHandle(symbol)) {
+                FunctionSymbolInterface functionSymbol = (FunctionSymbolInterface) symbol;
+                emit(Instruction.handle(register, name, DataType.methodDescriptor(functionSymbol.getParams(), functionSymbol.getReturnType())));
+            }
+            return register;
+        }
+
+        emit(Instruction.copy(register, value(expression)));
+        return register;
+    }
+
+    private static ArcLangParser.FunctionInitContext functionLiteral(ArcLangParser.ExpressionContext expression) {
+        while (expression instanceof ArcLangParser.ParenedExprContext) {
+            expression = ((ArcLangParser.ParenedExprContext) expression).expression();
+        }
+        return ((ArcLangParser.FunctionInitExprContext) expression).functionInit();
+    }
+
+    /**
+     * Lowers a function literal into a function of its own, and returns its method name. Every
+     * literal gets its own method, even if several are assigned to variables with the same name.
+     */
+    private String generateFunction(ArcLangParser.FunctionInitContext ctx, String variableName, FunctionSymbolInterface symbol) {
+        String name = variableName;
+        for (int i = 2; !methodNames.add(name); i++) name = variableName + "$" + i;
+
+        DataType returnType = ctx.codeBlockFunc().returnScope() == null ? DataType.VOID : pt.get(ctx.codeBlockFunc().returnScope());
+        IrFunction outerFunction = function;
+        BasicBlock outerBlock = block;
+        function = new IrFunction(name, DataType.methodDescriptor(symbol.getParams(), returnType), returnType);
+        program.addFunction(function);
+
+        //Parameters are stored by name, so put them back in declaration order first
+        if (ctx.variableDecList() != null) {
+            List<Symbol> params = st.get(ctx.variableDecList()).getCurrentScopeSymbols();
+            Symbol[] ordered = new Symbol[params.size()];
+            for (Symbol param : params) ordered[((FunctionParamVariableSymbol) param).getParamIndex()] = param;
+            for (Symbol param : ordered) {
+                registers.put(param, function.newParam(((VariableSymbol) param).getType(), param.getName()));
+            }
+        }
+
+        startBlock(function.newBlock());
+        for (ArcLangParser.StatementContext statement : ctx.codeBlockFunc().statement()) visit(statement);
+        if (ctx.codeBlockFunc().returnScope() != null) emit(Instruction.ret(value(ctx.codeBlockFunc().returnScope().expression())));
+        else emit(Instruction.ret(null));
+
+        function = outerFunction;
+        block = outerBlock;
+        return name;
+    }
+
+    @Override
+    public Value visitFunctionInit(ArcLangParser.FunctionInitContext ctx) {
+        throw new CompilerException("A function literal can only be assigned to a variable");
+    }
+
+    @Override
+    public Value visitSystemReturn(ArcLangParser.SystemReturnContext ctx) {
+        emit(Instruction.print(value(ctx.expression()), pt.get(ctx)));
+        return null;
+    }
+
+    @Override
+    public Value visitSystemInput(ArcLangParser.SystemInputContext ctx) {
+        emit(Instruction.read(registerOf(st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText()))));
+        return null;
+    }
+
+    @Override
+    public Value visitLoop(ArcLangParser.LoopContext ctx) {
+        BasicBlock body = function.newBlock();
+        BasicBlock condition = function.newBlock();
+        BasicBlock exit = function.newBlock();
+
+        //The condition is laid out after the body, so every iteration takes just one branch
+        emit(Instruction.jump(condition));
+        startBlock(body);
+        visit(ctx.codeBlock());
+        emit(Instruction.jump(condition));
+        startBlock(condition);
+        branch(ctx.expression(), body, exit);
+        startBlock(exit);
+        return null;
+    }
+
+    @Override
+    public Value visitCondition(ArcLangParser.ConditionContext ctx) {
+        if (pt.get(ctx.expression()) != DataType.BOOLEAN) throw new CompilerException("Condition statement expected a boolean!");
+        BasicBlock whenTrue = function.newBlock();
+        BasicBlock whenFalse = ctx.conditionBranchFalse() == null ? null : function.newBlock();
+        BasicBlock end = function.newBlock();
+
+        branch(ctx.expression(), whenTrue, whenFalse == null ? end : whenFalse);
+        startBlock(whenTrue);
+        visit(ctx.conditionBranchTrue());
+        emit(Instruction.jump(end));
+        if (whenFalse != null) {
+            startBlock(whenFalse);
+            visit(ctx.conditionBranchFalse());
+            emit(Instruction.jump(end));
+        }
+        startBlock(end);
+        return null;
+    }
+
+    /**
+     * Ends the current block with branches to whenTrue if the logic expression is true, and to
+     * whenFalse otherwise. The right side of a logical operator gets a block of its own, so it is
+     * only evaluated when the left side does not decide the result yet.
+     */
+    private void branch(ArcLangParser.ExpressionContext expression, BasicBlock whenTrue, BasicBlock whenFalse) {
+        Object known = constants.getValue(expression);
+        if (known != null) {
+            emit(Instruction.jump((Boolean) known ? whenTrue : whenFalse));
+        } else if (expression instanceof ArcLangParser.ParenedExprContext) {
+            branch(((ArcLangParser.ParenedExprContext) expression).expression(), whenTrue, whenFalse);
+        } else if (expression instanceof ArcLangParser.BoolNotExprContext) {
+            branch(((ArcLangParser.BoolNotExprContext) expression).expression(), whenFalse, whenTrue);
+        } else if (expression instanceof ArcLangParser.BoolComprExprContext) {
+            ArcLangParser.BoolComprExprContext ctx = (ArcLangParser.BoolComprExprContext) expression;
+            Value left = value(ctx.left);
+            Value right = value(ctx.right);
+            emit(Instruction.branch(comparison(ctx.op), left, right, whenTrue, whenFalse));
+        } else if (expression instanceof ArcLangParser.BoolLogicalComprExprContext) {
+            ArcLangParser.BoolLogicalComprExprContext ctx = (ArcLangParser.BoolLogicalComprExprContext) expression;
+            BasicBlock right = function.newBlock();
+            if (ctx.op.getType() == ArcLangParser.B_OR) branch(ctx.left, whenTrue, right);
+            else branch(ctx.left, right, whenFalse);
+            startBlock(right);
+            branch(ctx.right, whenTrue, whenFalse);
+        } else {
+            Value value = value(expression);
+            emit(Instruction.branch(Comparison.NE, value, new Constant(false, DataType.BOOLEAN), whenTrue, whenFalse));
+        }
+    }
+
+    private static Comparison comparison(Token comparator) {
+        switch (comparator.getType()) {
+            case ArcLangParser.B_GRATER: return Comparison.GT;
+            case ArcLangParser.B_LESS: return Comparison.LT;
+            case ArcLangParser.B_GREATER_EQUAL: return Comparison.GE;
+            case ArcLangParser.B_LESS_EQUAL: return Comparison.LE;
+            case ArcLangParser.B_EQUAL: return Comparison.EQ;
+            default: return Comparison.NE;
+        }
+    }
+
+    /**
+     * Lowers an expression and returns the value it results in: a constant if the value is known
+     * at compile time, and a register otherwise.
+     */
+    private Value value(ArcLangParser.ExpressionContext expression) {
+        Object known = constants.getValue(expression);
+        if (known != null) return new Constant(known, pt.get(expression));
+        return visit(expression);
+    }
+
+    @Override
+    public Value visitExpressionStatement(ArcLangParser.ExpressionStatementContext ctx) {
+        value(ctx.expression());
+        return null;
+    }
+
+    @Override
+    public Value visitParenedExpr(ArcLangParser.ParenedExprContext ctx) {
+        return value(ctx.expression());
+    }
+
+    @Override
+    public Value visitVariableExpr(ArcLangParser.VariableExprContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
+        if (symbol instanceof SelfFunctionSymbol) {
+            Register handle = function.newRegister(DataType.FUNCTION, null);
+            emit(Instruction.handle(handle, function.getName(), function.getDescriptor()));
+            return handle;
+        }
+        return registerOf(symbol);
+    }
+
+    @Override
+    public Value visitLiteralString(ArcLangParser.LiteralStringContext ctx) {
+        return new Constant(ctx.getText(), DataType.STRING);
+    }
+
+    @Override
+    public Value visitLiteralNull(ArcLangParser.LiteralNullContext ctx) {
+        return new Constant(null, DataType.VOID);
+    }
+
+    @Override
+    public Value visitNegativeInt(ArcLangParser.NegativeIntContext ctx) {
+        throw new CompilerException("Number literal is incorrect!");
+    }
+
+    @Override
+    public Value visitPositiveInt(ArcLangParser.PositiveIntContext ctx) {
+        throw new CompilerException("Number literal is incorrect!");
+    }
+
+    @Override
+    public Value visitNegativeFloat(ArcLangParser.NegativeFloatContext ctx) {
+        throw new CompilerException("Float literal is incorrect!");
+    }
+
+    @Override
+    public Value visitPositiveFloat(ArcLangParser.PositiveFloatContext ctx) {
+        throw new CompilerException("Float literal is incorrect!");
+    }
+
+    @Override
+    public Value visitMathMultiplicativeExpr(ArcLangParser.MathMultiplicativeExprContext ctx) {
+        Opcode opcode;
+        if (ctx.op.getType() == ArcLangParser.MATH_MUL) opcode = Opcode.MUL;
+        else if (ctx.op.getType() == ArcLangParser.MATH_DIV) opcode = Opcode.DIV;
+        else opcode = Opcode.REM;
+        return binary(opcode, ctx, ctx.left, ctx.right);
+    }
+
+    @Override
+    public Value visitMathAdditiveExpr(ArcLangParser.MathAdditiveExprContext ctx) {
+        return binary(ctx.op.getType() == ArcLangParser.MATH_ADD ? Opcode.ADD : Opcode.SUB, ctx, ctx.left, ctx.right);
+    }
+
+    private Value binary(Opcode opcode, ArcLangParser.ExpressionContext ctx, ArcLangParser.ExpressionContext leftExpression, ArcLangParser.ExpressionContext rightExpression) {
+        Value left = value(leftExpression);
+        Value right = value(rightExpression);
+        Register result = function.newRegister(pt.get(ctx), null);
+        emit(Instruction.binary(opcode, result, left, right));
+        return result;
+    }
+
+    @Override
+    public Value visitBoolComprExpr(ArcLangParser.BoolComprExprContext ctx) {
+        Value left = value(ctx.left);
+        Value right = value(ctx.right);
+        Register result = function.newRegister(DataType.BOOLEAN, null);
+        emit(Instruction.compare(result, comparison(ctx.op), left, right));
+        return result;
+    }
+
+    @Override
+    public Value visitBoolNotExpr(ArcLangParser.BoolNotExprContext ctx) {
+        Value value = value(ctx.expression());
+        Register result = function.newRegister(DataType.BOOLEAN, null);
+        emit(Instruction.not(result, value));
+        return result;
+    }
+
+    @Override
+    public Value visitBoolLogicalComprExpr(ArcLangParser.BoolLogicalComprExprContext ctx) {
+        Register result = function.newRegister(DataType.BOOLEAN, null);
+        BasicBlock whenTrue = function.newBlock();
+        BasicBlock whenFalse = function.newBlock();
+        BasicBlock end = function.newBlock();
+
+        branch(ctx, whenTrue, whenFalse);
+        startBlock(whenTrue);
+        emit(Instruction.copy(result, new Constant(true, DataType.BOOLEAN)));
+        emit(Instruction.jump(end));
+        startBlock(whenFalse);
+        emit(Instruction.copy(result, new Constant(false, DataType.BOOLEAN)));
+        emit(Instruction.jump(end));
+        startBlock(end);
+        return result;
+    }
+
+    @Override
+    public Value visitFunctionCall(ArcLangParser.FunctionCallContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.E_IDENTIFIER().getText());
+        FunctionSymbolInterface functionSymbol = (FunctionSymbolInterface) symbol;
+        String descriptor = DataType.methodDescriptor(functionSymbol.getParams(), functionSymbol.getReturnType());
+
+        List<Value> arguments = new ArrayList<>();
+        if (ctx.expressionList() != null) {
+            for (ArcLangParser.ExpressionContext argument : ctx.expressionList().expression()) arguments.add(value(argument));
+        }
+        Register result = functionSymbol.getReturnType() == DataType.VOID ? null : function.newRegister(functionSymbol.getReturnType(), null);
+
+        //Functions that can only ever be one method are called directly, and so are calls of a function to itself
+        String known = symbol instanceof SelfFunctionSymbol ? function.getName() : knownFunctions.get(symbol);
+        if (known != null) emit(Instruction.call(result, known, descriptor, arguments));
+        else emit(Instruction.callHandle(result, registerOf(symbol), descriptor, arguments));
+        return result;
+    }
+
+    private Register registerOf(Symbol symbol) {
+        Register register = registers.get(symbol);
+        if (register == null) {
+            register = function.newRegister(((VariableSymbol) symbol).getType(), symbol.getName());
+            registers.put(symbol, register);
+        }
+        return register;
+    }
+
+    private void startBlock(BasicBlock next) {
+        function.addBlock(next);
+        block = next;
+    }
+
+    private void emit(Instruction instruction) {
+        block.add(instruction);
+    }
+}
@@ -0,0 +1,326 @@
+package nl.cos.compiler;
+
+import nl.cos.jasmin.DataType;
+import nl.cos.jasmin.JasminField;
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.jasmin.Opcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper methods and fields that generated classes use at runtime. They are only added to a
+ * class that needs them. Their names contain a '$', so they can never clash with the name of a
+ * function in the source code.
+ */
+final class RuntimeLibrary {
+    private static final String INPUT_FIELD = "arc$in";
+    private static final String READ_LINE = "arc$readLine";
+    private static final String OUTPUT_FIELD = "arc$out";
+    private static final String PRINT_LINE = "arc$println";
+    private static final String DIGITS_FIELD = "arc$digits";
+    static final String FLUSH = "arc$flush";
+    private static final String METHOD_HANDLE = "Ljava/lang/invoke/MethodHandle;";
+    private static final String READER = "Ljava/io/BufferedReader;";
+    private static final String WRITER = "Ljava/io/BufferedWriter;";
+    private static final String CHARS = "[C";
+    /** The longest int there is, which the digits buffer is made from. */
+    private static final String LONGEST_INT = String.valueOf(Integer.MIN_VALUE);
+    private static final int INPUT_BUFFER_SIZE = 65536;
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+
+    private RuntimeLibrary() {
+    }
+
+    /**
+     * The reader that all system input is read through. Sharing one reader means no input is
+     * lost in the buffer of an earlier reader.
+     */
+    private static JasminField inputField() {
+        return new JasminField(INPUT_FIELD, READER, false);
+    }
+
+    /**
+     * Reads the next line of system input, or null at the end of the input. The reader is
+     * created on the first read, so classes that never read input never touch System.in.
+     */
+    private static JasminMethod readLineMethod(String className) {
+        return new JasminMethod(READ_LINE, "()Ljava/lang/String;")
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, INPUT_FIELD, READER))
+                .add(JasminInstruction.jump(Opcode.IFNONNULL, "READ"))
+                .add(JasminInstruction.type(Opcode.NEW, "java/io/BufferedReader"))
+                .add(JasminInstruction.of(Opcode.DUP))
+                .add(JasminInstruction.type(Opcode.NEW, "java/io/InputStreamReader"))
+                .add(JasminInstruction.of(Opcode.DUP))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;"))
+                .add(JasminInstruction.method(Opcode.INVOKENONVIRTUAL, "java/io/InputStreamReader", "<init>", "(Ljava/io/InputStream;)V"))
+                .add(JasminInstruction.ldc(INPUT_BUFFER_SIZE))
+                .add(JasminInstruction.method(Opcode.INVOKENONVIRTUAL, "java/io/BufferedReader", "<init>", "(Ljava/io/Reader;I)V"))
+                .add(JasminInstruction.field(Opcode.PUTSTATIC, className, INPUT_FIELD, READER))
+                .add(JasminInstruction.label("READ"))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, INPUT_FIELD, READER))
+                .add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/BufferedReader", "readLine", "()Ljava/lang/String;"))
+                .add(JasminInstruction.of(Opcode.ARETURN));
+    }
+
+    /**
+     * Returns the call that reads the next line of system input, and adds the helper method that
+     * does it to the methods of the class if it is not there yet.
+     */
+    static JasminInstruction readLine(String className, Map<String, JasminMethod> methods) {
+        if (!methods.containsKey(READ_LINE)) methods.put(READ_LINE, readLineMethod(className));
+        return JasminInstruction.method(Opcode.INVOKESTATIC, className, READ_LINE, "()Ljava/lang/String;");
+    }
+
+    /**
+     * The writer that all system output goes through when output is buffered.
+     */
+    private static JasminField outputField() {
+        return new JasminField(OUTPUT_FIELD, WRITER, false);
+    }
+
+    /**
+     * The instructions that create the output writer, at the start of the main method.
+     */
+    static List<JasminInstruction> openOutput(String className) {
+        return Arrays.asList(
+                JasminInstruction.type(Opcode.NEW, "java/io/BufferedWriter"),
+                JasminInstruction.of(Opcode.DUP),
+                JasminInstruction.type(Opcode.NEW, "java/io/OutputStreamWriter"),
+                JasminInstruction.of(Opcode.DUP),
+                JasminInstruction.field(Opcode.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;"),
+                JasminInstruction.method(Opcode.INVOKENONVIRTUAL, "java/io/OutputStreamWriter", "<init>", "(Ljava/io/OutputStream;)V"),
+                JasminInstruction.ldc(OUTPUT_BUFFER_SIZE),
+                JasminInstruction.method(Opcode.INVOKENONVIRTUAL, "java/io/BufferedWriter", "<init>", "(Ljava/io/Writer;I)V"),
+                JasminInstruction.field(Opcode.PUTSTATIC, className, OUTPUT_FIELD, WRITER));
+    }
+
+    /**
+     * Writes everything that is still in the output buffer.
+     */
+    static JasminMethod flushMethod(String className) {
+        return new JasminMethod(FLUSH, "()V")
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, OUTPUT_FIELD, WRITER))
+                .add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/BufferedWriter", "flush", "()V"))
+                .add(JasminInstruction.of(Opcode.RETURN));
+    }
+
+    static JasminInstruction flushCall(String className) {
+        return JasminInstruction.method(Opcode.INVOKESTATIC, className, FLUSH, "()V");
+    }
+
+    /**
+     * Returns the instruction that pushes a handle to a static method of the class. Newer class
+     * files load it straight from the constant pool. Otherwise it is read from a field, and the
+     * method is added to the handles that the static initializer looks up once.
+     */
+    static JasminInstruction loadHandle(String className, String name, String descriptor, boolean constantMethodHandles,
+                                        Map<String, String> methodHandles) {
+        if (constantMethodHandles) return JasminInstruction.ldcMethodHandle(className, name, descriptor);
+        methodHandles.put(name, descriptor);
+        return JasminInstruction.field(Opcode.GETSTATIC, className, handleFieldName(name), METHOD_HANDLE);
+    }
+
+    private static String handleFieldName(String name) {
+        return name + "$handle";
+    }
+
+    /**
+     * Returns the static fields of a class: the shared input reader if it reads input, the output
+     * writer if output is buffered, the digits buffer if it prints a num through the writer, and
+     * the handles of functions used as values.
+     */
+    static List<JasminField> fields(Map<String, JasminMethod> methods, boolean bufferedOutput, Map<String, String> methodHandles) {
+        List<JasminField> fields = new ArrayList<>();
+        if (methods.containsKey(READ_LINE)) fields.add(inputField());
+        if (bufferedOutput) fields.add(outputField());
+        if (methods.containsKey(PRINT_LINE + printLineDescriptor(DataType.INT))) fields.add(new JasminField(DIGITS_FIELD, CHARS, false));
+        for (String name : methodHandles.keySet()) {
+            fields.add(new JasminField(handleFieldName(name), METHOD_HANDLE, true));
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the static initializer that looks up every method handle once, or null if the
+     * class does not need any handles.
+     */
+    static JasminMethod staticInitializer(String className, Map<String, String> methodHandles) {
+        if (methodHandles.isEmpty()) return null;
+
+        JasminMethod clinit = new JasminMethod("<clinit>", "()V");
+        for (Map.Entry<String, String> handle : methodHandles.entrySet()) {
+            clinit.addAll(lookupHandle(className, handle.getKey(), handle.getValue()))
+                    .add(JasminInstruction.field(Opcode.PUTSTATIC, className, handleFieldName(handle.getKey()), METHOD_HANDLE));
+        }
+        return clinit.add(JasminInstruction.of(Opcode.RETURN));
+    }
+
+    /**
+     * The instructions that look up a handle to a static method of the class, leaving it on the
+     * stack.
+     */
+    private static List<JasminInstruction> lookupHandle(String className, String name, String descriptor) {
+        //Some really fun code to generate a handle
+        return Arrays.asList(
+                JasminInstruction.method(Opcode.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;"),
+                JasminInstruction.ldcClass(className),
+                JasminInstruction.ldcString("\"" + name + "\""),
+                JasminInstruction.ldcString("\"" + descriptor + "\""),
+                JasminInstruction.method(Opcode.INVOKESTATIC, "java/lang/ClassLoader", "getSystemClassLoader", "()Ljava/lang/ClassLoader;"),
+                JasminInstruction.method(Opcode.INVOKESTATIC, "java/lang/invoke/MethodType", "fromMethodDescriptorString",
+                        "(Ljava/lang/String;Ljava/lang/ClassLoader;)Ljava/lang/invoke/MethodType;"),
+                JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/lang/invoke/MethodHandles$Lookup", "findStatic",
+                        "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;"));
+    }
+
+    /**
+     * Builds the main method around the code of the program. With buffered output, the main
+     * method first creates the output writer, and flushes it when it ends, also when it ends
+     * with an exception.
+     */
+    static JasminMethod mainMethod(String className, List<JasminInstruction> code, boolean bufferedOutput) {
+        // NOTE: The args-parameter is a local too
+        JasminMethod main = new JasminMethod("main", "([Ljava/lang/String;)V");
+        if (!bufferedOutput) return main.addAll(code).add(JasminInstruction.of(Opcode.RETURN));
+
+        main.addAll(openOutput(className));
+        boolean hasCode = false;
+        for (JasminInstruction instruction : code) hasCode |= instruction.isInstruction();
+        if (!hasCode) return main.add(flushCall(className)).add(JasminInstruction.of(Opcode.RETURN));
+
+        return main.add(JasminInstruction.catchBlock(null, "MAIN_START", "MAIN_END", "MAIN_FAILED"))
+                .add(JasminInstruction.label("MAIN_START"))
+                .addAll(code)
+                .add(JasminInstruction.label("MAIN_END"))
+                .add(flushCall(className))
+                .add(JasminInstruction.of(Opcode.RETURN))
+                .add(JasminInstruction.label("MAIN_FAILED"))
+                .add(flushCall(className))
+                .add(JasminInstruction.of(Opcode.ATHROW));
+    }
+
+    /**
+     * Returns the descriptor of the print helper for a type. There is one helper per primitive
+     * type, so values are never boxed; all references share one helper.
+     */
+    private static String printLineDescriptor(DataType type) {
+        switch (type) {
+            case INT:
+            case BOOLEAN:
+            case FLOAT:
+                return "(" + type.getDescriptor() + ")V";
+            default:
+                return "(Ljava/lang/Object;)V";
+        }
+    }
+
+    /**
+     * Writes a value followed by a line separator to the output writer, printing values the
+     * same way PrintStream.println does. Booleans are written as constants, without any
+     * conversion, and nums as digits, see {@link #printIntMethod(String)}.
+     */
+    private static JasminMethod printLineMethod(String className, DataType type) {
+        if (type == DataType.INT) return printIntMethod(className);
+
+        JasminMethod method = new JasminMethod(PRINT_LINE, printLineDescriptor(type))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, OUTPUT_FIELD, WRITER));
+        switch (type) {
+            case FLOAT:
+                method.add(JasminInstruction.of(Opcode.FLOAD, 0))
+                        .add(JasminInstruction.method(Opcode.INVOKESTATIC, "java/lang/Float", "toString", "(F)Ljava/lang/String;"));
+                break;
+            case BOOLEAN:
+                method.add(JasminInstruction.of(Opcode.ILOAD, 0))
+                        .add(JasminInstruction.jump(Opcode.IFEQ, "FALSE"))
+                        .add(JasminInstruction.ldcString("\"true\""))
+                        .add(JasminInstruction.jump(Opcode.GOTO, "WRITE"))
+                        .add(JasminInstruction.label("FALSE"))
+                        .add(JasminInstruction.ldcString("\"false\""))
+                        .add(JasminInstruction.label("WRITE"));
+                break;
+            default:
+                method.add(JasminInstruction.of(Opcode.ALOAD, 0))
+                        .add(JasminInstruction.method(Opcode.INVOKESTATIC, "java/lang/String", "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;"));
+        }
+        return method.add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/Writer", "write", "(Ljava/lang/String;)V"))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, OUTPUT_FIELD, WRITER))
+                .add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/BufferedWriter", "newLine", "()V"))
+                .add(JasminInstruction.of(Opcode.RETURN));
+    }
+
+    /**
+     * Writes an int followed by a line separator to the output writer without making a String.
+     * The digits are put into a char array from the back, which is made on the first call and
+     * then reused. They are worked out from the negative of the value, as the lowest int has no
+     * positive counterpart.
+     */
+    private static JasminMethod printIntMethod(String className) {
+        // Locals: 0 = the value, 1 = the digits, 2 = the index of the first digit, 3 = what is left to write
+        return new JasminMethod(PRINT_LINE, printLineDescriptor(DataType.INT))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, DIGITS_FIELD, CHARS))
+                .add(JasminInstruction.jump(Opcode.IFNONNULL, "DIGITS"))
+                .add(JasminInstruction.ldcString("\"" + LONGEST_INT + "\""))
+                .add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C"))
+                .add(JasminInstruction.field(Opcode.PUTSTATIC, className, DIGITS_FIELD, CHARS))
+                .add(JasminInstruction.label("DIGITS"))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, DIGITS_FIELD, CHARS))
+                .add(JasminInstruction.of(Opcode.ASTORE, 1))
+                .add(JasminInstruction.of(Opcode.BIPUSH, LONGEST_INT.length()))
+                .add(JasminInstruction.of(Opcode.ISTORE, 2))
+                .add(JasminInstruction.of(Opcode.ILOAD, 0))
+                .add(JasminInstruction.of(Opcode.ISTORE, 3))
+                .add(JasminInstruction.of(Opcode.ILOAD, 0))
+                .add(JasminInstruction.jump(Opcode.IFLE, "DIGIT"))
+                .add(JasminInstruction.of(Opcode.ILOAD, 0))
+                .add(JasminInstruction.of(Opcode.INEG))
+                .add(JasminInstruction.of(Opcode.ISTORE, 3))
+                .add(JasminInstruction.label("DIGIT"))
+                .add(JasminInstruction.increment(2, -1))
+                .add(JasminInstruction.of(Opcode.ALOAD, 1))
+                .add(JasminInstruction.of(Opcode.ILOAD, 2))
+                .add(JasminInstruction.of(Opcode.BIPUSH, '0'))
+                .add(JasminInstruction.of(Opcode.ILOAD, 3))
+                .add(JasminInstruction.of(Opcode.BIPUSH, 10))
+                .add(JasminInstruction.of(Opcode.IREM))
+                .add(JasminInstruction.of(Opcode.ISUB))
+                .add(JasminInstruction.of(Opcode.CASTORE))
+                .add(JasminInstruction.of(Opcode.ILOAD, 3))
+                .add(JasminInstruction.of(Opcode.BIPUSH, 10))
+                .add(JasminInstruction.of(Opcode.IDIV))
+                .add(JasminInstruction.of(Opcode.ISTORE, 3))
+                .add(JasminInstruction.of(Opcode.ILOAD, 3))
+                .add(JasminInstruction.jump(Opcode.IFNE, "DIGIT"))
+                .add(JasminInstruction.of(Opcode.ILOAD, 0))
+                .add(JasminInstruction.jump(Opcode.IFGE, "WRITE"))
+                .add(JasminInstruction.increment(2, -1))
+                .add(JasminInstruction.of(Opcode.ALOAD, 1))
+                .add(JasminInstruction.of(Opcode.ILOAD, 2))
+                .add(JasminInstruction.of(Opcode.BIPUSH, '-'))
+                .add(JasminInstruction.of(Opcode.CASTORE))
+                .add(JasminInstruction.label("WRITE"))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, OUTPUT_FIELD, WRITER))
+                .add(JasminInstruction.of(Opcode.ALOAD, 1))
+                .add(JasminInstruction.of(Opcode.ILOAD, 2))
+                .add(JasminInstruction.of(Opcode.BIPUSH, LONGEST_INT.length()))
+                .add(JasminInstruction.of(Opcode.ILOAD, 2))
+                .add(JasminInstruction.of(Opcode.ISUB))
+                .add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/Writer", "write", "([CII)V"))
+                .add(JasminInstruction.field(Opcode.GETSTATIC, className, OUTPUT_FIELD, WRITER))
+                .add(JasminInstruction.method(Opcode.INVOKEVIRTUAL, "java/io/BufferedWriter", "newLine", "()V"))
+                .add(JasminInstruction.of(Opcode.RETURN));
+    }
+
+    /**
+     * Returns the call that prints a value of the type through the output writer, and adds the
+     * print helper for the type to the methods of the class if it is not there yet.
+     */
+    static JasminInstruction printLine(String className, DataType type, Map<String, JasminMethod> methods) {
+        String helper = PRINT_LINE + printLineDescriptor(type);
+        if (!methods.containsKey(helper)) methods.put(helper, printLineMethod(className, type));
+        return JasminInstruction.method(Opcode.INVOKESTATIC, className, PRINT_LINE, printLineDescriptor(type));
+    }
+}
@@ -42,8 +42,9 @@ public class TypeChecker extends ArcLangBaseVisitor<DataType> {
         if (functionReturnType == DataType.PARAM_FUNCTION) throw new CompilerException("Cannot return a Function Parameter");
         this.functionReturnType.put(name,functionReturnType);
 
-        //Add function parameters if present
+        //Add function parameters if present, and the function itself so it can call itself
         handleFunctionParams(ctx,name);
+        symbolTable.addSelfFunction(name, functionReturnType, this.functionParams.get(name));
 
         visit(ctx.codeBlockFunc());
 
@@ -240,7 +241,7 @@ public class TypeChecker extends ArcLangBaseVisitor<DataType> {
     }
 
     @Override
-    public DataType visitMathSubExpr(ArcLangParser.MathSubExprContext ctx) {
+    public DataType visitMathMultiplicativeExpr(ArcLangParser.MathMultiplicativeExprContext ctx) {
         visit(ctx.left);
         visit(ctx.right);
 
@@ -250,37 +251,7 @@ public class TypeChecker extends ArcLangBaseVisitor<DataType> {
     }
 
     @Override
-    public DataType visitMathMulExpr(ArcLangParser.MathMulExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        DataType t = checkOperationTypes(pt.get(ctx.left), pt.get(ctx.right));
-        pt.put(ctx,t);
-        return t;
-    }
-
-    @Override
-    public DataType visitMathModExpr(ArcLangParser.MathModExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        DataType t = checkOperationTypes(pt.get(ctx.left), pt.get(ctx.right));
-        pt.put(ctx,t);
-        return t;
-    }
-
-    @Override
-    public DataType visitMathDivExpr(ArcLangParser.MathDivExprContext ctx) {
-        visit(ctx.left);
-        visit(ctx.right);
-
-        DataType t = checkOperationTypes(pt.get(ctx.left), pt.get(ctx.right));
-        pt.put(ctx,t);
-        return t;
-    }
-
-    @Override
-    public DataType visitMathAddExpr(ArcLangParser.MathAddExprContext ctx) {
+    public DataType visitMathAdditiveExpr(ArcLangParser.MathAdditiveExprContext ctx) {
         visit(ctx.left);
         visit(ctx.right);
 
@@ -391,6 +362,7 @@ public class TypeChecker extends ArcLangBaseVisitor<DataType> {
 
         if (symbol instanceof FunctionSymbol) lastFuncName = varName;
         if (symbol == null) throw new CompilerException("Could not resolve variable '" + varName + "'!");
+        if (symbol instanceof SelfFunctionSymbol) throw new CompilerException("Cannot assign to function '" + varName + "' inside its own code block");
         if (symbol.getType() != visit(ctx.expression())) throw new CompilerException("Could not initialize variable. Data types are incompatible.");
         if (symbol instanceof FunctionSymbol) symbolTable.updateFunctionDeclaration(varName,this.functionReturnType.get(varName), this.functionParams.get(varName));
 
@@ -0,0 +1,104 @@
+package nl.cos.compiler;
+
+import nl.cos.ArcLangBaseVisitor;
+import nl.cos.ArcLangParser;
+import nl.cos.typing.SymbolTable;
+import nl.cos.typing.symbols.FunctionSymbol;
+import nl.cos.typing.symbols.Symbol;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Records how every variable is used: how often it is assigned and read, and whether function
+ * variables are only ever called or also passed around as values. Runs after the type checker,
+ * so every variable can be resolved through the symbol tables it stored.
+ */
+public class UsageAnalyzer extends ArcLangBaseVisitor<Void> {
+    private final ParseTreeProperty<SymbolTable> st;
+    private final HashMap<Symbol, Integer> assignments;
+    private final HashMap<Symbol, Integer> reads;
+    private final HashSet<Symbol> dynamicAssignments;
+
+    public UsageAnalyzer(ParseTreeProperty<SymbolTable> st) {
+        this.st = st;
+        this.assignments = new HashMap<>();
+        this.reads = new HashMap<>();
+        this.dynamicAssignments = new HashSet<>();
+    }
+
+    @Override
+    public Void visitVariableInitDec(ArcLangParser.VariableInitDecContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.E_IDENTIFIER().getText());
+        recordAssignment(symbol, ctx.expression(), true);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitVariableInitialization(ArcLangParser.VariableInitializationContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
+        recordAssignment(symbol, ctx.expression(), false);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitSystemInput(ArcLangParser.SystemInputContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
+        recordAssignment(symbol, null, false);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitVariableExpr(ArcLangParser.VariableExprContext ctx) {
+        Symbol symbol = st.get(ctx).lookup(ctx.variable().E_IDENTIFIER().getText());
+        reads.merge(symbol, 1, Integer::sum);
+        return visitChildren(ctx);
+    }
+
+    /**
+     * Counts an assignment. A function variable only stays statically known if it is declared
+     * with a function literal; any other assignment means the function it holds can only be
+     * found at runtime.
+     */
+    private void recordAssignment(Symbol symbol, ArcLangParser.ExpressionContext expression, boolean declaration) {
+        assignments.merge(symbol, 1, Integer::sum);
+        if (!declaration || !isFunctionLiteral(expression)) dynamicAssignments.add(symbol);
+    }
+
+    /**
+     * Returns true if the expression is a function literal, optionally wrapped in parentheses.
+     */
+    public static boolean isFunctionLiteral(ArcLangParser.ExpressionContext expression) {
+        while (expression instanceof ArcLangParser.ParenedExprContext) {
+            expression = ((ArcLangParser.ParenedExprContext) expression).expression();
+        }
+        return expression instanceof ArcLangParser.FunctionInitExprContext;
+    }
+
+    /**
+     * Returns true if the symbol is a function variable that is declared with a function literal
+     * and never reassigned, so every call through it can call the generated method directly.
+     */
+    public boolean isStaticallyKnown(Symbol symbol) {
+        return symbol instanceof FunctionSymbol
+                && getAssignmentCount(symbol) == 1
+                && !dynamicAssignments.contains(symbol);
+    }
+
+    /**
+     * Returns true if the function variable needs to hold a MethodHandle at runtime, either
+     * because its calls can not be resolved statically or because it is used as a value.
+     */
+    public boolean needsMethodHandle(Symbol symbol) {
+        return !isStaticallyKnown(symbol) || getReadCount(symbol) > 0;
+    }
+
+    public int getAssignmentCount(Symbol symbol) {
+        return assignments.getOrDefault(symbol, 0);
+    }
+
+    public int getReadCount(Symbol symbol) {
+        return reads.getOrDefault(symbol, 0);
+    }
+}
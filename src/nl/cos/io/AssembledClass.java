@@ -1,7 +1,11 @@
 package nl.cos.io;
 
 import jasmin.ClassFile;
+import nl.cos.bytecode.ClassFileWriter;
 import nl.cos.exceptions.AssembleException;
+import nl.cos.jasmin.JasminClass;
+import nl.cos.jasmin.JasminField;
+import nl.cos.jasmin.JasminMethod;
 
 import java.io.*;
 
@@ -55,6 +59,32 @@ public class AssembledClass {
 		}
 	}
 
+	/**
+	 * Encodes a generated class straight into a class file, without writing and re-reading
+	 * Jasmin code.
+	 *
+	 * @throws AssembleException if an instruction could not be encoded
+	 */
+	public static AssembledClass write( JasminClass jasminClass )
+			throws AssembleException {
+		ClassFileWriter classFileWriter = new ClassFileWriter(jasminClass.getName(), jasminClass.getVersion());
+		for( JasminField field : jasminClass.getFields() ) {
+			classFileWriter.addField(field);
+		}
+		for( JasminMethod method : jasminClass.getMethods() ) {
+			classFileWriter.addMethod(method);
+		}
+		return new AssembledClass(classFileWriter.toByteArray(), jasminClass.getName());
+	}
+
+	/**
+	 * Wraps the bytes of a class file that was assembled before, such as one read back from a
+	 * {@link CompilationCache}.
+	 */
+	public static AssembledClass read( byte[] classBytes, String className ) {
+		return new AssembledClass(classBytes, className);
+	}
+
 	/**
 	 * Write the assembled class file - runnable by the JVM - to a file.
 	 * @param classFileName  The full path where to write the class file to.
@@ -0,0 +1,222 @@
+package nl.cos.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps compiled classes in a directory on disk, under a hash of everything that goes into
+ * compiling them, so that compiling the same source again only reads a file.
+ * <p>
+ * Every class is written to a temporary file first and then moved into place, so a class is
+ * either there completely or not at all, also for other processes that share the directory.
+ * Reading a class marks it as recently used. When the directory grows over its maximum size, the
+ * classes that were used the longest ago are removed. To keep writing cheap, the size is not
+ * looked up on every write: the cache adds up what it wrote since it last listed the directory,
+ * and only lists it again when that goes over the maximum size or after {@link #SCAN_INTERVAL}
+ * writes, which is when it notices what other processes wrote. Processes that clean up at the
+ * same time may remove a little more than needed, and a class that is removed while it is read
+ * counts as not being in the cache; neither is ever more than a miss.
+ */
+public class CompilationCache {
+	/** The size of a cache that is not given a size. */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private static final String EXTENSION = ".class";
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	/** Temporary files this old were left behind by a process that stopped while writing. */
+	private static final long ABANDONED_MILLIS = 60L * 60 * 1000;
+	/** The number of writes after which the directory is listed again, also if it seems small enough. */
+	public static final int SCAN_INTERVAL = 256;
+
+	private final Path directory;
+	private final long maxBytes;
+	private int hits;
+	private int misses;
+	/** The size of the directory when it was last listed plus what was written since, or -1 before it was listed. */
+	private long estimatedBytes = -1;
+	private int writesSinceScan;
+	private int scans;
+
+	public CompilationCache( Path directory ) throws IOException {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param directory  The directory to keep the classes in; it is created if it does not exist
+	 * @param maxBytes   The size the classes in the directory may take up together
+	 * @throws IOException if the directory could not be created
+	 */
+	public CompilationCache( Path directory, long maxBytes ) throws IOException {
+		if( maxBytes <= 0 ) throw new IllegalArgumentException("The cache size must be positive: " + maxBytes);
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the key for a class: the SHA-256 hash of the source code, the class name and a
+	 * description of the compiler options, in hexadecimal.
+	 */
+	public static String key( String sourceCode, String className, String options ) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			//Every part ends with a zero, so moving text from one part to the next changes the key
+			for( String part : new String[] {sourceCode, className, options} ) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			StringBuilder key = new StringBuilder();
+			for( byte b : digest.digest() ) key.append(String.format("%02x", b));
+			return key.toString();
+		} catch( NoSuchAlgorithmException e ) {
+			//Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the class stored under the key, or null if there is none.
+	 */
+	public AssembledClass get( String key, String className ) {
+		Path file = directory.resolve(key + EXTENSION);
+		try {
+			byte[] classBytes = Files.readAllBytes(file);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			recordHit(true);
+			return AssembledClass.read(classBytes, className);
+		} catch( IOException e ) {
+			//Not there, or removed by another process in the meantime
+			recordHit(false);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the class under the key, and removes the least recently used classes if the cache
+	 * has grown too large.
+	 *
+	 * @throws IOException if the class could not be written
+	 */
+	public void put( String key, AssembledClass assembledClass ) throws IOException {
+		Path temporary = Files.createTempFile(directory, key, TEMPORARY_EXTENSION);
+		try {
+			Files.write(temporary, assembledClass.getClassBytes());
+			try {
+				Files.move(temporary, directory.resolve(key + EXTENSION), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch( AtomicMoveNotSupportedException e ) {
+				Files.move(temporary, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		if( recordWrite(assembledClass.getClassBytes().length) ) evict();
+	}
+
+	/**
+	 * Adds a write to the estimated size of the directory.
+	 *
+	 * @return  True if the directory has to be listed to find out if classes have to be removed
+	 */
+	private synchronized boolean recordWrite( long bytes ) {
+		writesSinceScan++;
+		if( estimatedBytes < 0 ) return true;
+		estimatedBytes += bytes;
+		return estimatedBytes > maxBytes || writesSinceScan >= SCAN_INTERVAL;
+	}
+
+	private synchronized void recordScan( long bytes ) {
+		estimatedBytes = bytes;
+		writesSinceScan = 0;
+		scans++;
+	}
+
+	/**
+	 * Returns how often the directory was listed to find out how large it is.
+	 */
+	public synchronized int getScans() {
+		return scans;
+	}
+
+	/**
+	 * Removes the least recently used classes until the others fit in the maximum size, and
+	 * temporary files that were abandoned.
+	 */
+	private void evict() throws IOException {
+		List<Path> classes = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		try( Stream<Path> files = Files.list(directory) ) {
+			for( Path file : (Iterable<Path>) files::iterator ) {
+				String name = file.getFileName().toString();
+				if( name.endsWith(EXTENSION) ) classes.add(file);
+				else if( name.endsWith(TEMPORARY_EXTENSION) && now - lastModified(file) > ABANDONED_MILLIS ) Files.deleteIfExists(file);
+			}
+		}
+
+		//Times and sizes are read once, since other processes may change them while sorting
+		Map<Path, Long> used = new HashMap<>();
+		Map<Path, Long> sizes = new HashMap<>();
+		long total = 0;
+		for( Path file : classes ) {
+			used.put(file, lastModified(file));
+			sizes.put(file, size(file));
+			total += sizes.get(file);
+		}
+		if( total > maxBytes ) {
+			classes.sort(Comparator.comparing(used::get));
+			for( Path file : classes ) {
+				if( total <= maxBytes ) break;
+				Files.deleteIfExists(file);
+				total -= sizes.get(file);
+			}
+		}
+		recordScan(total);
+	}
+
+	private static long lastModified( Path file ) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch( IOException e ) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private static long size( Path file ) {
+		try {
+			return Files.size(file);
+		} catch( IOException e ) {
+			return 0;
+		}
+	}
+
+	private synchronized void recordHit( boolean hit ) {
+		if( hit ) hits++;
+		else misses++;
+	}
+
+	/**
+	 * Returns how often a class was found in the cache.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how often a class was not found in the cache and had to be compiled.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+}
@@ -0,0 +1,60 @@
+package nl.cos.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight run of instructions that ends with a terminator: a JUMP, BRANCH or RETURN.
+ */
+public final class BasicBlock {
+    private final String name;
+    private final List<Instruction> instructions;
+
+    BasicBlock(String name) {
+        this.name = name;
+        this.instructions = new ArrayList<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public void add(Instruction instruction) {
+        instructions.add(instruction);
+    }
+
+    /**
+     * Returns the last instruction, or null if the block does not have a terminator yet.
+     */
+    public Instruction getTerminator() {
+        if (instructions.isEmpty()) return null;
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.getOpcode().isTerminator() ? last : null;
+    }
+
+    public boolean isTerminated() {
+        return getTerminator() != null;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        List<BasicBlock> successors = new ArrayList<>();
+        Instruction terminator = getTerminator();
+        if (terminator != null) {
+            for (BasicBlock target : terminator.getTargets()) {
+                if (!successors.contains(target)) successors.add(target);
+            }
+        }
+        return successors;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(name).append(":\n");
+        for (Instruction instruction : instructions) text.append("    ").append(instruction).append('\n');
+        return text.toString();
+    }
+}
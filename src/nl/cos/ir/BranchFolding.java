@@ -0,0 +1,38 @@
+package nl.cos.ir;
+
+import java.util.List;
+
+/**
+ * Turns a branch whose outcome is known into a jump: a branch on two constants, or a branch
+ * that continues at the same block either way.
+ */
+public final class BranchFolding implements IrPass {
+    @Override
+    public String getName() {
+        return "branch folding";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        boolean changed = false;
+        for (BasicBlock block : function.getBlocks()) {
+            Instruction branch = block.getTerminator();
+            if (branch == null || branch.getOpcode() != Opcode.BRANCH) continue;
+
+            BasicBlock[] targets = branch.getTargets();
+            BasicBlock target = null;
+            if (targets[0] == targets[1]) target = targets[0];
+            else if (branch.getOperand(0) instanceof Constant && branch.getOperand(1) instanceof Constant) {
+                Object left = ((Constant) branch.getOperand(0)).getValue();
+                Object right = ((Constant) branch.getOperand(1)).getValue();
+                target = branch.getComparison().evaluate(left, right) ? targets[0] : targets[1];
+            }
+            if (target == null) continue;
+
+            List<Instruction> instructions = block.getInstructions();
+            instructions.set(instructions.size() - 1, Instruction.jump(target));
+            changed = true;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,74 @@
+package nl.cos.ir;
+
+/**
+ * The comparisons of COMPARE and BRANCH instructions. The suffix is the condition as used in
+ * the names of JVM branch instructions, such as <code>if_icmplt</code>.
+ */
+public enum Comparison {
+    LT("lt"),
+    GT("gt"),
+    LE("le"),
+    GE("ge"),
+    EQ("eq"),
+    NE("ne");
+
+    private final String suffix;
+
+    Comparison(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Returns the comparison that is true exactly when this one is false. For floats this also
+     * holds for NaN, as long as the float comparison is compiled with the fcmp instruction that
+     * makes NaN false for this comparison.
+     */
+    public Comparison negate() {
+        switch (this) {
+            case LT: return GE;
+            case GT: return LE;
+            case LE: return GT;
+            case GE: return LT;
+            case EQ: return NE;
+            default: return EQ;
+        }
+    }
+
+    /**
+     * Compares two known values of the same type, with the same results as the JVM: every
+     * comparison with NaN is false, except for not equal.
+     */
+    public boolean evaluate(Object left, Object right) {
+        if (left instanceof Float) {
+            float l = (Float) left;
+            float r = (Float) right;
+            switch (this) {
+                case LT: return l < r;
+                case GT: return l > r;
+                case LE: return l <= r;
+                case GE: return l >= r;
+                case EQ: return l == r;
+                default: return l != r;
+            }
+        }
+        int l = toInt(left);
+        int r = toInt(right);
+        switch (this) {
+            case LT: return l < r;
+            case GT: return l > r;
+            case LE: return l <= r;
+            case GE: return l >= r;
+            case EQ: return l == r;
+            default: return l != r;
+        }
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        return (Integer) value;
+    }
+}
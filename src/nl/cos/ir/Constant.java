@@ -0,0 +1,43 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+/**
+ * A value known at compile time: an Integer for num, a Float for frac, a Boolean for logic, the
+ * quoted source text of a text literal, or null for nil.
+ */
+public final class Constant implements Value {
+    private final Object value;
+    private final DataType type;
+
+    public Constant(Object value, DataType type) {
+        this.value = value;
+        this.type = type;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public DataType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Constant)) return false;
+        Constant other = (Constant) o;
+        return type == other.type && (value == null ? other.value == null : value.equals(other.value));
+    }
+
+    @Override
+    public int hashCode() {
+        return (value == null ? 0 : value.hashCode()) * 31 + type.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value == null ? "nil" : value.toString();
+    }
+}
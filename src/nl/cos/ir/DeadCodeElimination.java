@@ -0,0 +1,54 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Removes the instructions whose result is never read and that do nothing else: assignments to
+ * variables that are not used anymore, the intermediate results they were calculated from, and
+ * handles to functions that are never invoked. Every removed assignment to an Arc variable is
+ * reported.
+ */
+public final class DeadCodeElimination implements IrPass {
+    @Override
+    public String getName() {
+        return "dead code";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        boolean changed = false;
+        Liveness liveness = new Liveness(function);
+        for (BasicBlock block : function.getBlocks()) {
+            BitSet live = (BitSet) liveness.getLiveOut(block).clone();
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                Instruction instruction = instructions.get(i);
+                if (isRemovable(instruction, live)) {
+                    instructions.remove(i);
+                    changed = true;
+                    String name = instruction.getTarget().getName();
+                    if (name != null) program.report("Removed unused assignment to '" + name + "' in '" + function.getName() + "'");
+                } else {
+                    Liveness.step(instruction, live);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isRemovable(Instruction instruction, BitSet live) {
+        Register target = instruction.getTarget();
+        if (target == null || live.get(target.getNumber()) || instruction.getOpcode().hasSideEffects()) return false;
+
+        //An integer division throws when it divides by zero, so it has to stay unless that can not happen
+        Opcode opcode = instruction.getOpcode();
+        if ((opcode == Opcode.DIV || opcode == Opcode.REM) && target.getType() == DataType.INT) {
+            Value divisor = instruction.getOperand(1);
+            return divisor instanceof Constant && !Integer.valueOf(0).equals(((Constant) divisor).getValue());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+package nl.cos.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces direct calls of small functions by a copy of the function body. The parameters and
+ * local variables of the copy get fresh registers of the caller, the arguments are copied into
+ * the parameters, and every return continues after the call. A function is inlined if its body
+ * is small, or a bit larger when this is the only place it is called from. Functions that can
+ * call themselves, directly or through other functions, are never inlined.
+ */
+public final class Inlining implements IrPass {
+    private final int maxSize;
+    private final int maxSizeSingleCall;
+
+    public Inlining() {
+        this(8, 32);
+    }
+
+    /**
+     * @param maxSize            The largest number of instructions of a function that is inlined
+     *                           everywhere it is called
+     * @param maxSizeSingleCall  The largest number of instructions of a function that is inlined
+     *                           if it is called only once
+     */
+    public Inlining(int maxSize, int maxSizeSingleCall) {
+        this.maxSize = maxSize;
+        this.maxSizeSingleCall = maxSizeSingleCall;
+    }
+
+    @Override
+    public String getName() {
+        return "inlining";
+    }
+
+    @Override
+    public String describe() {
+        return getName() + "(" + maxSize + "," + maxSizeSingleCall + ")";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        Map<IrFunction, Integer> uses = countUses(program);
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                if (instruction.getOpcode() != Opcode.CALL) continue;
+                IrFunction callee = program.getFunction(instruction.getMethod());
+                if (callee == null || callee == function || !shouldInline(callee, uses.get(callee), program)) continue;
+
+                inline(function, block, i, callee);
+                program.report("Inlined function '" + callee.getName() + "' into '" + function.getName() + "'");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean shouldInline(IrFunction callee, Integer uses, IrProgram program) {
+        int size = 0;
+        for (BasicBlock block : callee.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (!instruction.getOpcode().isTerminator()) size++;
+            }
+        }
+        if (size > maxSizeSingleCall || (size > maxSize && (uses == null || uses > 1))) return false;
+        return !calls(callee, callee, program, new HashSet<>());
+    }
+
+    /**
+     * Returns true if the caller can end up calling the callee.
+     */
+    private static boolean calls(IrFunction caller, IrFunction callee, IrProgram program, Set<IrFunction> seen) {
+        if (!seen.add(caller)) return false;
+        for (BasicBlock block : caller.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.getOpcode() != Opcode.CALL && instruction.getOpcode() != Opcode.HANDLE) continue;
+                IrFunction next = program.getFunction(instruction.getMethod());
+                if (next == callee || (next != null && calls(next, callee, program, seen))) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the calls of every function. A handle counts as a use too, because the method has
+     * to stay around for it anyway.
+     */
+    private static Map<IrFunction, Integer> countUses(IrProgram program) {
+        Map<IrFunction, Integer> uses = new HashMap<>();
+        for (IrFunction function : program.getFunctions()) {
+            for (BasicBlock block : function.getBlocks()) {
+                for (Instruction instruction : block.getInstructions()) {
+                    if (instruction.getOpcode() != Opcode.CALL && instruction.getOpcode() != Opcode.HANDLE) continue;
+                    IrFunction callee = program.getFunction(instruction.getMethod());
+                    if (callee != null) uses.merge(callee, 1, Integer::sum);
+                }
+            }
+        }
+        return uses;
+    }
+
+    private static void inline(IrFunction function, BasicBlock block, int index, IrFunction callee) {
+        List<Instruction> instructions = block.getInstructions();
+        Instruction call = instructions.get(index);
+
+        //Everything after the call moves to a block of its own, where the returns of the copy continue
+        BasicBlock continuation = function.newBlock();
+        List<Instruction> rest = instructions.subList(index + 1, instructions.size());
+        for (Instruction instruction : rest) continuation.add(instruction);
+        rest.clear();
+        instructions.remove(index);
+
+        Map<Register, Register> registers = new HashMap<>();
+        for (Register register : callee.getRegisters()) {
+            registers.put(register, function.newRegister(register.getType(), register.getName()));
+        }
+        Map<BasicBlock, BasicBlock> blocks = new HashMap<>();
+        List<BasicBlock> copies = new ArrayList<>();
+        for (BasicBlock calleeBlock : callee.getBlocks()) {
+            BasicBlock copy = function.newBlock();
+            blocks.put(calleeBlock, copy);
+            copies.add(copy);
+        }
+
+        List<Register> params = callee.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            block.add(Instruction.copy(registers.get(params.get(i)), call.getOperand(i)));
+        }
+        block.add(Instruction.jump(blocks.get(callee.getEntry())));
+
+        for (BasicBlock calleeBlock : callee.getBlocks()) {
+            BasicBlock copy = blocks.get(calleeBlock);
+            for (Instruction instruction : calleeBlock.getInstructions()) {
+                List<Value> operands = new ArrayList<>();
+                for (Value operand : instruction.getOperands()) {
+                    operands.add(operand instanceof Register ? registers.get(operand) : operand);
+                }
+                if (instruction.getOpcode() == Opcode.RETURN) {
+                    if (call.getTarget() != null && !operands.isEmpty()) copy.add(Instruction.copy(call.getTarget(), operands.get(0)));
+                    copy.add(Instruction.jump(continuation));
+                    continue;
+                }
+
+                BasicBlock[] targets = new BasicBlock[instruction.getTargets().length];
+                for (int i = 0; i < targets.length; i++) targets[i] = blocks.get(instruction.getTargets()[i]);
+                Register target = instruction.getTarget() == null ? null : registers.get(instruction.getTarget());
+                copy.add(instruction.copyWith(target, operands, targets));
+            }
+        }
+
+        //Lay the copy out right after the call, so it falls through into it and back out again
+        int position = function.getBlocks().indexOf(block) + 1;
+        function.getBlocks().addAll(position, copies);
+        function.getBlocks().add(position + copies.size(), continuation);
+    }
+}
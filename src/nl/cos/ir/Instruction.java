@@ -0,0 +1,181 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A single IR instruction. Which fields are used depends on the opcode: the target register (if
+ * the instruction has a result), the operands, the comparison of COMPARE and BRANCH, the method
+ * name and descriptor of CALL, CALL_HANDLE and HANDLE, the printed type of PRINT and the target
+ * blocks of JUMP and BRANCH. Passes may replace operands and targets in place.
+ */
+public final class Instruction {
+    private final Opcode opcode;
+    private final Register target;
+    private final List<Value> operands;
+    private Comparison comparison;
+    private String method;
+    private String descriptor;
+    private DataType printType;
+    private final BasicBlock[] targets;
+
+    private Instruction(Opcode opcode, Register target, Value[] operands, BasicBlock... targets) {
+        this.opcode = opcode;
+        this.target = target;
+        this.operands = new ArrayList<>(Arrays.asList(operands));
+        this.targets = targets;
+    }
+
+    public static Instruction copy(Register target, Value value) {
+        return new Instruction(Opcode.COPY, target, new Value[] {value});
+    }
+
+    /**
+     * Creates an ADD, SUB, MUL, DIV, REM, SHL, SHR, USHR or AND instruction.
+     */
+    public static Instruction binary(Opcode opcode, Register target, Value left, Value right) {
+        return new Instruction(opcode, target, new Value[] {left, right});
+    }
+
+    public static Instruction compare(Register target, Comparison comparison, Value left, Value right) {
+        Instruction instruction = new Instruction(Opcode.COMPARE, target, new Value[] {left, right});
+        instruction.comparison = comparison;
+        return instruction;
+    }
+
+    public static Instruction not(Register target, Value value) {
+        return new Instruction(Opcode.NOT, target, new Value[] {value});
+    }
+
+    /**
+     * Creates a call of a static method of the class. The target is null if the method returns
+     * nothing.
+     */
+    public static Instruction call(Register target, String method, String descriptor, List<Value> arguments) {
+        Instruction instruction = new Instruction(Opcode.CALL, target, arguments.toArray(new Value[0]));
+        instruction.method = method;
+        instruction.descriptor = descriptor;
+        return instruction;
+    }
+
+    public static Instruction callHandle(Register target, Value handle, String descriptor, List<Value> arguments) {
+        List<Value> operands = new ArrayList<>();
+        operands.add(handle);
+        operands.addAll(arguments);
+        Instruction instruction = new Instruction(Opcode.CALL_HANDLE, target, operands.toArray(new Value[0]));
+        instruction.descriptor = descriptor;
+        return instruction;
+    }
+
+    public static Instruction handle(Register target, String method, String descriptor) {
+        Instruction instruction = new Instruction(Opcode.HANDLE, target, new Value[0]);
+        instruction.method = method;
+        instruction.descriptor = descriptor;
+        return instruction;
+    }
+
+    public static Instruction read(Register target) {
+        return new Instruction(Opcode.READ, target, new Value[0]);
+    }
+
+    public static Instruction print(Value value, DataType type) {
+        Instruction instruction = new Instruction(Opcode.PRINT, null, new Value[] {value});
+        instruction.printType = type;
+        return instruction;
+    }
+
+    public static Instruction jump(BasicBlock target) {
+        return new Instruction(Opcode.JUMP, null, new Value[0], target);
+    }
+
+    public static Instruction branch(Comparison comparison, Value left, Value right, BasicBlock whenTrue, BasicBlock whenFalse) {
+        Instruction instruction = new Instruction(Opcode.BRANCH, null, new Value[] {left, right}, whenTrue, whenFalse);
+        instruction.comparison = comparison;
+        return instruction;
+    }
+
+    /**
+     * Creates a return, with the returned value or null for a function that returns nothing.
+     */
+    public static Instruction ret(Value value) {
+        return new Instruction(Opcode.RETURN, null, value == null ? new Value[0] : new Value[] {value});
+    }
+
+    /**
+     * Returns a copy of this instruction that writes the given target, reads the given operands
+     * and continues at the given blocks instead.
+     */
+    Instruction copyWith(Register target, List<Value> operands, BasicBlock[] targets) {
+        Instruction copy = new Instruction(opcode, target, operands.toArray(new Value[0]), targets);
+        copy.comparison = comparison;
+        copy.method = method;
+        copy.descriptor = descriptor;
+        copy.printType = printType;
+        return copy;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public Register getTarget() {
+        return target;
+    }
+
+    public List<Value> getOperands() {
+        return operands;
+    }
+
+    public Value getOperand(int index) {
+        return operands.get(index);
+    }
+
+    public void setOperand(int index, Value value) {
+        operands.set(index, value);
+    }
+
+    public Comparison getComparison() {
+        return comparison;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public DataType getPrintType() {
+        return printType;
+    }
+
+    /**
+     * Returns the blocks a JUMP or BRANCH continues at; for a BRANCH the true block comes first.
+     */
+    public BasicBlock[] getTargets() {
+        return targets;
+    }
+
+    public void setTarget(int index, BasicBlock block) {
+        targets[index] = block;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (target != null) text.append(target).append(" = ");
+        text.append(opcode);
+        if (comparison != null) text.append(' ').append(comparison);
+        if (method != null) text.append(' ').append(method);
+        if (descriptor != null) text.append(' ').append(descriptor);
+        for (int i = 0; i < operands.size(); i++) {
+            text.append(i == 0 ? " " : ", ").append(operands.get(i));
+        }
+        for (BasicBlock block : targets) text.append(" -> ").append(block.getName());
+        return text.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A function in the IR, which becomes one static method. The first block is the entry block;
+ * the order of the blocks is the order they are laid out in, so a jump to the next block costs
+ * nothing. The parameters are the first registers, in order.
+ */
+public final class IrFunction {
+    private final String name;
+    private final String descriptor;
+    private final DataType returnType;
+    private final List<Register> params;
+    private final List<Register> registers;
+    private final List<BasicBlock> blocks;
+    private int blockCount;
+
+    public IrFunction(String name, String descriptor, DataType returnType) {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.returnType = returnType;
+        this.params = new ArrayList<>();
+        this.registers = new ArrayList<>();
+        this.blocks = new ArrayList<>();
+        this.blockCount = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public DataType getReturnType() {
+        return returnType;
+    }
+
+    public Register newRegister(DataType type, String name) {
+        Register register = new Register(registers.size(), type, name);
+        registers.add(register);
+        return register;
+    }
+
+    /**
+     * Adds a parameter. Parameters have to be added before any other register.
+     */
+    public Register newParam(DataType type, String name) {
+        if (registers.size() != params.size()) throw new IllegalStateException("Parameters have to come first");
+        Register param = newRegister(type, name);
+        params.add(param);
+        return param;
+    }
+
+    public List<Register> getParams() {
+        return params;
+    }
+
+    public List<Register> getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Creates a block that is not part of the function yet; it is added with addBlock once code
+     * is generated into it, so that blocks are laid out in the order they are filled.
+     */
+    public BasicBlock newBlock() {
+        return new BasicBlock("B" + blockCount++);
+    }
+
+    public void addBlock(BasicBlock block) {
+        blocks.add(block);
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("function ").append(name).append(descriptor).append(" ").append(params).append('\n');
+        for (BasicBlock block : blocks) text.append(block);
+        return text.toString();
+    }
+}
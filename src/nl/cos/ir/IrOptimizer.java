@@ -0,0 +1,106 @@
+package nl.cos.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a list of {@link IrPass}es over every function of a program, over and over again until
+ * none of them changes anything anymore. It counts how often every pass changed a function, and
+ * keeps the report of what the passes removed, over all programs this optimizer has seen. Only
+ * the first {@link #REPORT_LIMIT} lines of the report are kept, so an optimizer that is used for
+ * a long time, such as the one of a compile server, does not keep growing.
+ */
+public class IrOptimizer {
+    public static final int REPORT_LIMIT = 1000;
+
+    private final List<IrPass> passes;
+    private final LinkedHashMap<String, Integer> changes;
+    private final List<String> report;
+    private int droppedReportLines;
+
+    public IrOptimizer(List<IrPass> passes) {
+        this.passes = new ArrayList<>(passes);
+        this.changes = new LinkedHashMap<>();
+        this.report = new ArrayList<>();
+        for (IrPass pass : passes) changes.put(pass.getName(), 0);
+    }
+
+    /**
+     * Returns an optimizer with all passes in this package.
+     */
+    public static IrOptimizer withDefaultPasses() {
+        return new IrOptimizer(Arrays.asList(
+                new TailCallElimination(),
+                new Inlining(),
+                new LoopInvariantCodeMotion(),
+                new StrengthReduction(),
+                new BranchFolding(),
+                new JumpThreading(),
+                new UnreachableBlockElimination(),
+                new DeadCodeElimination(),
+                new UnusedFunctionElimination()));
+    }
+
+    public void optimize(IrProgram program) {
+        for (IrFunction function : new ArrayList<>(program.getFunctions())) {
+            //A function may have been removed while an earlier one was optimized
+            if (!program.getFunctions().contains(function)) continue;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (IrPass pass : passes) {
+                    if (pass.run(function, program)) {
+                        recordChange(pass);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        recordReport(program.getReport());
+    }
+
+    private synchronized void recordChange(IrPass pass) {
+        changes.merge(pass.getName(), 1, Integer::sum);
+    }
+
+    private synchronized void recordReport(List<String> removed) {
+        int kept = Math.min(removed.size(), REPORT_LIMIT - report.size());
+        report.addAll(removed.subList(0, kept));
+        droppedReportLines += removed.size() - kept;
+    }
+
+    /**
+     * Describes the passes with their settings, in the order they run.
+     */
+    public List<String> describe() {
+        List<String> descriptions = new ArrayList<>();
+        for (IrPass pass : passes) descriptions.add(pass.describe());
+        return descriptions;
+    }
+
+    /**
+     * Returns what the passes removed, in the order they removed it, up to the first
+     * {@link #REPORT_LIMIT} lines.
+     */
+    public synchronized List<String> getReport() {
+        return Collections.unmodifiableList(new ArrayList<>(report));
+    }
+
+    /**
+     * Returns how many lines were left out of the report because it was full.
+     */
+    public synchronized int getDroppedReportLines() {
+        return droppedReportLines;
+    }
+
+    /**
+     * Returns how often every pass changed a function, in the order the passes run.
+     */
+    public synchronized Map<String, Integer> getChanges() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(changes));
+    }
+}
@@ -0,0 +1,26 @@
+package nl.cos.ir;
+
+/**
+ * An optimization on the IR of one function.
+ */
+public interface IrPass {
+    /**
+     * Returns the name the changes of this pass are counted under.
+     */
+    String getName();
+
+    /**
+     * Describes this pass and its settings, for the key of a cached class. Passes with settings
+     * that change the code they produce have to include them.
+     */
+    default String describe() {
+        return getName();
+    }
+
+    /**
+     * Runs the pass on a function.
+     *
+     * @return  True if the function was changed
+     */
+    boolean run(IrFunction function, IrProgram program);
+}
@@ -0,0 +1,60 @@
+package nl.cos.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All functions of a class in the IR. The first function is the main method.
+ */
+public final class IrProgram {
+    private final String className;
+    private final List<IrFunction> functions;
+    private final List<String> report;
+
+    public IrProgram(String className) {
+        this.className = className;
+        this.functions = new ArrayList<>();
+        this.report = new ArrayList<>();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public void addFunction(IrFunction function) {
+        functions.add(function);
+    }
+
+    public List<IrFunction> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Returns the function with the given method name, or null if there is none.
+     */
+    public IrFunction getFunction(String name) {
+        for (IrFunction function : functions) {
+            if (function.getName().equals(name)) return function;
+        }
+        return null;
+    }
+
+    /**
+     * Notes down something an optimization removed from the program, so it can be shown to the
+     * user.
+     */
+    public void report(String message) {
+        report.add(message);
+    }
+
+    public List<String> getReport() {
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (IrFunction function : functions) text.append(function).append('\n');
+        return text.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package nl.cos.ir;
+
+/**
+ * Lets jumps and branches to a block that does nothing but jump on go straight to where that
+ * block jumps to.
+ */
+public final class JumpThreading implements IrPass {
+    @Override
+    public String getName() {
+        return "jump threading";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        boolean changed = false;
+        for (BasicBlock block : function.getBlocks()) {
+            Instruction terminator = block.getTerminator();
+            if (terminator == null) continue;
+            BasicBlock[] targets = terminator.getTargets();
+            for (int i = 0; i < targets.length; i++) {
+                BasicBlock next = forwardedTarget(targets[i]);
+                if (next != targets[i]) {
+                    terminator.setTarget(i, next);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Follows a chain of blocks that only jump, stopping at a loop of such blocks.
+     */
+    private static BasicBlock forwardedTarget(BasicBlock block) {
+        BasicBlock target = block;
+        for (int steps = 0; steps < 16; steps++) {
+            if (target.getInstructions().size() != 1) break;
+            Instruction only = target.getInstructions().get(0);
+            if (only.getOpcode() != Opcode.JUMP || only.getTargets()[0] == target) break;
+            target = only.getTargets()[0];
+            if (target == block) break;
+        }
+        return target;
+    }
+}
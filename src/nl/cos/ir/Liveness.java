@@ -0,0 +1,73 @@
+package nl.cos.ir;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out which registers of a function are live at the start and the end of every block: the
+ * registers whose current value may still be read later on. Registers are kept in bit sets, by
+ * their number.
+ */
+public final class Liveness {
+    private final Map<BasicBlock, BitSet> liveIn;
+    private final Map<BasicBlock, BitSet> liveOut;
+
+    public Liveness(IrFunction function) {
+        this.liveIn = new HashMap<>();
+        this.liveOut = new HashMap<>();
+        List<BasicBlock> blocks = function.getBlocks();
+        for (BasicBlock block : blocks) {
+            liveIn.put(block, new BitSet());
+            liveOut.put(block, new BitSet());
+        }
+
+        //Going through the blocks backwards makes most loops settle in a few rounds
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                BitSet out = liveOut.get(block);
+                for (BasicBlock successor : block.getSuccessors()) {
+                    BitSet successorIn = liveIn.get(successor);
+                    if (successorIn != null) out.or(successorIn);
+                }
+
+                BitSet in = (BitSet) out.clone();
+                List<Instruction> instructions = block.getInstructions();
+                for (int j = instructions.size() - 1; j >= 0; j--) step(instructions.get(j), in);
+                if (!in.equals(liveIn.get(block))) {
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the registers that are live when the block starts. The set must not be changed.
+     */
+    public BitSet getLiveIn(BasicBlock block) {
+        return liveIn.get(block);
+    }
+
+    /**
+     * Returns the registers that are live when the block ends. The set must not be changed.
+     */
+    public BitSet getLiveOut(BasicBlock block) {
+        return liveOut.get(block);
+    }
+
+    /**
+     * Turns the registers that are live after an instruction into the ones that are live before
+     * it: the register it writes is dead before it, and the registers it reads are live.
+     */
+    public static void step(Instruction instruction, BitSet live) {
+        if (instruction.getTarget() != null) live.clear(instruction.getTarget().getNumber());
+        for (Value operand : instruction.getOperands()) {
+            if (operand instanceof Register) live.set(((Register) operand).getNumber());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves the instructions of a loop that calculate the same value on every round to a new block
+ * that runs once before the loop starts. An instruction is moved if it reads only values that
+ * do not change in the loop, it is the only one in the loop that writes its target, the target
+ * is not read before it is written, and running it when the loop would not have done so can not
+ * be noticed: it has no side effects and can not throw. This includes calls to functions that
+ * never print, read or invoke a handle, never loop, and only call other such functions.
+ */
+public final class LoopInvariantCodeMotion implements IrPass {
+    @Override
+    public String getName() {
+        return "loop invariants";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        Map<BasicBlock, Set<BasicBlock>> loops = findLoops(function);
+        if (loops.isEmpty()) return false;
+
+        Liveness liveness = new Liveness(function);
+        Map<IrFunction, Boolean> pure = new HashMap<>();
+        for (Map.Entry<BasicBlock, Set<BasicBlock>> loop : loops.entrySet()) {
+            List<Instruction> hoisted = findInvariants(loop.getValue(), liveness.getLiveIn(loop.getKey()), program, pure);
+            if (hoisted.isEmpty()) continue;
+
+            addPreheader(function, loop.getKey(), loop.getValue(), hoisted);
+            program.report("Moved " + hoisted.size() + " loop invariant instruction(s) out of a loop in '" + function.getName() + "'");
+            //The blocks and liveness are out of date now, the next run takes care of the other loops
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the blocks of every loop by its header, the block every round starts with. The
+     * header dominates the blocks that jump back to it: every path from the entry to them passes
+     * through the header.
+     */
+    private static Map<BasicBlock, Set<BasicBlock>> findLoops(IrFunction function) {
+        List<BasicBlock> blocks = function.getBlocks();
+        Set<BasicBlock> reachable = UnreachableBlockElimination.reachableBlocks(function);
+        Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+        for (BasicBlock block : blocks) predecessors.put(block, new ArrayList<>());
+        for (BasicBlock block : blocks) {
+            if (!reachable.contains(block)) continue;
+            for (BasicBlock successor : block.getSuccessors()) predecessors.get(successor).add(block);
+        }
+
+        //Dominators by block index, starting from all blocks and narrowing down until they settle
+        BitSet[] dominators = new BitSet[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            dominators[i] = new BitSet();
+            if (i == 0) dominators[i].set(0);
+            else dominators[i].set(0, blocks.size());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < blocks.size(); i++) {
+                BitSet dominator = new BitSet();
+                dominator.set(0, blocks.size());
+                for (BasicBlock predecessor : predecessors.get(blocks.get(i))) dominator.and(dominators[blocks.indexOf(predecessor)]);
+                dominator.set(i);
+                if (!dominator.equals(dominators[i])) {
+                    dominators[i] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            if (!reachable.contains(block)) continue;
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!dominators[i].get(blocks.indexOf(successor))) continue;
+
+                //The loop is everything that can get to the jump back without passing the header
+                Set<BasicBlock> loop = loops.computeIfAbsent(successor, header -> new LinkedHashSet<>());
+                loop.add(successor);
+                Deque<BasicBlock> work = new ArrayDeque<>();
+                work.push(block);
+                while (!work.isEmpty()) {
+                    BasicBlock next = work.pop();
+                    if (loop.add(next)) predecessors.get(next).forEach(work::push);
+                }
+            }
+        }
+        return loops;
+    }
+
+    /**
+     * Removes the invariant instructions from the loop and returns them, in an order in which
+     * every one comes after the ones it reads from.
+     */
+    private static List<Instruction> findInvariants(Set<BasicBlock> loop, BitSet liveAtHeader, IrProgram program, Map<IrFunction, Boolean> pure) {
+        Map<Register, Integer> writes = new HashMap<>();
+        for (BasicBlock block : loop) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.getTarget() != null) writes.merge(instruction.getTarget(), 1, Integer::sum);
+            }
+        }
+
+        List<Instruction> hoisted = new ArrayList<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : loop) {
+                List<Instruction> instructions = block.getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    Instruction instruction = instructions.get(i);
+                    Register target = instruction.getTarget();
+                    if (target == null || writes.get(target) != 1 || liveAtHeader.get(target.getNumber())) continue;
+                    if (!isSafe(instruction, program, pure) || !readsInvariants(instruction, writes)) continue;
+
+                    instructions.remove(i--);
+                    writes.remove(target);
+                    hoisted.add(instruction);
+                    changed = true;
+                }
+            }
+        }
+        return hoisted;
+    }
+
+    private static boolean readsInvariants(Instruction instruction, Map<Register, Integer> writes) {
+        for (Value operand : instruction.getOperands()) {
+            if (operand instanceof Register && writes.containsKey(operand)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if running the instruction more often than before does not change what the
+     * program does.
+     */
+    private static boolean isSafe(Instruction instruction, IrProgram program, Map<IrFunction, Boolean> pure) {
+        Opcode opcode = instruction.getOpcode();
+        if (opcode == Opcode.CALL) {
+            IrFunction callee = program.getFunction(instruction.getMethod());
+            return callee != null && isPure(callee, program, pure, new HashSet<>());
+        }
+        if (opcode.hasSideEffects() || opcode.isTerminator()) return false;
+
+        //An integer division throws when it divides by zero
+        if ((opcode == Opcode.DIV || opcode == Opcode.REM) && instruction.getTarget().getType() == DataType.INT) {
+            Value divisor = instruction.getOperand(1);
+            return divisor instanceof Constant && !Integer.valueOf(0).equals(((Constant) divisor).getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if calling the function only calculates its result: every instruction in it is
+     * safe to run, and it always returns. A function that can call itself or that has a loop may
+     * not return, so it is never pure.
+     */
+    private static boolean isPure(IrFunction function, IrProgram program, Map<IrFunction, Boolean> pure, Set<IrFunction> calling) {
+        Boolean known = pure.get(function);
+        if (known != null) return known;
+        if (!calling.add(function)) return false;
+
+        boolean result = true;
+        List<BasicBlock> blocks = function.getBlocks();
+        for (int i = 0; i < blocks.size() && result; i++) {
+            //Every loop has a jump to the same or an earlier block, whatever the order of the blocks
+            for (BasicBlock successor : blocks.get(i).getSuccessors()) {
+                if (blocks.indexOf(successor) <= i) result = false;
+            }
+            for (Instruction instruction : blocks.get(i).getInstructions()) {
+                Opcode opcode = instruction.getOpcode();
+                if (opcode.isTerminator()) continue;
+                if (opcode == Opcode.CALL) {
+                    IrFunction callee = program.getFunction(instruction.getMethod());
+                    if (callee == null || !isPure(callee, program, pure, calling)) result = false;
+                } else if (!isSafe(instruction, program, pure)) {
+                    result = false;
+                }
+            }
+        }
+        calling.remove(function);
+        pure.put(function, result);
+        return result;
+    }
+
+    /**
+     * Puts the instructions in a new block that the loop is entered through. The blocks outside
+     * the loop that jumped to the header jump to the new block instead.
+     */
+    private static void addPreheader(IrFunction function, BasicBlock header, Set<BasicBlock> loop, List<Instruction> hoisted) {
+        BasicBlock preheader = function.newBlock();
+        for (Instruction instruction : hoisted) preheader.add(instruction);
+        preheader.add(Instruction.jump(header));
+
+        List<BasicBlock> blocks = function.getBlocks();
+        int position = -1;
+        for (BasicBlock block : blocks) {
+            if (loop.contains(block)) continue;
+            Instruction terminator = block.getTerminator();
+            if (terminator == null) continue;
+            for (int i = 0; i < terminator.getTargets().length; i++) {
+                if (terminator.getTargets()[i] != header) continue;
+                terminator.setTarget(i, preheader);
+                if (position < 0) position = blocks.indexOf(block) + 1;
+            }
+        }
+
+        //Laid out after the first block that enters the loop, so it can fall through into it;
+        //a loop around the entry block gets the preheader as its new entry
+        if (position < 0) position = header == function.getEntry() ? 0 : blocks.indexOf(header);
+        blocks.add(position, preheader);
+    }
+}
@@ -0,0 +1,67 @@
+package nl.cos.ir;
+
+/**
+ * The operations of the IR. Terminators end a basic block; every block ends with exactly one.
+ */
+public enum Opcode {
+    /** target = operand */
+    COPY(false, false),
+    /** target = left + right */
+    ADD(false, false),
+    /** target = left - right */
+    SUB(false, false),
+    /** target = left * right */
+    MUL(false, false),
+    /** target = left / right; throws for an integer division by zero */
+    DIV(false, false),
+    /** target = left % right; throws for an integer division by zero */
+    REM(false, false),
+    /** target = left shifted left by right bits; ints only */
+    SHL(false, false),
+    /** target = left shifted right by right bits, keeping the sign; ints only */
+    SHR(false, false),
+    /** target = left shifted right by right bits, filling in zeros; ints only */
+    USHR(false, false),
+    /** target = the bitwise and of left and right; ints only */
+    AND(false, false),
+    /** target = left (comparison) right */
+    COMPARE(false, false),
+    /** target = not operand */
+    NOT(false, false),
+    /** target = the result of calling a static method, with the operands as arguments */
+    CALL(false, true),
+    /** target = the result of invoking the method handle in the first operand with the others */
+    CALL_HANDLE(false, true),
+    /** target = a method handle to a static method */
+    HANDLE(false, false),
+    /** target = the next line of system input */
+    READ(false, true),
+    /** print the operand to system output */
+    PRINT(false, true),
+    /** continue at the target block */
+    JUMP(true, false),
+    /** continue at the true block if left (comparison) right holds, and at the false block otherwise */
+    BRANCH(true, false),
+    /** return from the function, with the operand if there is one */
+    RETURN(true, true);
+
+    private final boolean terminator;
+    private final boolean sideEffects;
+
+    Opcode(boolean terminator, boolean sideEffects) {
+        this.terminator = terminator;
+        this.sideEffects = sideEffects;
+    }
+
+    public boolean isTerminator() {
+        return terminator;
+    }
+
+    /**
+     * Returns true if the operation does more than writing its target, so it can never be
+     * removed just because its target is not used.
+     */
+    public boolean hasSideEffects() {
+        return sideEffects;
+    }
+}
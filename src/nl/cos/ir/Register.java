@@ -0,0 +1,42 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+/**
+ * A virtual register of a function. Every Arc variable gets its own register, and so does every
+ * intermediate result. Registers are not in SSA form: a variable that is assigned more than once
+ * keeps writing the same register.
+ */
+public final class Register implements Value {
+    private final int number;
+    private final DataType type;
+    private final String name;
+
+    Register(int number, DataType type, String name) {
+        this.number = number;
+        this.type = type;
+        this.name = name;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    @Override
+    public DataType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the name of the Arc variable this register holds, or null for an intermediate
+     * result.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "%" + number : "%" + number + "." + name;
+    }
+}
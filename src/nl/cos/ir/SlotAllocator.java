@@ -0,0 +1,92 @@
+package nl.cos.ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Gives every register of a function a local variable slot. Two registers only get different
+ * slots if one of them is live where the other one is written, so variables of blocks that never
+ * run at the same time, and intermediate results that are only read once, keep reusing the same
+ * few slots. A register that is copied into another one gets the slot of that register when it
+ * can, which makes the copy go away. The parameters keep the slots they are passed in.
+ */
+public final class SlotAllocator {
+    private final int[] slots;
+    private int slotCount;
+
+    public SlotAllocator(IrFunction function) {
+        int registerCount = function.getRegisters().size();
+        BitSet[] interference = new BitSet[registerCount];
+        List<List<Register>> copies = new ArrayList<>();
+        for (int i = 0; i < registerCount; i++) {
+            interference[i] = new BitSet();
+            copies.add(new ArrayList<>());
+        }
+
+        //A register interferes with every register that is live where it is written, except with
+        //the register it is a copy of, since both hold the same value
+        Liveness liveness = new Liveness(function);
+        for (BasicBlock block : function.getBlocks()) {
+            BitSet live = (BitSet) liveness.getLiveOut(block).clone();
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                Instruction instruction = instructions.get(i);
+                Register target = instruction.getTarget();
+                if (target != null) {
+                    Value source = instruction.getOpcode() == Opcode.COPY ? instruction.getOperand(0) : null;
+                    if (source instanceof Register) {
+                        copies.get(target.getNumber()).add((Register) source);
+                        copies.get(((Register) source).getNumber()).add(target);
+                    }
+                    for (int other = live.nextSetBit(0); other >= 0; other = live.nextSetBit(other + 1)) {
+                        if (other == target.getNumber() || (source instanceof Register && other == ((Register) source).getNumber())) continue;
+                        interference[target.getNumber()].set(other);
+                        interference[other].set(target.getNumber());
+                    }
+                }
+                Liveness.step(instruction, live);
+            }
+        }
+
+        //The parameters are all written when the function starts
+        BitSet atEntry = function.getBlocks().isEmpty() ? new BitSet() : (BitSet) liveness.getLiveIn(function.getEntry()).clone();
+        for (Register param : function.getParams()) atEntry.set(param.getNumber());
+        for (int a = atEntry.nextSetBit(0); a >= 0; a = atEntry.nextSetBit(a + 1)) {
+            interference[a].or(atEntry);
+            interference[a].clear(a);
+        }
+
+        this.slots = new int[registerCount];
+        this.slotCount = function.getParams().size();
+        for (Register param : function.getParams()) slots[param.getNumber()] = param.getNumber();
+        for (int register = function.getParams().size(); register < registerCount; register++) {
+            //Registers are given a slot in order, so the ones below this one already have theirs
+            BitSet taken = new BitSet();
+            for (int other = interference[register].nextSetBit(0); other >= 0 && other < register; other = interference[register].nextSetBit(other + 1)) {
+                taken.set(slots[other]);
+            }
+
+            int slot = taken.nextClearBit(0);
+            for (Register partner : copies.get(register)) {
+                if (partner.getNumber() < register && !taken.get(slots[partner.getNumber()])) {
+                    slot = slots[partner.getNumber()];
+                    break;
+                }
+            }
+            slots[register] = slot;
+            slotCount = Math.max(slotCount, slot + 1);
+        }
+    }
+
+    public int getSlot(Register register) {
+        return slots[register.getNumber()];
+    }
+
+    /**
+     * Returns the number of slots the function needs.
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+}
@@ -0,0 +1,120 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces integer math with a constant by cheaper math that gives exactly the same result.
+ * Adding or subtracting zero and multiplying or dividing by one become a copy, multiplying by
+ * zero and the remainder of one become zero, and multiplying by minus one becomes a subtraction.
+ * Multiplying by a power of two becomes a shift, and so do dividing by and taking the remainder
+ * of a power of two: rounding towards zero is kept by first adding one less than the power of
+ * two to negative numbers. Float math is left alone, since NaN, infinities and -0.0 make none of
+ * these hold.
+ */
+public final class StrengthReduction implements IrPass {
+    @Override
+    public String getName() {
+        return "strength reduction";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        boolean changed = false;
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                List<Instruction> replacement = reduce(function, instructions.get(i));
+                if (replacement == null) continue;
+                instructions.remove(i);
+                instructions.addAll(i, replacement);
+                i += replacement.size() - 1;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static List<Instruction> reduce(IrFunction function, Instruction instruction) {
+        Register target = instruction.getTarget();
+        if (target == null || target.getType() != DataType.INT) return null;
+        Opcode opcode = instruction.getOpcode();
+        if (opcode != Opcode.ADD && opcode != Opcode.SUB && opcode != Opcode.MUL && opcode != Opcode.DIV && opcode != Opcode.REM) return null;
+
+        Value left = instruction.getOperand(0);
+        Value right = instruction.getOperand(1);
+        //Addition and multiplication work both ways around, so put a constant on the right
+        if ((opcode == Opcode.ADD || opcode == Opcode.MUL) && constant(left) != null && constant(right) == null) {
+            Value swap = left;
+            left = right;
+            right = swap;
+        }
+        Integer value = constant(right);
+        if (value == null) return null;
+
+        List<Instruction> code = new ArrayList<>();
+        switch (opcode) {
+            case ADD:
+            case SUB:
+                if (value != 0) return null;
+                code.add(Instruction.copy(target, left));
+                break;
+            case MUL:
+                if (value == 0) code.add(Instruction.copy(target, right));
+                else if (value == 1) code.add(Instruction.copy(target, left));
+                else if (value == -1) code.add(Instruction.binary(Opcode.SUB, target, new Constant(0, DataType.INT), left));
+                else if (isPowerOfTwo(value)) code.add(Instruction.binary(Opcode.SHL, target, left, shift(value)));
+                else return null;
+                break;
+            case DIV:
+                if (value == 1) code.add(Instruction.copy(target, left));
+                else if (value == -1) code.add(Instruction.binary(Opcode.SUB, target, new Constant(0, DataType.INT), left));
+                else if (isPowerOfTwo(value)) {
+                    Register rounded = roundTowardsZero(function, code, left, value);
+                    code.add(Instruction.binary(Opcode.SHR, target, rounded, shift(value)));
+                } else return null;
+                break;
+            default:
+                if (value == 1 || value == -1) code.add(Instruction.copy(target, new Constant(0, DataType.INT)));
+                else if (isPowerOfTwo(value)) {
+                    Register rounded = roundTowardsZero(function, code, left, value);
+                    Register multiple = function.newRegister(DataType.INT, null);
+                    code.add(Instruction.binary(Opcode.AND, multiple, rounded, new Constant(-value, DataType.INT)));
+                    code.add(Instruction.binary(Opcode.SUB, target, left, multiple));
+                } else return null;
+        }
+        return code;
+    }
+
+    /**
+     * Adds value - 1 to the dividend if it is negative, so shifting it right rounds towards zero
+     * just like a division does.
+     */
+    private static Register roundTowardsZero(IrFunction function, List<Instruction> code, Value dividend, int value) {
+        Register sign = function.newRegister(DataType.INT, null);
+        Register bias = function.newRegister(DataType.INT, null);
+        Register rounded = function.newRegister(DataType.INT, null);
+        code.add(Instruction.binary(Opcode.SHR, sign, dividend, new Constant(31, DataType.INT)));
+        code.add(Instruction.binary(Opcode.USHR, bias, sign, new Constant(32 - Integer.numberOfTrailingZeros(value), DataType.INT)));
+        code.add(Instruction.binary(Opcode.ADD, rounded, dividend, bias));
+        return rounded;
+    }
+
+    private static Integer constant(Value value) {
+        if (!(value instanceof Constant) || !(((Constant) value).getValue() instanceof Integer)) return null;
+        return (Integer) ((Constant) value).getValue();
+    }
+
+    /**
+     * Returns true for 2, 4, 8 and so on up to 2^30; 1 and the negative 2^31 are left out.
+     */
+    private static boolean isPowerOfTwo(int value) {
+        return value > 1 && Integer.bitCount(value) == 1;
+    }
+
+    private static Constant shift(int value) {
+        return new Constant(Integer.numberOfTrailingZeros(value), DataType.INT);
+    }
+}
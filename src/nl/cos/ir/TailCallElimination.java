@@ -0,0 +1,82 @@
+package nl.cos.ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns a function that returns the result of a call to itself into a loop: the arguments are
+ * copied into the parameters and the function jumps back to its entry block, so deep recursion
+ * does not use up the stack. A call is in tail position if everything after it only copies its
+ * result along until it is returned.
+ */
+public final class TailCallElimination implements IrPass {
+    @Override
+    public String getName() {
+        return "tail calls";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        if (function == program.getFunctions().get(0)) return false;
+
+        boolean changed = false;
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction call = instructions.get(i);
+                if (call.getOpcode() != Opcode.CALL || !call.getMethod().equals(function.getName())) continue;
+                if (!isReturned(block, i)) continue;
+
+                //The arguments may read the parameters, so they all go through fresh registers first
+                List<Register> params = function.getParams();
+                List<Instruction> loop = new ArrayList<>();
+                List<Register> arguments = new ArrayList<>();
+                for (int p = 0; p < params.size(); p++) {
+                    Register argument = function.newRegister(params.get(p).getType(), null);
+                    loop.add(Instruction.copy(argument, call.getOperand(p)));
+                    arguments.add(argument);
+                }
+                for (int p = 0; p < params.size(); p++) loop.add(Instruction.copy(params.get(p), arguments.get(p)));
+                loop.add(Instruction.jump(function.getEntry()));
+
+                instructions.subList(i, instructions.size()).clear();
+                instructions.addAll(loop);
+                program.report("Turned the tail call of '" + function.getName() + "' to itself into a loop");
+                changed = true;
+                break;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns true if the result of the call at the index is returned right away, possibly after
+     * being copied into other registers and jumping to other blocks.
+     */
+    private static boolean isReturned(BasicBlock block, int index) {
+        Value result = block.getInstructions().get(index).getTarget();
+        Set<BasicBlock> seen = new HashSet<>();
+        int i = index + 1;
+        while (true) {
+            Instruction instruction = block.getInstructions().get(i);
+            switch (instruction.getOpcode()) {
+                case COPY:
+                    if (result == null || instruction.getOperand(0) != result) return false;
+                    result = instruction.getTarget();
+                    i++;
+                    break;
+                case JUMP:
+                    block = instruction.getTargets()[0];
+                    if (!seen.add(block)) return false;
+                    i = 0;
+                    break;
+                case RETURN:
+                    return instruction.getOperands().isEmpty() ? result == null : instruction.getOperand(0) == result;
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nl.cos.ir;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the blocks that can not be reached from the entry block, such as the branch of a
+ * condition that is known at compile time, and reports how many it removed.
+ */
+public final class UnreachableBlockElimination implements IrPass {
+    @Override
+    public String getName() {
+        return "unreachable blocks";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        Set<BasicBlock> reachable = reachableBlocks(function);
+        int before = function.getBlocks().size();
+        if (!function.getBlocks().removeIf(block -> !reachable.contains(block))) return false;
+        program.report("Removed " + (before - function.getBlocks().size()) + " unreachable block(s) from '" + function.getName() + "'");
+        return true;
+    }
+
+    static Set<BasicBlock> reachableBlocks(IrFunction function) {
+        Set<BasicBlock> reachable = new HashSet<>();
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        work.push(function.getEntry());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.pop();
+            if (!reachable.add(block)) continue;
+            for (BasicBlock successor : block.getSuccessors()) work.push(successor);
+        }
+        return reachable;
+    }
+}
@@ -0,0 +1,49 @@
+package nl.cos.ir;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Removes the functions that can never be called: the ones main does not call or take a handle
+ * to, directly or through other functions. This looks at the whole program, whichever function
+ * it runs on, so it also sees calls that other passes removed from functions that were optimized
+ * before.
+ */
+public final class UnusedFunctionElimination implements IrPass {
+    @Override
+    public String getName() {
+        return "unused functions";
+    }
+
+    @Override
+    public boolean run(IrFunction function, IrProgram program) {
+        IrFunction main = program.getFunctions().get(0);
+        Set<IrFunction> used = new HashSet<>();
+        Deque<IrFunction> work = new ArrayDeque<>();
+        work.push(main);
+        while (!work.isEmpty()) {
+            IrFunction caller = work.pop();
+            if (!used.add(caller)) continue;
+            for (BasicBlock block : caller.getBlocks()) {
+                for (Instruction instruction : block.getInstructions()) {
+                    if (instruction.getOpcode() != Opcode.CALL && instruction.getOpcode() != Opcode.HANDLE) continue;
+                    IrFunction callee = program.getFunction(instruction.getMethod());
+                    if (callee != null) work.push(callee);
+                }
+            }
+        }
+
+        boolean changed = false;
+        for (Iterator<IrFunction> it = program.getFunctions().iterator(); it.hasNext(); ) {
+            IrFunction candidate = it.next();
+            if (used.contains(candidate)) continue;
+            it.remove();
+            changed = true;
+            program.report("Removed unused function '" + candidate.getName() + "'");
+        }
+        return changed;
+    }
+}
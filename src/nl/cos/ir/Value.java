@@ -0,0 +1,10 @@
+package nl.cos.ir;
+
+import nl.cos.jasmin.DataType;
+
+/**
+ * An operand of an IR instruction: either a {@link Register} or a {@link Constant}.
+ */
+public interface Value {
+    DataType getType();
+}
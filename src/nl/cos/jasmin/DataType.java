@@ -24,4 +24,37 @@ public enum DataType {
     public String getMnemonic() {
         return mnemonic;
     }
+
+    /**
+     * Returns the instruction that loads a local variable of this type, such as iload.
+     */
+    public Opcode getLoad() {
+        return Opcode.forMnemonic(mnemonic + "load");
+    }
+
+    /**
+     * Returns the instruction that stores into a local variable of this type, such as istore.
+     */
+    public Opcode getStore() {
+        return Opcode.forMnemonic(mnemonic + "store");
+    }
+
+    /**
+     * Returns the instruction that returns a value of this type, such as ireturn.
+     */
+    public Opcode getReturn() {
+        return Opcode.forMnemonic(mnemonic + "return");
+    }
+
+    /**
+     * Builds the descriptor of a method with the given parameter types and return type, such as
+     * <code>(II)F</code>.
+     */
+    public static String methodDescriptor(DataType[] params, DataType returnType) {
+        StringBuilder descriptor = new StringBuilder("(");
+        if (params != null) {
+            for (DataType param : params) descriptor.append(param.getDescriptor());
+        }
+        return descriptor.append(")").append(returnType.getDescriptor()).toString();
+    }
 }
@@ -0,0 +1,51 @@
+package nl.cos.jasmin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The generated class: its static fields and its methods, with the main method first. Both
+ * backends turn this into a class file, either through Jasmin code or directly.
+ */
+public class JasminClass {
+    private final String name;
+    private final int version;
+    private final List<JasminField> fields;
+    private final List<JasminMethod> methods;
+
+    public JasminClass(String name, int version) {
+        this.name = name;
+        this.version = version;
+        this.fields = new ArrayList<>();
+        this.methods = new ArrayList<>();
+    }
+
+    public JasminClass addField(JasminField field) {
+        fields.add(field);
+        return this;
+    }
+
+    public JasminClass addMethod(JasminMethod method) {
+        methods.add(method);
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the major class file version, such as 49 for Java 5 or 52 for Java 8.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public List<JasminField> getFields() {
+        return fields;
+    }
+
+    public List<JasminMethod> getMethods() {
+        return methods;
+    }
+}
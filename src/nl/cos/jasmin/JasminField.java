@@ -0,0 +1,36 @@
+package nl.cos.jasmin;
+
+/**
+ * A private static field of the generated class, used to keep values that are set up once and
+ * then shared by all methods.
+ */
+public class JasminField {
+    private final String name;
+    private final String descriptor;
+    private final boolean isFinal;
+
+    public JasminField(String name, String descriptor, boolean isFinal) {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.isFinal = isFinal;
+    }
+
+    /**
+     * Renders this field as a Jasmin field directive.
+     */
+    public String toJasmin() {
+        return ".field private static " + (isFinal ? "final " : "") + name + " " + descriptor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public boolean isFinal() {
+        return isFinal;
+    }
+}
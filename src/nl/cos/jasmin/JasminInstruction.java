@@ -0,0 +1,403 @@
+package nl.cos.jasmin;
+
+/**
+ * One line of the body of a {@link JasminMethod}: an instruction, a label or a catch block.
+ * Operands are kept as the values they stand for, such as a local variable slot, a branch target
+ * or the owner, name and descriptor of a method, so the class file writer can encode them without
+ * reading any text. {@link #toString()} gives the line in Jasmin notation.
+ */
+public final class JasminInstruction {
+    /**
+     * Start of an ldc operand that loads a handle to a static method straight from the constant
+     * pool, such as <code>MethodHandle invokestatic Foo/bar(I)V</code>. Jasmin can not read
+     * these, so they are only written for the bytecode backend.
+     */
+    private static final String STATIC_METHOD_HANDLE = "MethodHandle invokestatic ";
+
+    public enum Kind {
+        INSTRUCTION, LABEL, CATCH
+    }
+
+    /**
+     * The kinds of constant an ldc instruction can load.
+     */
+    public enum ConstantType {
+        INT, FLOAT, STRING, CLASS, METHOD_HANDLE
+    }
+
+    private final Kind kind;
+    private final Opcode opcode;
+    private int value;
+    private int increment;
+    private String label;
+    private String className;
+    private ConstantType constantType;
+    private Object constant;
+    private String literal;
+    private String owner;
+    private String name;
+    private String descriptor;
+    private String[] catchLabels;
+
+    private JasminInstruction(Kind kind, Opcode opcode) {
+        this.kind = kind;
+        this.opcode = opcode;
+    }
+
+    /**
+     * An instruction without an operand, such as <code>iadd</code>.
+     */
+    public static JasminInstruction of(Opcode opcode) {
+        return new JasminInstruction(Kind.INSTRUCTION, expect(opcode, Opcode.Operand.NONE));
+    }
+
+    /**
+     * An instruction with a number as its operand: the value pushed by bipush or sipush, or the
+     * slot of a local variable.
+     */
+    public static JasminInstruction of(Opcode opcode, int value) {
+        Opcode.Operand operand = opcode.getOperand();
+        if (operand != Opcode.Operand.BYTE && operand != Opcode.Operand.SHORT && operand != Opcode.Operand.LOCAL) {
+            throw new IllegalArgumentException(opcode.getMnemonic() + " does not take a number");
+        }
+        JasminInstruction instruction = new JasminInstruction(Kind.INSTRUCTION, opcode);
+        instruction.value = value;
+        return instruction;
+    }
+
+    /**
+     * Adds a constant to an int local variable in place.
+     */
+    public static JasminInstruction increment(int slot, int increment) {
+        JasminInstruction instruction = new JasminInstruction(Kind.INSTRUCTION, Opcode.IINC);
+        instruction.value = slot;
+        instruction.increment = increment;
+        return instruction;
+    }
+
+    /**
+     * A jump to a label, either always or depending on the top of the stack.
+     */
+    public static JasminInstruction jump(Opcode opcode, String label) {
+        JasminInstruction instruction = new JasminInstruction(Kind.INSTRUCTION, expect(opcode, Opcode.Operand.BRANCH));
+        instruction.label = label;
+        return instruction;
+    }
+
+    /**
+     * An instruction that takes a class, such as <code>new java/io/BufferedReader</code>.
+     */
+    public static JasminInstruction type(Opcode opcode, String className) {
+        JasminInstruction instruction = new JasminInstruction(Kind.INSTRUCTION, expect(opcode, Opcode.Operand.CLASS));
+        instruction.className = className;
+        return instruction;
+    }
+
+    /**
+     * Reads or writes a static field.
+     */
+    public static JasminInstruction field(Opcode opcode, String owner, String name, String descriptor) {
+        return member(expect(opcode, Opcode.Operand.FIELD), owner, name, descriptor);
+    }
+
+    /**
+     * Calls a method.
+     */
+    public static JasminInstruction method(Opcode opcode, String owner, String name, String descriptor) {
+        return member(expect(opcode, Opcode.Operand.METHOD), owner, name, descriptor);
+    }
+
+    /**
+     * Pushes an int constant from the constant pool.
+     */
+    public static JasminInstruction ldc(int value) {
+        return constant(ConstantType.INT, value);
+    }
+
+    /**
+     * Pushes a float constant from the constant pool.
+     */
+    public static JasminInstruction ldc(float value) {
+        return constant(ConstantType.FLOAT, value);
+    }
+
+    /**
+     * Pushes a string constant, given as a quoted literal with escape sequences, the way it is
+     * written both in the source code and in Jasmin code.
+     */
+    public static JasminInstruction ldcString(String literal) {
+        JasminInstruction instruction = constant(ConstantType.STRING, unescape(literal));
+        instruction.literal = literal;
+        return instruction;
+    }
+
+    /**
+     * Pushes the Class object of a class.
+     */
+    public static JasminInstruction ldcClass(String className) {
+        return constant(ConstantType.CLASS, className);
+    }
+
+    /**
+     * Pushes a handle to a static method straight from the constant pool. Jasmin can not write
+     * these, so they are only generated for the bytecode backend.
+     */
+    public static JasminInstruction ldcMethodHandle(String owner, String name, String descriptor) {
+        JasminInstruction instruction = constant(ConstantType.METHOD_HANDLE, null);
+        instruction.owner = owner;
+        instruction.name = name;
+        instruction.descriptor = descriptor;
+        return instruction;
+    }
+
+    public static JasminInstruction label(String name) {
+        JasminInstruction instruction = new JasminInstruction(Kind.LABEL, null);
+        instruction.label = name;
+        return instruction;
+    }
+
+    /**
+     * Catches exceptions of a type, or of any type if the type is null, that are thrown between
+     * the start and the end label, and continues at the handler label.
+     */
+    public static JasminInstruction catchBlock(String type, String start, String end, String handler) {
+        JasminInstruction instruction = new JasminInstruction(Kind.CATCH, null);
+        instruction.className = type;
+        instruction.catchLabels = new String[] {start, end, handler};
+        return instruction;
+    }
+
+    private static JasminInstruction member(Opcode opcode, String owner, String name, String descriptor) {
+        JasminInstruction instruction = new JasminInstruction(Kind.INSTRUCTION, opcode);
+        instruction.owner = owner;
+        instruction.name = name;
+        instruction.descriptor = descriptor;
+        return instruction;
+    }
+
+    private static JasminInstruction constant(ConstantType type, Object value) {
+        JasminInstruction instruction = new JasminInstruction(Kind.INSTRUCTION, Opcode.LDC);
+        instruction.constantType = type;
+        instruction.constant = value;
+        return instruction;
+    }
+
+    private static Opcode expect(Opcode opcode, Opcode.Operand operand) {
+        if (opcode.getOperand() != operand) {
+            throw new IllegalArgumentException(opcode.getMnemonic() + " does not take a " + operand.name().toLowerCase() + " operand");
+        }
+        return opcode;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isInstruction() {
+        return kind == Kind.INSTRUCTION;
+    }
+
+    public boolean isLabel() {
+        return kind == Kind.LABEL;
+    }
+
+    /**
+     * Returns the opcode of an instruction, or null for labels and catch blocks.
+     */
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the number operand: the value of bipush and sipush, or the local variable slot of
+     * loads, stores and iinc.
+     */
+    public int getValue() {
+        return value;
+    }
+
+    public int getIncrement() {
+        return increment;
+    }
+
+    /**
+     * Returns the name of a label, or the target of a jump.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the class of new and checkcast, the class an ldc loads, or the type a catch block
+     * catches (null for any type).
+     */
+    public String getClassName() {
+        return constantType == ConstantType.CLASS ? (String) constant : className;
+    }
+
+    public ConstantType getConstantType() {
+        return constantType;
+    }
+
+    /**
+     * Returns the Integer, Float or String an ldc loads.
+     */
+    public Object getConstant() {
+        return constant;
+    }
+
+    /**
+     * Returns the class of a field, a method or a method handle.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public String getCatchStart() {
+        return catchLabels[0];
+    }
+
+    public String getCatchEnd() {
+        return catchLabels[1];
+    }
+
+    public String getCatchHandler() {
+        return catchLabels[2];
+    }
+
+    /**
+     * Returns the value if this instruction pushes a constant int, such as <code>iconst_2</code>,
+     * <code>bipush 100</code> or <code>ldc 70000</code>, or null otherwise.
+     */
+    public Integer getIntConstant() {
+        if (!isInstruction()) return null;
+        switch (opcode) {
+            case ICONST_M1:
+            case ICONST_0:
+            case ICONST_1:
+            case ICONST_2:
+            case ICONST_3:
+            case ICONST_4:
+            case ICONST_5:
+                return opcode.getCode() - Opcode.ICONST_0.getCode();
+            case BIPUSH:
+            case SIPUSH:
+                return value;
+            case LDC:
+            case LDC_W:
+                return constantType == ConstantType.INT ? (Integer) constant : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns true if this line jumps to, or otherwise refers to, the label.
+     */
+    public boolean uses(String label) {
+        if (kind == Kind.CATCH) {
+            for (String catchLabel : catchLabels) {
+                if (catchLabel.equals(label)) return true;
+            }
+            return false;
+        }
+        return isInstruction() && opcode.getOperand() == Opcode.Operand.BRANCH && this.label.equals(label);
+    }
+
+    /**
+     * Returns the line in Jasmin notation, such as <code>iinc 2 1</code> or <code>LOOP:</code>.
+     */
+    @Override
+    public String toString() {
+        switch (kind) {
+            case LABEL:
+                return label + ":";
+            case CATCH:
+                return ".catch " + (className == null ? "all" : className) + " from " + catchLabels[0]
+                        + " to " + catchLabels[1] + " using " + catchLabels[2];
+            default:
+                return opcode.getMnemonic() + operandText();
+        }
+    }
+
+    private String operandText() {
+        switch (opcode.getOperand()) {
+            case BYTE:
+            case SHORT:
+            case LOCAL:
+                return " " + value;
+            case IINC:
+                return " " + value + " " + increment;
+            case BRANCH:
+                return " " + label;
+            case CLASS:
+                return " " + className;
+            case FIELD:
+                return " " + owner + "/" + name + " " + descriptor;
+            case METHOD:
+                return " " + owner + "/" + name + descriptor;
+            case CONSTANT:
+                switch (constantType) {
+                    case STRING:
+                        return " " + literal;
+                    case METHOD_HANDLE:
+                        return " " + STATIC_METHOD_HANDLE + owner + "/" + name + descriptor;
+                    default:
+                        return " " + constant;
+                }
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Strips the quotes of a string literal and resolves its escape sequences, the same way
+     * Jasmin reads string constants.
+     */
+    static String unescape(String quoted) {
+        String body = quoted.substring(1, quoted.endsWith("\"") && quoted.length() > 1 ? quoted.length() - 1 : quoted.length());
+        StringBuilder result = new StringBuilder(body.length());
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c != '\\' || i + 1 >= body.length()) {
+                result.append(c);
+                continue;
+            }
+
+            char escaped = body.charAt(++i);
+            switch (escaped) {
+                case 'n': result.append('\n'); break;
+                case 't': result.append('\t'); break;
+                case 'r': result.append('\r'); break;
+                case 'b': result.append('\b'); break;
+                case 'f': result.append('\f'); break;
+                case 'u':
+                    if (i + 5 <= body.length() && body.substring(i + 1, i + 5).matches("[0-9a-fA-F]{4}")) {
+                        result.append((char) Integer.parseInt(body.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    } else {
+                        result.append(escaped);
+                    }
+                    break;
+                default:
+                    if (escaped >= '0' && escaped <= '7') {
+                        int end = i;
+                        while (end < body.length() && end < i + 3 && body.charAt(end) >= '0' && body.charAt(end) <= '7') end++;
+                        result.append((char) Integer.parseInt(body.substring(i, end), 8));
+                        i = end - 1;
+                    } else {
+                        result.append(escaped);
+                    }
+            }
+        }
+        return result.toString();
+    }
+}
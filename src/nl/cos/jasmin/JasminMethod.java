@@ -0,0 +1,73 @@
+package nl.cos.jasmin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single static method of the generated class: its name, its descriptor and the instructions
+ * of its body. The instructions keep their operands as values, so that they can either be written
+ * out as Jasmin text or encoded straight into a class file.
+ */
+public class JasminMethod {
+    private final String name;
+    private final String descriptor;
+    private final List<JasminInstruction> instructions;
+    private int maxStack;
+    private int maxLocals;
+
+    public JasminMethod(String name, String descriptor) {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.instructions = new ArrayList<>();
+        this.maxStack = 99;
+        this.maxLocals = 99;
+    }
+
+    public JasminMethod add(JasminInstruction instruction) {
+        instructions.add(instruction);
+        return this;
+    }
+
+    public JasminMethod addAll(List<JasminInstruction> instructions) {
+        this.instructions.addAll(instructions);
+        return this;
+    }
+
+    /**
+     * Renders this method as Jasmin code, including the method header and its limits.
+     */
+    public List<String> toJasmin() {
+        List<String> lines = new ArrayList<>();
+        lines.add(".method public static " + name + descriptor);
+        lines.add(".limit stack " + maxStack);
+        lines.add(".limit locals " + maxLocals);
+        for (JasminInstruction instruction : instructions) lines.add(instruction.toString());
+        lines.add(".end method");
+        return lines;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public List<JasminInstruction> getInstructions() {
+        return instructions;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    public void setLimits(int maxStack, int maxLocals) {
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+    }
+}
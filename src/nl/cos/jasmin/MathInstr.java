@@ -5,7 +5,11 @@ public enum MathInstr {
     SUB("sub"),
     MUL("mul"),
     DIV("div"),
-    REM("rem");
+    REM("rem"),
+    SHL("shl"),
+    SHR("shr"),
+    USHR("ushr"),
+    AND("and");
 
     private final String code;
 
@@ -16,5 +20,12 @@ public enum MathInstr {
     public String getCode() {
         return code;
     }
+
+    /**
+     * Returns the instruction that does this math on values of a type, such as iadd.
+     */
+    public Opcode forType(DataType type) {
+        return Opcode.forMnemonic(type.getMnemonic() + code);
+    }
 }
 
@@ -0,0 +1,159 @@
+package nl.cos.jasmin;
+
+import java.util.HashMap;
+
+/**
+ * The JVM instructions that the code generator can emit, keyed by their Jasmin mnemonic.
+ */
+public enum Opcode {
+    NOP("nop", 0x00, Operand.NONE, 0),
+    ACONST_NULL("aconst_null", 0x01, Operand.NONE, 1),
+    ICONST_M1("iconst_m1", 0x02, Operand.NONE, 1),
+    ICONST_0("iconst_0", 0x03, Operand.NONE, 1),
+    ICONST_1("iconst_1", 0x04, Operand.NONE, 1),
+    ICONST_2("iconst_2", 0x05, Operand.NONE, 1),
+    ICONST_3("iconst_3", 0x06, Operand.NONE, 1),
+    ICONST_4("iconst_4", 0x07, Operand.NONE, 1),
+    ICONST_5("iconst_5", 0x08, Operand.NONE, 1),
+    FCONST_0("fconst_0", 0x0b, Operand.NONE, 1),
+    FCONST_1("fconst_1", 0x0c, Operand.NONE, 1),
+    FCONST_2("fconst_2", 0x0d, Operand.NONE, 1),
+    BIPUSH("bipush", 0x10, Operand.BYTE, 1),
+    SIPUSH("sipush", 0x11, Operand.SHORT, 1),
+    LDC("ldc", 0x12, Operand.CONSTANT, 1),
+    LDC_W("ldc_w", 0x13, Operand.CONSTANT, 1),
+    ILOAD("iload", 0x15, Operand.LOCAL, 1),
+    FLOAD("fload", 0x17, Operand.LOCAL, 1),
+    ALOAD("aload", 0x19, Operand.LOCAL, 1),
+    ISTORE("istore", 0x36, Operand.LOCAL, -1),
+    FSTORE("fstore", 0x38, Operand.LOCAL, -1),
+    ASTORE("astore", 0x3a, Operand.LOCAL, -1),
+    CASTORE("castore", 0x55, Operand.NONE, -3),
+    POP("pop", 0x57, Operand.NONE, -1),
+    DUP("dup", 0x59, Operand.NONE, 1),
+    DUP_X1("dup_x1", 0x5a, Operand.NONE, 1),
+    SWAP("swap", 0x5f, Operand.NONE, 0),
+    IADD("iadd", 0x60, Operand.NONE, -1),
+    FADD("fadd", 0x62, Operand.NONE, -1),
+    ISUB("isub", 0x64, Operand.NONE, -1),
+    FSUB("fsub", 0x66, Operand.NONE, -1),
+    IMUL("imul", 0x68, Operand.NONE, -1),
+    FMUL("fmul", 0x6a, Operand.NONE, -1),
+    IDIV("idiv", 0x6c, Operand.NONE, -1),
+    FDIV("fdiv", 0x6e, Operand.NONE, -1),
+    IREM("irem", 0x70, Operand.NONE, -1),
+    FREM("frem", 0x72, Operand.NONE, -1),
+    INEG("ineg", 0x74, Operand.NONE, 0),
+    FNEG("fneg", 0x76, Operand.NONE, 0),
+    ISHL("ishl", 0x78, Operand.NONE, -1),
+    ISHR("ishr", 0x7a, Operand.NONE, -1),
+    IUSHR("iushr", 0x7c, Operand.NONE, -1),
+    IAND("iand", 0x7e, Operand.NONE, -1),
+    IOR("ior", 0x80, Operand.NONE, -1),
+    IXOR("ixor", 0x82, Operand.NONE, -1),
+    IINC("iinc", 0x84, Operand.IINC, 0),
+    FCMPL("fcmpl", 0x95, Operand.NONE, -1),
+    FCMPG("fcmpg", 0x96, Operand.NONE, -1),
+    IFEQ("ifeq", 0x99, Operand.BRANCH, -1),
+    IFNE("ifne", 0x9a, Operand.BRANCH, -1),
+    IFLT("iflt", 0x9b, Operand.BRANCH, -1),
+    IFGE("ifge", 0x9c, Operand.BRANCH, -1),
+    IFGT("ifgt", 0x9d, Operand.BRANCH, -1),
+    IFLE("ifle", 0x9e, Operand.BRANCH, -1),
+    IF_ICMPEQ("if_icmpeq", 0x9f, Operand.BRANCH, -2),
+    IF_ICMPNE("if_icmpne", 0xa0, Operand.BRANCH, -2),
+    IF_ICMPLT("if_icmplt", 0xa1, Operand.BRANCH, -2),
+    IF_ICMPGE("if_icmpge", 0xa2, Operand.BRANCH, -2),
+    IF_ICMPGT("if_icmpgt", 0xa3, Operand.BRANCH, -2),
+    IF_ICMPLE("if_icmple", 0xa4, Operand.BRANCH, -2),
+    IF_ACMPEQ("if_acmpeq", 0xa5, Operand.BRANCH, -2),
+    IF_ACMPNE("if_acmpne", 0xa6, Operand.BRANCH, -2),
+    GOTO("goto", 0xa7, Operand.BRANCH, 0),
+    IRETURN("ireturn", 0xac, Operand.NONE, -1),
+    FRETURN("freturn", 0xae, Operand.NONE, -1),
+    ARETURN("areturn", 0xb0, Operand.NONE, -1),
+    RETURN("return", 0xb1, Operand.NONE, 0),
+    GETSTATIC("getstatic", 0xb2, Operand.FIELD, 0),
+    PUTSTATIC("putstatic", 0xb3, Operand.FIELD, 0),
+    INVOKEVIRTUAL("invokevirtual", 0xb6, Operand.METHOD, 0),
+    INVOKESPECIAL("invokespecial", 0xb7, Operand.METHOD, 0),
+    INVOKENONVIRTUAL("invokenonvirtual", 0xb7, Operand.METHOD, 0),
+    INVOKESTATIC("invokestatic", 0xb8, Operand.METHOD, 0),
+    NEW("new", 0xbb, Operand.CLASS, 1),
+    ATHROW("athrow", 0xbf, Operand.NONE, -1),
+    CHECKCAST("checkcast", 0xc0, Operand.CLASS, 0),
+    IFNULL("ifnull", 0xc6, Operand.BRANCH, -1),
+    IFNONNULL("ifnonnull", 0xc7, Operand.BRANCH, -1);
+
+    /**
+     * The kind of operand an instruction takes in Jasmin notation.
+     */
+    public enum Operand {
+        NONE, BYTE, SHORT, CONSTANT, LOCAL, IINC, BRANCH, FIELD, METHOD, CLASS
+    }
+
+    private static final HashMap<String, Opcode> BY_MNEMONIC = new HashMap<>();
+
+    static {
+        for (Opcode opcode : values()) BY_MNEMONIC.put(opcode.mnemonic, opcode);
+    }
+
+    private final String mnemonic;
+    private final int code;
+    private final Operand operand;
+    private final int stackDelta;
+
+    Opcode(String mnemonic, int code, Operand operand, int stackDelta) {
+        this.mnemonic = mnemonic;
+        this.code = code;
+        this.operand = operand;
+        this.stackDelta = stackDelta;
+    }
+
+    /**
+     * Looks up an instruction by its Jasmin mnemonic.
+     *
+     * @return The instruction, or null if the mnemonic is unknown
+     */
+    public static Opcode forMnemonic(String mnemonic) {
+        return BY_MNEMONIC.get(mnemonic);
+    }
+
+    public String getMnemonic() {
+        return mnemonic;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public Operand getOperand() {
+        return operand;
+    }
+
+    /**
+     * Returns how many words this instruction adds to (or removes from) the operand stack. For
+     * field and method instructions this depends on the descriptor in the operand, so those
+     * return 0 here.
+     */
+    public int getStackDelta() {
+        return stackDelta;
+    }
+
+    /**
+     * Returns true if execution never continues with the next instruction.
+     */
+    public boolean endsFlow() {
+        switch (this) {
+            case GOTO:
+            case IRETURN:
+            case FRETURN:
+            case ARETURN:
+            case RETURN:
+            case ATHROW:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
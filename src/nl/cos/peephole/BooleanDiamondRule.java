@@ -0,0 +1,60 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.Opcode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Removes a boolean that is pushed by a diamond only to be tested right away:
+ * <pre>
+ *     iconst_0
+ *     goto END
+ *     TRUE:
+ *     iconst_1
+ *     END:
+ *     ifne TARGET
+ * </pre>
+ * The false path then jumps past the test, and the true path jumps straight to the target (or
+ * the other way around for ifeq). This only happens when END is not used anywhere else.
+ */
+public final class BooleanDiamondRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "boolean diamond";
+    }
+
+    @Override
+    public boolean apply(List<JasminInstruction> code, int index) {
+        if (index + 5 >= code.size()) return false;
+        if (code.get(index).getOpcode() != Opcode.ICONST_0
+                || code.get(index + 1).getOpcode() != Opcode.GOTO
+                || !code.get(index + 2).isLabel()
+                || code.get(index + 3).getOpcode() != Opcode.ICONST_1
+                || !code.get(index + 4).isLabel()) return false;
+
+        String end = code.get(index + 4).getLabel();
+        Opcode test = code.get(index + 5).getOpcode();
+        if (!code.get(index + 1).getLabel().equals(end) || countUses(code, end) != 1) return false;
+        if (test != Opcode.IFNE && test != Opcode.IFEQ) return false;
+
+        String target = code.get(index + 5).getLabel();
+        JasminInstruction labelTrue = code.get(index + 2);
+        List<JasminInstruction> replacement = test == Opcode.IFNE
+                ? Arrays.asList(JasminInstruction.jump(Opcode.GOTO, end), labelTrue,
+                        JasminInstruction.jump(Opcode.GOTO, target), JasminInstruction.label(end))
+                : Arrays.asList(JasminInstruction.jump(Opcode.GOTO, target), labelTrue);
+        code.subList(index, index + 6).clear();
+        code.addAll(index, replacement);
+        return true;
+    }
+
+    private static int countUses(List<JasminInstruction> code, String label) {
+        int uses = 0;
+        for (JasminInstruction instruction : code) {
+            if (instruction.uses(label)) uses++;
+        }
+        return uses;
+    }
+}
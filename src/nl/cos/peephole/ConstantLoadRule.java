@@ -0,0 +1,52 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.Opcode;
+
+import java.util.List;
+
+/**
+ * Replaces an ldc of a small constant with the instruction that pushes it without a constant
+ * pool entry: iconst_m1 to iconst_5, bipush, sipush, or fconst_0 to fconst_2.
+ */
+public final class ConstantLoadRule implements PeepholeRule {
+    private static final Opcode[] INT_CONSTANTS = {
+            Opcode.ICONST_M1, Opcode.ICONST_0, Opcode.ICONST_1, Opcode.ICONST_2, Opcode.ICONST_3, Opcode.ICONST_4, Opcode.ICONST_5};
+    private static final Opcode[] FLOAT_CONSTANTS = {Opcode.FCONST_0, Opcode.FCONST_1, Opcode.FCONST_2};
+
+    @Override
+    public String getName() {
+        return "constant load";
+    }
+
+    @Override
+    public boolean apply(List<JasminInstruction> code, int index) {
+        JasminInstruction instruction = code.get(index);
+        if (instruction.getOpcode() != Opcode.LDC) return false;
+        JasminInstruction replacement = replacement(instruction);
+        if (replacement == null) return false;
+        code.set(index, replacement);
+        return true;
+    }
+
+    private static JasminInstruction replacement(JasminInstruction ldc) {
+        switch (ldc.getConstantType()) {
+            case FLOAT:
+                //Compare the bits, so that -0.0 keeps its ldc
+                int bits = Float.floatToIntBits((Float) ldc.getConstant());
+                for (int i = 0; i < FLOAT_CONSTANTS.length; i++) {
+                    if (bits == Float.floatToIntBits(i)) return JasminInstruction.of(FLOAT_CONSTANTS[i]);
+                }
+                return null;
+            case INT:
+                int value = (Integer) ldc.getConstant();
+                if (value >= -1 && value <= 5) return JasminInstruction.of(INT_CONSTANTS[value + 1]);
+                if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) return JasminInstruction.of(Opcode.BIPUSH, value);
+                if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) return JasminInstruction.of(Opcode.SIPUSH, value);
+                return null;
+            default:
+                //Strings, classes and method handles are loaded with ldc as well
+                return null;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.Opcode;
+
+import java.util.List;
+
+/**
+ * Removes a goto to a label that directly follows it, possibly among other labels.
+ */
+public final class GotoNextLabelRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "goto next label";
+    }
+
+    @Override
+    public boolean apply(List<JasminInstruction> code, int index) {
+        if (code.get(index).getOpcode() != Opcode.GOTO) return false;
+        String target = code.get(index).getLabel();
+        for (int i = index + 1; i < code.size() && code.get(i).isLabel(); i++) {
+            if (code.get(i).getLabel().equals(target)) {
+                code.remove(index);
+                return true;
+            }
+        }
+        return false;
+    }
+}
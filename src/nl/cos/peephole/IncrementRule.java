@@ -0,0 +1,45 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.Opcode;
+
+import java.util.List;
+
+/**
+ * Turns adding a constant to an int local, or subtracting one from it, into a single iinc:
+ * <code>iload n; ldc c; iadd; istore n</code> becomes <code>iinc n c</code>. The constant may
+ * also come first when it is added.
+ */
+public final class IncrementRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "increment";
+    }
+
+    @Override
+    public boolean apply(List<JasminInstruction> code, int index) {
+        if (index + 3 >= code.size()) return false;
+        Opcode math = code.get(index + 2).getOpcode();
+        JasminInstruction store = code.get(index + 3);
+        if ((math != Opcode.IADD && math != Opcode.ISUB) || store.getOpcode() != Opcode.ISTORE) return false;
+
+        int slot = store.getValue();
+        Integer constant;
+        if (isLoad(code.get(index), slot)) constant = code.get(index + 1).getIntConstant();
+        else if (math == Opcode.IADD && isLoad(code.get(index + 1), slot)) constant = code.get(index).getIntConstant();
+        else return false;
+        if (constant == null) return false;
+
+        //iinc takes a signed 16 bit increment at most
+        long increment = math == Opcode.IADD ? constant : -(long) constant;
+        if (increment < Short.MIN_VALUE || increment > Short.MAX_VALUE) return false;
+
+        code.subList(index + 1, index + 4).clear();
+        code.set(index, JasminInstruction.increment(slot, (int) increment));
+        return true;
+    }
+
+    private static boolean isLoad(JasminInstruction instruction, int slot) {
+        return instruction.getOpcode() == Opcode.ILOAD && instruction.getValue() == slot;
+    }
+}
@@ -0,0 +1,75 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cleans up the generated code of a method by applying a set of {@link PeepholeRule}s until none
+ * of them matches anymore. Every rewrite is counted per rule, over all methods this optimizer
+ * has seen, so the counters show what the rules saved on a whole set of programs.
+ */
+public class PeepholeOptimizer {
+    private final List<PeepholeRule> rules;
+    private final LinkedHashMap<String, Integer> hits;
+
+    public PeepholeOptimizer(List<PeepholeRule> rules) {
+        this.rules = new ArrayList<>(rules);
+        this.hits = new LinkedHashMap<>();
+        for (PeepholeRule rule : rules) hits.put(rule.getName(), 0);
+    }
+
+    /**
+     * Returns an optimizer with all rules in this package.
+     */
+    public static PeepholeOptimizer withDefaultRules() {
+        return new PeepholeOptimizer(Arrays.asList(
+                new GotoNextLabelRule(),
+                new IncrementRule(),
+                new StoreLoadRule(),
+                new ConstantLoadRule(),
+                new BooleanDiamondRule()));
+    }
+
+    public void optimize(JasminMethod method) {
+        List<JasminInstruction> code = method.getInstructions();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < code.size(); i++) {
+                for (PeepholeRule rule : rules) {
+                    if (i < code.size() && rule.apply(code, i)) {
+                        recordHit(rule);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void recordHit(PeepholeRule rule) {
+        hits.merge(rule.getName(), 1, Integer::sum);
+    }
+
+    /**
+     * Describes the rules with their settings, in the order they are applied.
+     */
+    public List<String> describe() {
+        List<String> descriptions = new ArrayList<>();
+        for (PeepholeRule rule : rules) descriptions.add(rule.describe());
+        return descriptions;
+    }
+
+    /**
+     * Returns how often every rule rewrote the code, in the order the rules are applied.
+     */
+    public synchronized Map<String, Integer> getHits() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(hits));
+    }
+}
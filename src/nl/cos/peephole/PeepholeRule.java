@@ -0,0 +1,35 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+
+import java.util.List;
+
+/**
+ * A local rewrite of the generated code of a method. A rule looks at a few instructions starting
+ * at an index and, if they match its pattern, replaces them with shorter or cheaper code that
+ * does the same thing.
+ */
+public interface PeepholeRule {
+    /**
+     * Returns the name the hits of this rule are counted under.
+     */
+    String getName();
+
+    /**
+     * Describes this rule and its settings, for the key of a cached class. Rules with settings
+     * that change the code they produce have to include them.
+     */
+    default String describe() {
+        return getName();
+    }
+
+    /**
+     * Rewrites the code at the index if it matches this rule. A rewrite must make the code
+     * strictly better, so that applying rules over and over again always comes to an end.
+     *
+     * @param code   The instructions of the method, which the rule may change in place
+     * @param index  The instruction the pattern has to start at
+     * @return       True if the code was changed
+     */
+    boolean apply(List<JasminInstruction> code, int index);
+}
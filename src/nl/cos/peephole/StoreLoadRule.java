@@ -0,0 +1,35 @@
+package nl.cos.peephole;
+
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.Opcode;
+
+import java.util.List;
+
+/**
+ * Turns a store that is directly followed by a load of the same slot into a dup and the store,
+ * so the value is not read back from the local it was just written to.
+ */
+public final class StoreLoadRule implements PeepholeRule {
+    @Override
+    public String getName() {
+        return "store then load";
+    }
+
+    @Override
+    public boolean apply(List<JasminInstruction> code, int index) {
+        if (index + 1 >= code.size()) return false;
+        JasminInstruction store = code.get(index);
+        JasminInstruction load = code.get(index + 1);
+        if (!isPair(store.getOpcode(), load.getOpcode()) || store.getValue() != load.getValue()) return false;
+
+        code.set(index + 1, store);
+        code.set(index, JasminInstruction.of(Opcode.DUP));
+        return true;
+    }
+
+    private static boolean isPair(Opcode store, Opcode load) {
+        return store == Opcode.ISTORE && load == Opcode.ILOAD
+                || store == Opcode.FSTORE && load == Opcode.FLOAD
+                || store == Opcode.ASTORE && load == Opcode.ALOAD;
+    }
+}
@@ -6,17 +6,17 @@ import nl.cos.typing.symbols.*;
 
 import javax.xml.crypto.Data;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 public class SymbolTable {
     private int lastUsedIndex;
     private SymbolTable parentScope;
     private final boolean isFunctionScope;
-    private final HashMap<String, Symbol> symbolTable;
+    private final LinkedHashMap<String, Symbol> symbolTable;
 
     public SymbolTable(int offset, boolean isFunctionScope) {
-        symbolTable = new HashMap<>();
+        symbolTable = new LinkedHashMap<>();
         this.lastUsedIndex = offset;
         this.isFunctionScope = isFunctionScope;
     }
@@ -49,10 +49,19 @@ public class SymbolTable {
         this.symbolTable.put(name, new FunctionSymbol(name, ++lastUsedIndex, returnType, params));
     }
 
+    /**
+     * Lets a function call itself by the name of the variable it is assigned to, unless a
+     * parameter has the same name.
+     */
+    public void addSelfFunction(String name, DataType returnType, DataType[] params){
+        if(lookup(name) != null) return;
+        this.symbolTable.put(name, new SelfFunctionSymbol(name, returnType, params));
+    }
+
     public void updateFunctionDeclaration(String name, DataType returnType, DataType[] params){
         FunctionSymbol s = (FunctionSymbol) lookup(name);
         if(s == null) throw new CompilerException("Function variable '" + name + "' does not exist in the current scope!");
-        this.symbolTable.replace(name, new FunctionSymbol(name, s.getIndex(), returnType, params));
+        s.setSignature(returnType, params);
     }
 
     public Symbol lookup(String name){
@@ -63,8 +72,16 @@ public class SymbolTable {
         }else return this.symbolTable.get(name);
     }
 
+    /**
+     * Returns the symbols of this scope, leaving out the function itself, so that the symbols of
+     * a function scope are exactly its parameters.
+     */
     public ArrayList<Symbol> getCurrentScopeSymbols(){
-        return new ArrayList<>(symbolTable.values());
+        ArrayList<Symbol> symbols = new ArrayList<>();
+        for (Symbol symbol : symbolTable.values()) {
+            if (!(symbol instanceof SelfFunctionSymbol)) symbols.add(symbol);
+        }
+        return symbols;
     }
 
     public SymbolTable newFunctionScope() {
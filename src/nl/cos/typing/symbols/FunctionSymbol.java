@@ -3,8 +3,8 @@ package nl.cos.typing.symbols;
 import nl.cos.jasmin.DataType;
 
 public class FunctionSymbol extends VariableSymbol implements FunctionSymbolInterface{
-    private final DataType returnType;
-    private final DataType[] params;
+    private DataType returnType;
+    private DataType[] params;
 
     public FunctionSymbol(String name, int index, DataType returnType, DataType[] params) {
         super(name, index, DataType.FUNCTION);
@@ -19,4 +19,9 @@ public class FunctionSymbol extends VariableSymbol implements FunctionSymbolInte
     public DataType[] getParams() {
         return params;
     }
+
+    public void setSignature(DataType returnType, DataType[] params) {
+        this.returnType = returnType;
+        this.params = params;
+    }
 }
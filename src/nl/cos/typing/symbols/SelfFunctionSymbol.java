@@ -0,0 +1,14 @@
+package nl.cos.typing.symbols;
+
+import nl.cos.jasmin.DataType;
+
+/**
+ * The function a function literal is assigned to, as seen from inside its own code block, so that
+ * the function can call itself. It always means the function that is being defined, and does not
+ * take a local variable slot.
+ */
+public class SelfFunctionSymbol extends FunctionSymbol {
+    public SelfFunctionSymbol(String name, DataType returnType, DataType[] params) {
+        super(name, -1, returnType, params);
+    }
+}
@@ -1,11 +1,52 @@
 package nl.cos;
 
+import nl.cos.exceptions.AssembleException;
 import nl.cos.exceptions.CompilerException;
+import nl.cos.io.AssembledClass;
+import nl.cos.io.CompilationCache;
 import nl.cos.io.JasminBytecode;
+import nl.cos.jasmin.JasminInstruction;
+import nl.cos.jasmin.JasminMethod;
+import nl.cos.ir.BasicBlock;
+import nl.cos.ir.Comparison;
+import nl.cos.ir.Constant;
+import nl.cos.ir.Inlining;
+import nl.cos.ir.Instruction;
+import nl.cos.ir.IrFunction;
+import nl.cos.ir.IrOptimizer;
+import nl.cos.ir.IrProgram;
+import nl.cos.ir.LoopInvariantCodeMotion;
+import nl.cos.ir.Opcode;
+import nl.cos.ir.Register;
+import nl.cos.ir.SlotAllocator;
+import nl.cos.jasmin.DataType;
+import nl.cos.peephole.BooleanDiamondRule;
+import nl.cos.peephole.GotoNextLabelRule;
+import nl.cos.peephole.PeepholeOptimizer;
+import nl.cos.peephole.PeepholeRule;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -158,6 +199,35 @@ class CompilerTest extends TestBase {
 		assertArrayEquals(new String[] {"17"}, output.toArray());
 	}
 
+	@Test
+	@DisplayName("GoodWeather - Operators of the same precedence are left associative")
+	void checkOperatorAssociativity() throws Exception {
+		String source = "a:num<-10;b:num<-3;c:num<-2;" +
+				"$()<-a-b+c;$()<-a/c*b;$()<-a%b*c;$()<-10-3+2;$()<-8/4*2;$()<-7%4*2;" +
+				"$()<-a>b&&c<b;$()<-val||ival&&ival;$()<-~ival&&ival;$()<-a<b==c<b;$()<-a-b*c<=b+c~=ival;";
+		String[] expected = {"9", "15", "2", "9", "4", "6", "true", "true", "true", "false", "true"};
+		CompilerOptions[] configurations = {
+				new CompilerOptions(),
+				new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52),
+				new CompilerOptions().setIrOptimizer(IrOptimizer.withDefaultPasses())
+		};
+		for (CompilerOptions options : configurations) {
+			AssembledClass aClass = new Compiler(options).compileStringToClass(source, "ArcTest");
+			assertArrayEquals(expected, runClass(aClass).toArray());
+		}
+	}
+
+	@Test
+	@DisplayName("BadWeather - Not negates the whole comparison after it, not just the number")
+	void checkNotBeforeComparison() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileString("n:num<-3;is(~ n > 5)->yes{$()<-\"small\";}$()<-~n>5||ival;$()<-(~ival)&&ival;", "ArcTest");
+		assertArrayEquals(new String[]{"small", "true", "false"}, runCode(code).toArray());
+
+		Exception e = assertThrows(CompilerException.class, () -> c.compileString("n:num<-3;$()<-(~n)>5;", "ArcTest"));
+		assertEquals("Can only do NOT operation on a boolean!", e.getMessage());
+	}
+
 	@Test
 	@DisplayName("GoodWeather - Float addition")
 	void checkFloatAddition() throws Exception {
@@ -600,8 +670,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 3",
 				"ldc 0",
 				"istore 2",
 				"return",
@@ -623,8 +693,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 3",
 				"ldc 0.0",
 				"fstore 2",
 				"return",
@@ -646,8 +716,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 3",
 				"aconst_null",
 				"astore 2",
 				"return",
@@ -669,8 +739,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 3",
 				"ldc 0",
 				"istore 2",
 				"return",
@@ -692,8 +762,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 4",
 				"aconst_null",
 				"astore 2",
 				"ldc 0",
@@ -728,8 +798,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 3",
 				"ldc 2.3",
 				"fstore 2",
 				"return",
@@ -773,8 +843,8 @@ class CompilerTest extends TestBase {
 				".super java/lang/Object",
 				"",
 				".method public static main([Ljava/lang/String;)V",
-				".limit stack 99",
-				".limit locals 99",
+				".limit stack 1",
+				".limit locals 3",
 				"ldc 0",
 				"istore 2",
 				"ldc 6",
@@ -1005,6 +1075,160 @@ class CompilerTest extends TestBase {
 		assertArrayEquals(new String[]{"7","3","10"}, output.toArray());
 	}
 
+	@Test
+	@DisplayName("GoodWeather - Known function is called directly")
+	void checkKnownFunctionCalledDirectly() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileString("f:func<-(n:num):num=>{()<-n+1;};$()<-@f(4);", "ArcTest");
+		assertNotNull(code);
+
+		assertTrue(code.getLines().contains("invokestatic ArcTest/f(I)I"));
+		for( String line : code.getLines() ) {
+			assertFalse(line.contains("MethodHandle"), line);
+		}
+
+		List<String> output = runCode(code);
+		assertArrayEquals(new String[]{"5"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Function passed as value keeps its handle")
+	void checkPassedFunctionKeepsHandle() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileString("add:func <- (n1:num,n2:num,callBack:func[num,num]#nil):num => {@callBack(n1,n2);()<-n1+n2;};printer:func <- (n1:num,n2:num):nil => {$()<-n1;$()<-n2;};@printer(1,2);$()<-@add(7,3,printer);", "ArcTest");
+		assertNotNull(code);
+
+		assertTrue(code.getLines().contains("invokestatic ArcTest/printer(II)V"));
+		assertTrue(code.getLines().contains("invokevirtual java/lang/invoke/MethodHandle/invoke(II)V"));
+
+		List<String> output = runCode(code);
+		assertArrayEquals(new String[]{"1","2","7","3","10"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Method handles are looked up once")
+	void checkMethodHandleLookedUpOnce() throws Exception {
+		Compiler c = new Compiler();
+		String source = "f:func; i:num<-0; rep(i<3){ f <- (n:num):nil => {$()<-n;}; @f(i); i<-i+1;}";
+		JasminBytecode code = c.compileString(source, "ArcTest");
+		assertNotNull(code);
+
+		List<String> lines = code.getLines();
+		assertTrue(lines.contains(".field private static final f$handle Ljava/lang/invoke/MethodHandle;"));
+		assertTrue(lines.contains("getstatic ArcTest/f$handle Ljava/lang/invoke/MethodHandle;"));
+		assertTrue(lines.contains("putstatic ArcTest/f$handle Ljava/lang/invoke/MethodHandle;"));
+		int lookups = 0;
+		for( String line : lines ) {
+			if( line.contains("findStatic") ) lookups++;
+		}
+		assertEquals(1, lookups);
+		assertArrayEquals(new String[]{"0","1","2"}, runCode(code).toArray());
+
+		AssembledClass aClass = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE))
+				.compileStringToClass(source, "ArcTest");
+		assertArrayEquals(new String[]{"0","1","2"}, runClass(aClass).toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - System input shares one reader")
+	void checkSystemInputSharesReader() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileFile("docs/Example4.arc", "ArcTest");
+		assertNotNull(code);
+
+		assertTrue(code.getLines().contains("invokestatic ArcTest/arc$readLine()Ljava/lang/String;"));
+		List<String> output = runClass(AssembledClass.assemble(code), "Ada\nLovelace\n");
+		assertArrayEquals(new String[]{"What is your first name?", "What is your last name?", "", "Hello! So, your name is:", "Ada", "Lovelace"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - System input is nil at the end of the input")
+	void checkSystemInputEnd() throws Exception {
+		String source = "a:text; b:text; $() -> a; $() -> b; $() <- a; $() <- b;";
+		JasminBytecode code = new Compiler().compileString(source, "ArcTest");
+		assertNotNull(code);
+		assertArrayEquals(new String[]{"last", "null"}, runClass(AssembledClass.assemble(code), "last").toArray());
+
+		AssembledClass aClass = new Compiler(new CompilerOptions()
+				.setBackend(CompilerOptions.Backend.BYTECODE)
+				.setTargetVersion(52))
+				.compileStringToClass(source, "ArcTest");
+		assertArrayEquals(new String[]{"last", "null"}, runClass(aClass, "last").toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Buffered output prints the same as System.out")
+	void checkBufferedOutput() throws Exception {
+		String source = "a:num<-7;b:frac<-2.5;t:text;$()<-a;$()<-b;$()<-a>3;$()<-a<3;$()<-\"text\";$()<-t;$()<-nil;";
+		String[] expected = new String[]{"7", "2.5", "true", "false", "text", "null", "null"};
+
+		JasminBytecode code = new Compiler(new CompilerOptions().setBufferedOutput(true)).compileString(source, "ArcTest");
+		assertNotNull(code);
+		assertTrue(code.getLines().contains("invokestatic ArcTest/arc$println(I)V"));
+		for( String line : code.getLines() ) {
+			assertFalse(line.startsWith("invokevirtual java/io/PrintStream/println"), line);
+		}
+		assertArrayEquals(expected, runCode(code).toArray());
+
+		Compiler bytecode = new Compiler(new CompilerOptions()
+				.setBackend(CompilerOptions.Backend.BYTECODE)
+				.setTargetVersion(52)
+				.setBufferedOutput(true));
+		assertArrayEquals(expected, runClass(bytecode.compileStringToClass(source, "ArcTest")).toArray());
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example5.arc"}) {
+			List<String> unbuffered = runCode(new Compiler().compileFile(example, "ArcTest"));
+			List<String> output = runClass(bytecode.compileFileToClass(example, "ArcTest"));
+			assertArrayEquals(unbuffered.toArray(), output.toArray(), example);
+		}
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Buffered output writes the digits of a num without making a String")
+	void checkBufferedIntOutput() throws Exception {
+		String source = "$()<-0;$()<-7;$()<- -7;$()<-2147483647;$()<- -2147483648;i:num<-1;rep(i<1000000){$()<-i;$()<-0-i;i<-i*10;}";
+		String[] expected = new String[]{"0", "7", "-7", "2147483647", "-2147483648", "1", "-1", "10", "-10", "100", "-100",
+				"1000", "-1000", "10000", "-10000", "100000", "-100000"};
+
+		JasminBytecode code = new Compiler(new CompilerOptions().setBufferedOutput(true)).compileString(source, "ArcTest");
+		assertNotNull(code);
+		assertFalse(code.getLines().contains("invokestatic java/lang/Integer/toString(I)Ljava/lang/String;"));
+		assertArrayEquals(expected, runCode(code).toArray());
+
+		CompilerOptions[] configurations = {
+				new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setBufferedOutput(true),
+				new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52).setBufferedOutput(true),
+				new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52).setBufferedOutput(true)
+						.setIrOptimizer(IrOptimizer.withDefaultPasses())
+		};
+		for (CompilerOptions options : configurations) {
+			assertArrayEquals(expected, runClass(new Compiler(options).compileStringToClass(source, "ArcTest")).toArray());
+		}
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Buffered output is flushed when the program fails")
+	void checkBufferedOutputFlushedOnException() throws Exception {
+		String source = "a:num;a<-0;$()<-1;$()<-5/a;$()<-2;";
+		for (CompilerOptions.Backend backend : CompilerOptions.Backend.values()) {
+			AssembledClass aClass = new Compiler(new CompilerOptions().setBackend(backend).setBufferedOutput(true))
+					.compileStringToClass(source, "ArcTest");
+			SandBox sandBox = new SandBox();
+			assertThrows(IllegalArgumentException.class, () -> sandBox.runClass(aClass));
+			assertArrayEquals(new String[]{"1"}, sandBox.getOutput().toArray(), backend.name());
+		}
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Function parameters keep their declaration order")
+	void checkFuncParamOrder() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileString("f:func<-(b:num,a:text):nil=>{$()<-a;$()<-b;};@f(1,\"x\");g:func;g<-(b:num,a:text):nil=>{$()<-a;};@g(2,\"y\");", "ArcTest");
+		assertNotNull(code);
+
+		List<String> output = runCode(code);
+		assertArrayEquals(new String[]{"x","1","y"}, output.toArray());
+	}
+
 	@Test
 	@DisplayName("Complex test - File: Example1.arc")
 	void example1() throws Exception {
@@ -1108,4 +1332,831 @@ class CompilerTest extends TestBase {
 				});
 		assertEquals("Can only do operation on the same type", e.getMessage());
 	}
+
+	@Test
+	@DisplayName("Bytecode backend - Output string with escapes")
+	void bytecodeOutputString() throws Exception {
+		Compiler c = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE));
+		AssembledClass aClass = c.compileStringToClass("$()<-\"Hello\\tWorld\";$()<-\"\\\"quoted\\\"\";", "ArcTest");
+		assertNotNull(aClass);
+
+		List<String> output = runClass(aClass);
+		assertArrayEquals(new String[] {"Hello\tWorld", "\"quoted\""}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Math, comparisons and variables")
+	void bytecodeMathAndVariables() throws Exception {
+		Compiler c = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE));
+		AssembledClass aClass = c.compileStringToClass("a:num<-7;b:frac<-2.5;$()<-(a+2)*4/2-1;$()<-b*2.0;$()<-~(a>3);$()<-nil;", "ArcTest");
+		assertNotNull(aClass);
+
+		List<String> output = runClass(aClass);
+		assertArrayEquals(new String[] {"17", "5.0", "false", "null"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Pass function as parameter")
+	void bytecodeFuncAsParameter() throws Exception {
+		Compiler c = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE));
+		AssembledClass aClass = c.compileStringToClass("add:func <- (n1:num,n2:num,callBack:func[num,num]#nil):num => {@callBack(n1,n2);()<-n1+n2;};printer:func <- (n1:num,n2:num):nil => {$()<-n1;$()<-n2;};$()<-@add(7,3,printer);", "ArcTest");
+		assertNotNull(aClass);
+
+		List<String> output = runClass(aClass);
+		assertArrayEquals(new String[]{"7","3","10"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Same output as Jasmin for the example files")
+	void bytecodeMatchesJasmin() throws Exception {
+		Compiler jasmin = new Compiler();
+		Compiler bytecode = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE));
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example5.arc"}) {
+			List<String> expected = runCode(jasmin.compileFile(example, "ArcTest"));
+			List<String> output = runClass(bytecode.compileFileToClass(example, "ArcTest"));
+			assertArrayEquals(expected.toArray(), output.toArray(), example);
+		}
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Version 52 classes pass the verifier and match Jasmin")
+	void bytecodeVersion52MatchesJasmin() throws Exception {
+		Compiler jasmin = new Compiler();
+		Compiler bytecode = new Compiler(new CompilerOptions()
+				.setBackend(CompilerOptions.Backend.BYTECODE)
+				.setTargetVersion(52));
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example4.arc", "docs/Example5.arc"}) {
+			new SandBox().verifyClass(bytecode.compileFileToClass(example, "ArcTest"));
+		}
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example5.arc"}) {
+			List<String> expected = runCode(jasmin.compileFile(example, "ArcTest"));
+			List<String> output = runClass(bytecode.compileFileToClass(example, "ArcTest"));
+			assertArrayEquals(expected.toArray(), output.toArray(), example);
+		}
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Version 52 loads function values as method handle constants")
+	void bytecodeMethodHandleConstants() throws Exception {
+		Compiler c = new Compiler(new CompilerOptions()
+				.setBackend(CompilerOptions.Backend.BYTECODE)
+				.setTargetVersion(52));
+		String source = "f:func; i:num<-0; rep(i<3){ f <- (n:num):nil => {$()<-n;}; @f(i); i<-i+1;}";
+		JasminBytecode code = c.compileString(source, "ArcTest");
+		assertNotNull(code);
+
+		assertEquals(".bytecode 52.0", code.getLines().get(0));
+		assertTrue(code.getLines().contains("ldc MethodHandle invokestatic ArcTest/f(I)V"));
+		for( String line : code.getLines() ) {
+			assertFalse(line.contains("findStatic") || line.startsWith(".field"), line);
+		}
+
+		List<String> output = runClass(c.compileStringToClass(source, "ArcTest"));
+		assertArrayEquals(new String[]{"0","1","2"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Versions after 49 need the bytecode backend")
+	void targetVersionNeedsBytecodeBackend() {
+		Exception e = assertThrows(AssembleException.class,
+				()->{
+					Compiler c = new Compiler(new CompilerOptions().setTargetVersion(52));
+					c.compileStringToClass("$()<-1;", "ArcTest");
+				});
+		assertEquals("Class file version 52 needs the bytecode backend", e.getMessage());
+		assertThrows(IllegalArgumentException.class, () -> new CompilerOptions().setTargetVersion(48));
+		assertThrows(IllegalArgumentException.class, () -> new CompilerOptions().setTargetVersion(53));
+		assertThrows(IllegalArgumentException.class, () -> new CompilerOptions().setTargetVersion(99));
+	}
+
+	@Test
+	@DisplayName("Bytecode backend - Versions 50 and 51 get frames but look functions up at run time")
+	void targetVersionsWithFrames() throws Exception {
+		String source = "twice:func<-(n:num):num=>{()<-n*2;};apply:func<-(n:num,f:func[num]#num):num=>{()<-@f(n);};" +
+				"i:num<-0;rep(i<3){is(i>0)->yes{$()<-@apply(i,twice);}i<-i+1;}";
+		for (int version = 50; version <= 51; version++) {
+			CompilerOptions options = new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(version);
+			AssembledClass assembledClass = new Compiler(options).compileStringToClass(source, "ArcTest");
+			assertEquals(version, ((assembledClass.getClassBytes()[6] & 0xff) << 8) | (assembledClass.getClassBytes()[7] & 0xff));
+			assertArrayEquals(new String[]{"2","4"}, runClass(assembledClass).toArray());
+		}
+	}
+
+	@Test
+	@DisplayName("Limits - The verifier accepts the computed limits, but not smaller ones")
+	void computedLimitsAreTight() throws Exception {
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example4.arc", "docs/Example5.arc"}) {
+			Compiler c = new Compiler();
+			JasminBytecode code = c.compileFile(example, "ArcTest");
+			assertNotNull(code);
+			new SandBox().verifyClass(AssembledClass.assemble(code));
+
+			List<String> lines = code.getLines();
+			for (int i = 0; i < lines.size(); i++) {
+				String line = lines.get(i);
+				if (!line.startsWith(".limit ")) continue;
+				int limit = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+				if (limit == 0) continue;
+
+				List<String> smallerLimit = new ArrayList<>(lines);
+				smallerLimit.set(i, line.substring(0, line.lastIndexOf(' ') + 1) + (limit - 1));
+				AssembledClass aClass = AssembledClass.assemble(new JasminBytecode("ArcTest", smallerLimit));
+				assertThrows(LinkageError.class, () -> new SandBox().verifyClass(aClass), example + ": " + line);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Constant folding - Math on known values is done at compile time")
+	void constantFoldingMath() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileString("$()<-(2+3)*4;a:num<-6;b:num<-a*7;$()<-b;i:num<-1;i<-i+1;$()<-i;", "ArcTest");
+		assertNotNull(code);
+
+		assertTrue(code.getLines().contains("ldc 20"));
+		assertTrue(code.getLines().contains("ldc 42"));
+		assertFalse(code.getLines().contains("imul"));
+		assertTrue(code.getLines().contains("iadd"));
+
+		List<String> output = runCode(code);
+		assertArrayEquals(new String[]{"20","42","2"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("Constant folding - Folded values overflow and round like the JVM")
+	void constantFoldingMatchesJvm() throws Exception {
+		String source = "$()<-2147483647+1;$()<- -2147483648/ -1;$()<- -7%3;$()<-0.1+0.2;$()<-100000.0*100000.0;" +
+				"$()<-0.0* -1.0;$()<-0.0/0.0;$()<- -1.0/0.0;$()<-5.5%2.0;";
+		String[] expected = {String.valueOf(Integer.MAX_VALUE + 1), String.valueOf(Integer.MIN_VALUE), "-1",
+				String.valueOf(0.1f + 0.2f), "1.0E10", "-0.0", "NaN", "-Infinity", "1.5"};
+		for (CompilerOptions.Backend backend : CompilerOptions.Backend.values()) {
+			AssembledClass aClass = new Compiler(new CompilerOptions().setBackend(backend)).compileStringToClass(source, "ArcTest");
+			assertArrayEquals(expected, runClass(aClass).toArray(), backend.name());
+		}
+	}
+
+	@Test
+	@DisplayName("Constant folding - Float comparisons are the same folded and at runtime")
+	void constantFoldingFloatComparisons() throws Exception {
+		String comparisons = "$()<-x>2.0;$()<-x>=2.0;$()<-x<2.0;$()<-x<=2.0;$()<-x==2.0;$()<-x~=2.0;" +
+				"$()<-n>1.0;$()<-n>=1.0;$()<-n<1.0;$()<-n<=1.0;$()<-n==n;$()<-n~=n;";
+		String[] expected = {"false","true","false","true","true","false","false","false","false","false","false","true"};
+
+		Compiler c = new Compiler();
+		List<String> folded = runCode(c.compileString("x:frac<-2.0;n:frac<-0.0/0.0;" + comparisons, "ArcTest"));
+		assertArrayEquals(expected, folded.toArray());
+		List<String> runtime = runCode(c.compileString("x:frac;x<-2.0;n:frac;n<-0.0/0.0;" + comparisons, "ArcTest"));
+		assertArrayEquals(expected, runtime.toArray());
+	}
+
+	@Test
+	@DisplayName("BadWeather - Division by a folded zero")
+	void constantFoldingDivisionByZero() {
+		for (String source : new String[] {"a:num<-3-3;$()<-6/a;", "b:num;b<-2;$()<-b%(2-2);"}) {
+			Exception e = assertThrows(CompilerException.class,
+					()->{
+						Compiler c = new Compiler();
+						c.compileString(source, "ArcTest");
+					});
+			assertEquals("Cannot do division by zero!", e.getMessage());
+		}
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Logical comparators skip the right side when the left side decides")
+	void checkShortCircuit() throws Exception {
+		Compiler c = new Compiler();
+		String function = "f:func<-(n:num):logic=>{$()<-n;()<-val;};n:num;n<-0;";
+		JasminBytecode code = c.compileString(function +
+				"is((n>0)&&@f(1))->yes{$()<-\"yes\";}no{$()<-\"no\";}" +
+				"is((n==0)||@f(2))->yes{$()<-\"yes\";}no{$()<-\"no\";}" +
+				"$()<-(n==0)&&@f(3);$()<-(n>0)||@f(4);$()<-ival&&@f(5);$()<-val&&@f(6);" +
+				"rep((n<3)&&@f(n)){n<-n+1;}", "ArcTest");
+		assertNotNull(code);
+		for( String line : code.getLines() ) {
+			assertFalse(line.equals("iand") || line.equals("ior"), line);
+		}
+
+		List<String> output = runCode(code);
+		assertArrayEquals(new String[]{"no","yes","3","true","4","true","false","6","true","0","1","2"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Conditions and loops jump without pushing a boolean")
+	void checkConditionJumps() throws Exception {
+		Compiler c = new Compiler();
+		JasminBytecode code = c.compileString("n:frac;n<-0.0/0.0;i:num;i<-0;" +
+				"rep((i<5)&&~(i==3)){is((n<1.0)||(n>=1.0))->yes{$()<-\"ordered\";}no is(~(n~=n))->yes{$()<-\"equal\";}no{$()<-i;} i<-i+1;}" +
+				"is(~((i>2)&&(i<4)))->yes{$()<-\"outside\";}no{$()<-\"inside\";}", "ArcTest");
+		assertNotNull(code);
+		for( String line : code.getLines() ) {
+			assertFalse(line.startsWith("iconst_"), line);
+		}
+
+		List<String> output = runCode(code);
+		assertArrayEquals(new String[]{"0","1","2","inside"}, output.toArray());
+	}
+
+	@Test
+	@DisplayName("Peephole - Rules shorten the code without changing the output")
+	void peepholeKeepsOutput() throws Exception {
+		PeepholeOptimizer optimizer = PeepholeOptimizer.withDefaultRules();
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example5.arc"}) {
+			List<String> expected = runCode(new Compiler().compileFile(example, "ArcTest"));
+			for (CompilerOptions.Backend backend : CompilerOptions.Backend.values()) {
+				CompilerOptions options = new CompilerOptions().setBackend(backend).setPeepholeOptimizer(optimizer);
+				if (backend == CompilerOptions.Backend.BYTECODE) options.setTargetVersion(52);
+				AssembledClass aClass = new Compiler(options).compileFileToClass(example, "ArcTest");
+				new SandBox().verifyClass(aClass);
+				assertArrayEquals(expected.toArray(), runClass(aClass).toArray(), example + " " + backend.name());
+			}
+		}
+		assertTrue(optimizer.getHits().get("constant load") > 0);
+	}
+
+	@Test
+	@DisplayName("Peephole - Small constants and stores followed by loads")
+	void peepholeRules() throws Exception {
+		Compiler c = new Compiler(new CompilerOptions().setPeepholeOptimizer(PeepholeOptimizer.withDefaultRules()));
+		JasminBytecode code = c.compileString("a:num;a<-100;c:num<-a*2;$()<-c;b:num;b<- -1000;$()<-b;f:frac;f<-2.0;$()<-f;g:frac;g<- -0.0;$()<-g;", "ArcTest");
+		assertNotNull(code);
+
+		List<String> lines = code.getLines();
+		assertTrue(lines.containsAll(Arrays.asList("iconst_0", "bipush 100", "sipush -1000", "fconst_0", "fconst_2", "ldc -0.0", "dup")));
+		assertFalse(lines.contains("iload 2"));
+		assertArrayEquals(new String[]{"200","-1000","2.0","-0.0"}, runCode(code).toArray());
+	}
+
+	@Test
+	@DisplayName("Peephole - A pushed boolean that is tested right away becomes a jump")
+	void peepholeBooleanDiamond() {
+		PeepholeOptimizer optimizer = new PeepholeOptimizer(Arrays.asList(new BooleanDiamondRule(), new GotoNextLabelRule()));
+		JasminMethod ifne = booleanDiamond(nl.cos.jasmin.Opcode.IFNE);
+		optimizer.optimize(ifne);
+		assertArrayEquals(new String[]{"iload 0", "iload 1", "if_icmplt T", "goto E", "T:", "goto X", "E:", "return", "X:", "return"},
+				ifne.getInstructions().stream().map(JasminInstruction::toString).toArray());
+
+		JasminMethod ifeq = booleanDiamond(nl.cos.jasmin.Opcode.IFEQ);
+		optimizer.optimize(ifeq);
+		assertArrayEquals(new String[]{"iload 0", "iload 1", "if_icmplt T", "goto X", "T:", "return", "X:", "return"},
+				ifeq.getInstructions().stream().map(JasminInstruction::toString).toArray());
+		assertEquals(2, optimizer.getHits().get("boolean diamond"));
+	}
+
+	/**
+	 * Builds a method that pushes whether its first argument is less than its second, and then
+	 * tests that boolean right away.
+	 */
+	private static JasminMethod booleanDiamond( nl.cos.jasmin.Opcode test ) {
+		return new JasminMethod("f", "(II)V").addAll(Arrays.asList(
+				JasminInstruction.of(nl.cos.jasmin.Opcode.ILOAD, 0),
+				JasminInstruction.of(nl.cos.jasmin.Opcode.ILOAD, 1),
+				JasminInstruction.jump(nl.cos.jasmin.Opcode.IF_ICMPLT, "T"),
+				JasminInstruction.of(nl.cos.jasmin.Opcode.ICONST_0),
+				JasminInstruction.jump(nl.cos.jasmin.Opcode.GOTO, "E"),
+				JasminInstruction.label("T"),
+				JasminInstruction.of(nl.cos.jasmin.Opcode.ICONST_1),
+				JasminInstruction.label("E"),
+				JasminInstruction.jump(test, "X"),
+				JasminInstruction.of(nl.cos.jasmin.Opcode.RETURN),
+				JasminInstruction.label("X"),
+				JasminInstruction.of(nl.cos.jasmin.Opcode.RETURN)));
+	}
+
+	@Test
+	@DisplayName("Peephole - Adding a constant to a local becomes iinc")
+	void peepholeIncrement() throws Exception {
+		Compiler c = new Compiler(new CompilerOptions().setPeepholeOptimizer(PeepholeOptimizer.withDefaultRules()));
+		JasminBytecode code = c.compileString("i:num<-0;rep(i<5){$()<-i;i<-i+2;}i<-i-300;$()<-i;i<-40000+i;$()<-i;", "ArcTest");
+		assertNotNull(code);
+
+		List<String> lines = code.getLines();
+		assertTrue(lines.containsAll(Arrays.asList("iinc 2 2", "iinc 2 -300")));
+		assertFalse(lines.contains("iinc 2 40000"));
+		assertArrayEquals(new String[]{"0","2","4","-294","39706"}, runCode(code).toArray());
+	}
+
+	@Test
+	@DisplayName("IR - Code generated from the IR gives the same output")
+	void irKeepsOutput() throws Exception {
+		IrOptimizer optimizer = IrOptimizer.withDefaultPasses();
+		String[] sources = {
+				"f:func<-(n:num):num=>{r:num;is(n<2)->yes{r<-n;}no{r<-n*2;}()<-r;};$()<-@f(5);$()<-@f(1);",
+				"g:func; i:num<-0; rep(i<3){ g <- (n:num):nil => {$()<-n;}; @g(i); i<-i+1;}",
+				"n:frac;n<-0.0/0.0;i:num;i<-0;rep((i<3)||(n==n)){$()<-(n<1.0)||~(n>=1.0);$()<-i;i<-i+1;}is(2>5)->yes{$()<-\"never\";}no{$()<-\"done\";}",
+				"a:text;$()->a;$()<-a;add:func <- (n1:num,n2:num,callBack:func[num,num]#nil):num => {@callBack(n1,n2);()<-n1+n2;};printer:func <- (n1:num,n2:num):nil => {$()<-n1;$()<-n2;};$()<-@add(7,3,printer);"
+		};
+		for (String source : sources) {
+			List<String> expected = runCode(new Compiler().compileString(source, "ArcTest"));
+			for (CompilerOptions.Backend backend : CompilerOptions.Backend.values()) {
+				CompilerOptions options = new CompilerOptions().setBackend(backend).setIrOptimizer(optimizer);
+				if (backend == CompilerOptions.Backend.BYTECODE) options.setTargetVersion(52);
+				AssembledClass aClass = new Compiler(options).compileStringToClass(source, "ArcTest");
+				new SandBox().verifyClass(aClass);
+				assertArrayEquals(expected.toArray(), runClass(aClass).toArray(), source + " " + backend.name());
+			}
+		}
+		for (String example : new String[] {"docs/Example1.arc", "docs/Example2.arc", "docs/Example3.arc", "docs/Example5.arc"}) {
+			List<String> expected = runCode(new Compiler().compileFile(example, "ArcTest"));
+			AssembledClass aClass = new Compiler(new CompilerOptions().setIrOptimizer(optimizer)).compileFileToClass(example, "ArcTest");
+			assertArrayEquals(expected.toArray(), runClass(aClass).toArray(), example);
+		}
+		assertTrue(optimizer.getChanges().get("unreachable blocks") > 0);
+	}
+
+	@Test
+	@DisplayName("IR - Passes fold known branches and drop the blocks they skip")
+	void irPasses() {
+		IrFunction function = new IrFunction("f", "()V", DataType.VOID);
+		BasicBlock entry = function.newBlock();
+		BasicBlock hop = function.newBlock();
+		BasicBlock yes = function.newBlock();
+		BasicBlock no = function.newBlock();
+		for (BasicBlock block : Arrays.asList(entry, hop, yes, no)) function.addBlock(block);
+		entry.add(Instruction.branch(Comparison.LT, new Constant(1, DataType.INT), new Constant(2, DataType.INT), hop, no));
+		hop.add(Instruction.jump(yes));
+		yes.add(Instruction.print(new Constant(1, DataType.INT), DataType.INT));
+		yes.add(Instruction.ret(null));
+		no.add(Instruction.ret(null));
+
+		IrProgram program = new IrProgram("ArcTest");
+		program.addFunction(function);
+		IrOptimizer optimizer = IrOptimizer.withDefaultPasses();
+		optimizer.optimize(program);
+
+		assertEquals(Arrays.asList(entry, yes), function.getBlocks());
+		assertSame(yes, entry.getTerminator().getTargets()[0]);
+		assertEquals(1, optimizer.getChanges().get("branch folding"));
+		assertEquals(1, optimizer.getChanges().get("unreachable blocks"));
+	}
+
+	@Test
+	@DisplayName("IR - Registers that are never live at the same time share a slot")
+	void irSlotReuse() throws Exception {
+		String source = "i:num<-0;rep(i<3){is(i==1)->yes{a:num<-i*2;b:num<-a+1;$()<-b;}no{f:frac<-2.5;g:frac<-f*f;$()<-g;} i<-i+1;}t:text<-\"end\";$()<-t;";
+		JasminBytecode classic = new Compiler().compileString(source, "ArcTest");
+		JasminBytecode code = new Compiler(new CompilerOptions().setIrOptimizer(IrOptimizer.withDefaultPasses())).compileString(source, "ArcTest");
+		assertTrue(code.getLines().contains(".limit locals 2"), code.getLines().toString());
+		assertFalse(classic.getLines().contains(".limit locals 2"));
+		assertArrayEquals(runCode(classic).toArray(), runCode(code).toArray());
+
+		IrFunction function = new IrFunction("f", "(I)I", DataType.INT);
+		Register n = function.newParam(DataType.INT, "n");
+		Register sum = function.newRegister(DataType.INT, "sum");
+		Register square = function.newRegister(DataType.INT, null);
+		Register result = function.newRegister(DataType.INT, null);
+		BasicBlock entry = function.newBlock();
+		function.addBlock(entry);
+		entry.add(Instruction.binary(Opcode.ADD, sum, n, new Constant(1, DataType.INT)));
+		entry.add(Instruction.binary(Opcode.MUL, square, sum, sum));
+		entry.add(Instruction.copy(result, square));
+		entry.add(Instruction.ret(result));
+
+		SlotAllocator slots = new SlotAllocator(function);
+		assertEquals(0, slots.getSlot(n));
+		assertEquals(slots.getSlot(square), slots.getSlot(result));
+		assertEquals(1, slots.getSlotCount());
+	}
+
+	@Test
+	@DisplayName("IR - Unused variables, functions and known branches are removed and reported")
+	void irDeadCode() throws Exception {
+		IrOptimizer optimizer = IrOptimizer.withDefaultPasses();
+		Compiler c = new Compiler(new CompilerOptions().setIrOptimizer(optimizer));
+		JasminBytecode code = c.compileString("unused:func<-(n:num):num=>{()<-n*2;};h:func;i:num<-0;" +
+				"rep(i<2){h<-(n:num):nil=>{$()<-n;};i<-i+1;}x:num<-i*3;y:num<-i/i;" +
+				"is(ival)->yes{$()<-\"never\";}no{$()<-i;}", "ArcTest");
+		assertNotNull(code);
+		for( String line : code.getLines() ) {
+			assertFalse(line.contains("unused") || line.contains("MethodHandle") || line.contains("never"), line);
+		}
+		assertTrue(code.getLines().contains("idiv"));
+		assertArrayEquals(new String[]{"2"}, runCode(code).toArray());
+
+		List<String> report = optimizer.getReport();
+		assertTrue(report.contains("Removed unused function 'unused'"), report.toString());
+		assertTrue(report.contains("Removed unused function 'h'"), report.toString());
+		assertTrue(report.contains("Removed unused assignment to 'x' in 'main'"), report.toString());
+		assertTrue(report.contains("Removed 1 unreachable block(s) from 'main'"), report.toString());
+		assertFalse(report.contains("Removed unused assignment to 'i' in 'main'"), report.toString());
+	}
+
+	@Test
+	@DisplayName("IR - The report of an optimizer stops growing when it is full")
+	void irReportLimit() {
+		IrOptimizer optimizer = new IrOptimizer(new ArrayList<>());
+		for( int i = 0; i < 2; i++ ) {
+			IrProgram program = new IrProgram("ArcTest");
+			for( int line = 0; line < IrOptimizer.REPORT_LIMIT * 3 / 5; line++ ) program.report("Removed " + i + "." + line);
+			optimizer.optimize(program);
+		}
+
+		List<String> report = optimizer.getReport();
+		assertEquals(IrOptimizer.REPORT_LIMIT, report.size());
+		assertEquals("Removed 0.0", report.get(0));
+		assertEquals("Removed 1." + (IrOptimizer.REPORT_LIMIT * 2 / 5 - 1), report.get(report.size() - 1));
+		assertEquals(IrOptimizer.REPORT_LIMIT / 5, optimizer.getDroppedReportLines());
+	}
+
+	@Test
+	@DisplayName("IR - Small functions are inlined at their calls")
+	void irInlining() throws Exception {
+		String source = "mul:func<-(a:num,b:num):num=>{()<-a*b;};" +
+				"big:func<-(n:num):nil=>{$()<-n;$()<-n+1;$()<-n+2;$()<-n+3;$()<-n+4;};" +
+				"i:num<-1;rep(i<4){$()<-@mul(i,i+1);i<-i+1;}$()<-@mul(2,3);@big(1);@big(2);";
+		IrOptimizer optimizer = IrOptimizer.withDefaultPasses();
+		JasminBytecode code = new Compiler(new CompilerOptions().setIrOptimizer(optimizer)).compileString(source, "ArcTest");
+		assertNotNull(code);
+		assertFalse(code.getLines().stream().anyMatch(line -> line.contains("ArcTest/mul")));
+		assertTrue(code.getLines().stream().anyMatch(line -> line.contains("ArcTest/big")));
+		assertArrayEquals(runCode(new Compiler().compileString(source, "ArcTest")).toArray(), runCode(code).toArray());
+		assertTrue(optimizer.getReport().contains("Inlined function 'mul' into 'main'"));
+
+		//A function that calls itself is never inlined
+		IrProgram program = new IrProgram("ArcTest");
+		IrFunction main = new IrFunction("main", "([Ljava/lang/String;)V", DataType.VOID);
+		main.newParam(DataType.STRING, "args");
+		IrFunction loop = new IrFunction("loop", "()V", DataType.VOID);
+		for (IrFunction function : Arrays.asList(main, loop)) {
+			BasicBlock entry = function.newBlock();
+			function.addBlock(entry);
+			entry.add(Instruction.call(null, "loop", "()V", new ArrayList<>()));
+			entry.add(Instruction.ret(null));
+			program.addFunction(function);
+		}
+		assertFalse(new Inlining().run(main, program));
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Functions can call themselves and pass themselves on")
+	void checkRecursion() throws Exception {
+		String source = "fact:func<-(n:num):num=>{r:num<-1;is(n>1)->yes{r<-n*@fact(n-1);}()<-r;};$()<-@fact(10);" +
+				"tri:func<-(n:num,me:func[num,func]#num):num=>{r:num<-0;is(n>0)->yes{r<-@me(n-1,tri);}()<-r+n;};$()<-@tri(4,tri);";
+		assertArrayEquals(new String[]{"3628800","10"}, runCode(new Compiler().compileString(source, "ArcTest")).toArray());
+		AssembledClass aClass = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52)).compileStringToClass(source, "ArcTest");
+		new SandBox().verifyClass(aClass);
+		assertArrayEquals(new String[]{"3628800","10"}, runClass(aClass).toArray());
+	}
+
+	@Test
+	@DisplayName("BadWeather - A function can not assign to itself")
+	void checkAssignToSelf() {
+		Exception e = assertThrows(CompilerException.class,
+				()->{
+					Compiler c = new Compiler();
+					c.compileString("f:func<-(n:num):nil=>{f<-(m:num):nil=>{$()<-m;};};", "ArcTest");
+				});
+		assertEquals("Cannot assign to function 'f' inside its own code block", e.getMessage());
+	}
+
+	@Test
+	@DisplayName("IR - Calls of a function to itself in tail position become loops")
+	void irTailCalls() throws Exception {
+		String source = "sum:func<-(n:num,acc:num):num=>{r:num<-acc;is(n>0)->yes{r<-@sum(n-1,acc+n);}()<-r;};$()<-@sum(100000,0);" +
+				"each:func<-(n:num,cb:func[num]#nil):nil=>{is(n>0)->yes{@cb(n);@each(n-1,cb);}};" +
+				"printer:func<-(v:num):nil=>{is(v<3)->yes{$()<-v;}};@each(100000,printer);" +
+				"fact:func<-(n:num):num=>{r:num<-1;is(n>1)->yes{r<-n*@fact(n-1);}()<-r;};$()<-@fact(5);";
+		IrOptimizer optimizer = IrOptimizer.withDefaultPasses();
+		for (CompilerOptions.Backend backend : CompilerOptions.Backend.values()) {
+			CompilerOptions options = new CompilerOptions().setBackend(backend).setIrOptimizer(optimizer);
+			if (backend == CompilerOptions.Backend.BYTECODE) options.setTargetVersion(52);
+			AssembledClass aClass = new Compiler(options).compileStringToClass(source, "ArcTest");
+			new SandBox().verifyClass(aClass);
+			assertArrayEquals(new String[]{"705082704","2","1","120"}, runClass(aClass).toArray(), backend.name());
+		}
+		assertTrue(optimizer.getReport().contains("Turned the tail call of 'sum' to itself into a loop"));
+		assertTrue(optimizer.getReport().contains("Turned the tail call of 'each' to itself into a loop"));
+		assertFalse(optimizer.getReport().contains("Turned the tail call of 'fact' to itself into a loop"));
+	}
+
+	@Test
+	@DisplayName("IR - Math with powers of two becomes shifts and counters use iinc")
+	void irStrengthReduction() throws Exception {
+		String source = "i:num<- -9;rep(i<10){$()<-i*8;$()<-i/4;$()<-i%4;$()<-i*1+0;$()<-i%1;i<-i+3;}";
+		JasminBytecode code = new Compiler(new CompilerOptions().setIrOptimizer(IrOptimizer.withDefaultPasses())).compileString(source, "ArcTest");
+		assertNotNull(code);
+
+		List<String> lines = code.getLines();
+		assertTrue(lines.containsAll(Arrays.asList("ishl", "ishr", "iushr", "iand", "iinc 0 3")));
+		assertFalse(lines.stream().anyMatch(line -> line.equals("imul") || line.equals("idiv") || line.equals("irem")));
+		assertArrayEquals(runCode(new Compiler().compileString(source, "ArcTest")).toArray(), runCode(code).toArray());
+	}
+
+	@Test
+	@DisplayName("IR - Values that do not change in a loop are calculated before it")
+	void irLoopInvariants() throws Exception {
+		String source = "mix:func<-(a:num,b:num):num=>{c:num<-a*b+a-b;d:num<-c*c+a;e:num<-d/3+c;f:num<-e*e-d;()<-f+e+d+c;};" +
+				"noisy:func<-(n:num):num=>{$()<-n;()<-n;};" +
+				"k:num<-3;i:num<-0;rep(i<@mix(k,2)/1000){j:num<-0;rep(j<2){$()<-@mix(k,i)+k*7;$()<-@noisy(k);j<-j+1;}i<-i+1;}";
+		IrOptimizer optimizer = IrOptimizer.withDefaultPasses();
+		JasminBytecode code = new Compiler(new CompilerOptions().setIrOptimizer(optimizer)).compileString(source, "ArcTest");
+		assertNotNull(code);
+		assertArrayEquals(runCode(new Compiler().compileString(source, "ArcTest")).toArray(), runCode(code).toArray());
+		assertEquals(2, optimizer.getReport().stream().filter(line -> line.startsWith("Moved ") && line.endsWith(" loop invariant instruction(s) out of a loop in 'main'")).count());
+
+		//A call that may loop forever has to stay in the loop, just like one that prints
+		IrOptimizer loops = new IrOptimizer(Arrays.asList(new LoopInvariantCodeMotion()));
+		new Compiler(new CompilerOptions().setIrOptimizer(loops))
+				.compileString("spin:func<-(n:num):num=>{rep(n>0){n<-n-1;}()<-n;};i:num<-0;rep(i<3){is(i>5)->yes{$()<-@spin(5);}i<-i+1;}", "ArcTest");
+		assertEquals(0, loops.getChanges().get("loop invariants"));
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Compiling the same source twice gives the same class file")
+	void checkReproducible() throws Exception {
+		File[] examples = new File("docs").listFiles((dir, name) -> name.endsWith(".arc"));
+		assertNotNull(examples);
+		Arrays.sort(examples);
+		CompilerOptions[] configurations = {
+				new CompilerOptions(),
+				new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52),
+				new CompilerOptions().setIrOptimizer(IrOptimizer.withDefaultPasses()).setPeepholeOptimizer(PeepholeOptimizer.withDefaultRules())
+		};
+		int compiled = 0;
+		for (File example : examples) {
+			for (CompilerOptions options : configurations) {
+				byte[] first;
+				try {
+					first = new Compiler(options).compileFileToClass(example.getPath(), "ArcTest").getClassBytes();
+				} catch (CompilerException e) {
+					//The edge case examples are meant to be rejected
+					continue;
+				}
+				byte[] second = new Compiler(options).compileFileToClass(example.getPath(), "ArcTest").getClassBytes();
+				assertArrayEquals(first, second, example.getName());
+				compiled++;
+			}
+		}
+		assertTrue(compiled >= 15);
+
+		//Methods come in the order they are declared, and every one numbers its labels from zero
+		List<String> lines = new Compiler().compileString("b:func<-(n:num):nil=>{rep(n>0){n<-n-1;}};a:func<-(n:num):nil=>{rep(n>0){n<-n-1;}};@b(1);@a(1);", "ArcTest").getLines();
+		int b = lines.indexOf(".method public static b(I)V");
+		int a = lines.indexOf(".method public static a(I)V");
+		assertTrue(b >= 0 && b < a);
+		int bEnd = b + lines.subList(b, lines.size()).indexOf(".end method");
+		int aEnd = a + lines.subList(a, lines.size()).indexOf(".end method");
+		assertEquals(lines.subList(b + 1, bEnd), lines.subList(a + 1, aEnd));
+	}
+
+	@Test
+	@DisplayName("GoodWeather - A class compiled before comes from the cache")
+	void checkCompilationCache(@TempDir Path temporary) throws Exception {
+		String source = "i:num<-0;rep(i<3){$()<-i;i<-i+1;}";
+		CompilationCache cache = new CompilationCache(temporary.resolve("cache"));
+		CompilerOptions options = new CompilerOptions().setCache(cache);
+		byte[] compiled = new Compiler(options).compileStringToClass(source, "ArcTest").getClassBytes();
+		AssembledClass cached = new Compiler(options).compileStringToClass(source, "ArcTest");
+		assertArrayEquals(compiled, cached.getClassBytes());
+		assertArrayEquals(new String[]{"0","1","2"}, runClass(cached).toArray());
+		assertEquals(1, cache.getHits());
+
+		//Other options or another class name give another class
+		new Compiler(new CompilerOptions().setCache(cache).setBufferedOutput(true)).compileStringToClass(source, "ArcTest");
+		new Compiler(options).compileStringToClass(source, "Other");
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+
+		//Neither does another build of the compiler, nor other settings of a pass
+		assertFalse(Compiler.fingerprint().startsWith("unknown-"));
+		new Compiler(new CompilerOptions().setCache(cache).setFingerprint("another build")).compileStringToClass(source, "ArcTest");
+		new Compiler(new CompilerOptions().setCache(cache).setIrOptimizer(new IrOptimizer(Arrays.asList(new Inlining())))).compileStringToClass(source, "ArcTest");
+		new Compiler(new CompilerOptions().setCache(cache).setIrOptimizer(new IrOptimizer(Arrays.asList(new Inlining(4, 16))))).compileStringToClass(source, "ArcTest");
+		assertEquals(1, cache.getHits());
+		assertEquals(6, cache.getMisses());
+
+		//Code that does not compile is never stored
+		for (int i = 0; i < 2; i++) {
+			assertThrows(CompilerException.class, () -> new Compiler(options).compileStringToClass("$()<-x;", "ArcTest"));
+		}
+		assertEquals(8, cache.getMisses());
+
+		//Writing a class does not list the directory every time
+		assertTrue(cache.getScans() <= 1, String.valueOf(cache.getScans()));
+
+		//The least recently used classes go when the cache is full
+		Path directory = temporary.resolve("small");
+		long size = compiled.length;
+		CompilationCache small = new CompilationCache(directory, 2 * size + size / 2);
+		long now = System.currentTimeMillis();
+		small.put("first", AssembledClass.read(compiled, "ArcTest"));
+		Files.setLastModifiedTime(directory.resolve("first.class"), FileTime.fromMillis(now - 3000));
+		small.put("second", AssembledClass.read(compiled, "ArcTest"));
+		Files.setLastModifiedTime(directory.resolve("second.class"), FileTime.fromMillis(now - 2000));
+		assertNotNull(small.get("first", "ArcTest"));
+		small.put("third", AssembledClass.read(compiled, "ArcTest"));
+		assertNull(small.get("second", "ArcTest"));
+		assertNotNull(small.get("first", "ArcTest"));
+		assertNotNull(small.get("third", "ArcTest"));
+	}
+
+	@Test
+	@DisplayName("GoodWeather - One compiler can be reused after an error and shared between threads")
+	void checkConcurrentCompiles() throws Exception {
+		Compiler compiler = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52));
+		String[] sources = {
+				"i:num<-0;rep(i<3){$()<-i;i<-i+1;}",
+				"f:func<-(n:num):num=>{r:num<-1;is(n>1)->yes{r<-n*@f(n-1);}()<-r;};$()<-@f(6);",
+				"a:text<-\"x\";b:bool<-true;is(b)->yes{$()<-a;}no{$()<-1.5;}",
+				"$()<-;"
+		};
+
+		//A syntax error used to be counted forever, so every later compilation failed as well
+		assertNull(compiler.compileStringToClass(sources[3], "ArcTest"));
+		assertArrayEquals(new String[]{"0","1","2"}, runClass(compiler.compileStringToClass(sources[0], "ArcTest")).toArray());
+
+		List<byte[]> expected = new ArrayList<>();
+		for (String source : sources) {
+			AssembledClass aClass = compiler.compileStringToClass(source, "ArcTest");
+			expected.add(aClass == null ? null : aClass.getClassBytes());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < 2000; i++) {
+				String source = sources[i % sources.length];
+				results.add(executor.submit(() -> {
+					AssembledClass aClass = compiler.compileStringToClass(source, "ArcTest");
+					return aClass == null ? null : aClass.getClassBytes();
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				assertArrayEquals(expected.get(i % sources.length), results.get(i).get(), sources[i % sources.length]);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@DisplayName("GoodWeather - A batch compiles every source and keeps the errors")
+	void checkBatchCompile(@TempDir Path directory) throws Exception {
+		Files.createDirectories(directory.resolve("nested"));
+		Files.write(directory.resolve("Count.arc"), "i:num<-0;rep(i<3){$()<-i;i<-i+1;}".getBytes());
+		Files.write(directory.resolve("nested/Hello.arc"), "$()<-\"hello\";".getBytes());
+		Files.write(directory.resolve("Broken.arc"), "$()<-x;".getBytes());
+		Files.write(directory.resolve("Syntax.arc"), "$()<-;".getBytes());
+		Files.write(directory.resolve("notes.txt"), "not a source".getBytes());
+
+		List<Path> sources = BatchCompiler.findSources(Arrays.asList(directory.toString()));
+		assertEquals(Arrays.asList(directory.resolve("Broken.arc"), directory.resolve("Count.arc"), directory.resolve("Syntax.arc"), directory.resolve("nested/Hello.arc")), sources);
+		assertEquals(Arrays.asList(directory.resolve("Broken.arc"), directory.resolve("Count.arc"), directory.resolve("Syntax.arc")),
+				BatchCompiler.findSources(Arrays.asList(directory + "/*.arc")));
+
+		//Syntax errors are kept with the result of their source instead of being printed
+		Compiler compiler = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52));
+		PrintStream err = System.err;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		List<BatchCompiler.Result> results;
+		try {
+			System.setErr(new PrintStream(printed, true));
+			results = new BatchCompiler(compiler, true).compile(sources, 4);
+		} finally {
+			System.setErr(err);
+		}
+		assertEquals("", printed.toString());
+		assertEquals(4, results.size());
+		assertEquals("Could not resolve variable 'x'!", results.get(0).getError());
+		assertTrue(results.get(1).isCompiled());
+		assertTrue(results.get(2).getError().startsWith("line 1:5 "), results.get(2).getError());
+		assertTrue(results.get(3).isCompiled());
+		assertTrue(Files.exists(directory.resolve("Count.j")));
+		assertFalse(Files.exists(directory.resolve("Broken.class")));
+		byte[] classBytes = Files.readAllBytes(directory.resolve("nested/Hello.class"));
+		assertArrayEquals(new String[]{"hello"}, runClass(AssembledClass.read(classBytes, "Hello")).toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Writing Jasmin-code with the bytecode backend generates the code once")
+	void checkEmitJasminWithBytecode(@TempDir Path directory) throws Exception {
+		String source = "i:num<-0;rep(i<3){$()<-i;i<-i+1;}";
+		Path sourcePath = directory.resolve("Count.arc");
+		Files.write(sourcePath, source.getBytes());
+		PeepholeOptimizer peephole = PeepholeOptimizer.withDefaultRules();
+		Compiler compiler = new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52)
+				.setPeepholeOptimizer(peephole));
+		assertNull(compiler.compileToFiles(sourcePath, true));
+
+		//The peephole optimizer counts every rewrite, so it would count twice as many if the code was generated twice
+		PeepholeOptimizer once = PeepholeOptimizer.withDefaultRules();
+		new Compiler(new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52)
+				.setPeepholeOptimizer(once)).compileStringToClass(source, "Count");
+		assertEquals(once.getHits(), peephole.getHits());
+		assertTrue(Files.readAllLines(directory.resolve("Count.j")).contains("iinc 2 1"));
+		byte[] classBytes = Files.readAllBytes(directory.resolve("Count.class"));
+		assertArrayEquals(new String[]{"0","1","2"}, runClass(AssembledClass.read(classBytes, "Count")).toArray());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - A compile server compiles for clients, which compile themselves without it")
+	void checkCompileServer() throws Exception {
+		CompilerOptions options = new CompilerOptions().setBackend(CompilerOptions.Backend.BYTECODE).setTargetVersion(52);
+		String source = "i:num<-0;rep(i<3){$()<-i;i<-i+1;}";
+		byte[] expected = new Compiler(options).compileStringToClass(source, "ArcTest").getClassBytes();
+
+		CompileServer server = new CompileServer(options, 0);
+		Thread serving = new Thread(server::serve);
+		serving.start();
+		try (CompileClient client = new CompileClient(options, server.getPort())) {
+			for (int i = 0; i < 3; i++) {
+				CompileResult result = client.compile(source, "ArcTest");
+				assertTrue(result.isFromServer());
+				assertArrayEquals(expected, result.getClassBytes());
+			}
+
+			CompileResult syntaxError = client.compile("$()<-;", "ArcTest");
+			assertFalse(syntaxError.isCompiled());
+			assertTrue(syntaxError.getDiagnostics().get(0).startsWith("line 1:5 "), syntaxError.getDiagnostics().toString());
+			assertEquals(Arrays.asList("Could not resolve variable 'x'!"), client.compile("$()<-x;", "ArcTest").getDiagnostics());
+
+			//A client with other options does not get classes it did not ask for
+			try (CompileClient other = new CompileClient(new CompilerOptions(), server.getPort())) {
+				CompileResult result = other.compile(source, "ArcTest");
+				assertFalse(result.isFromServer());
+				assertTrue(result.isCompiled());
+			}
+
+			server.close();
+			serving.join(5000);
+			CompileResult result = client.compile(source, "ArcTest");
+			assertFalse(result.isFromServer());
+			assertArrayEquals(expected, result.getClassBytes());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	@DisplayName("BadWeather - A crash of the compiler becomes a diagnostic of the compile server")
+	void checkCompileServerCrash() {
+		RuntimeException[] crash = {new IllegalStateException("Broken rule")};
+		PeepholeRule broken = new PeepholeRule() {
+			@Override
+			public String getName() {
+				return "Broken";
+			}
+
+			@Override
+			public boolean apply( List<JasminInstruction> code, int index ) {
+				throw crash[0];
+			}
+		};
+		Compiler compiler = new Compiler(new CompilerOptions().setPeepholeOptimizer(new PeepholeOptimizer(Arrays.asList(broken))));
+
+		CompileResult result = CompileServer.compile(compiler, "$()<-1;", "ArcTest", true);
+		assertFalse(result.isCompiled());
+		assertEquals(Arrays.asList("Broken rule"), result.getDiagnostics());
+
+		crash[0] = new NullPointerException();
+		assertEquals(Arrays.asList("NullPointerException"), CompileServer.compile(compiler, "$()<-1;", "ArcTest", true).getDiagnostics());
+	}
+
+	@Test
+	@DisplayName("GoodWeather - Parsing with SLL first gives the same trees and errors as LL alone")
+	void checkTwoStageParsing() throws Exception {
+		File[] examples = new File("docs").listFiles((dir, name) -> name.endsWith(".arc"));
+		assertNotNull(examples);
+		List<String> sources = new ArrayList<>();
+		for (File example : examples) sources.add(new String(Files.readAllBytes(example.toPath()), StandardCharsets.UTF_8));
+		sources.add(new String(Files.readAllBytes(new File("src/nl/cos/warmup.arc").toPath()), StandardCharsets.UTF_8));
+		sources.add("$()<-;");
+		sources.add("a:num<-1+;b:num<-(2*3;$()<-a b;");
+
+		for (String source : sources) {
+			List<String> twoStageErrors = new ArrayList<>();
+			List<String> llErrors = new ArrayList<>();
+			String twoStage = parse(source, true, twoStageErrors);
+			String ll = parse(source, false, llErrors);
+			assertEquals(ll, twoStage, source);
+			assertEquals(llErrors, twoStageErrors, source);
+		}
+		//The warm-up corpus is valid, and a compilation reports every error once
+		List<String> errors = new ArrayList<>();
+		parse(sources.get(examples.length), true, errors);
+		assertEquals(new ArrayList<>(), errors);
+		String wrong = sources.get(examples.length + 2);
+		parse(wrong, false, errors);
+		assertEquals(4, errors.size());
+		List<String> diagnostics = new ArrayList<>();
+		assertNull(new Compiler().compileStringToClass(wrong, "ArcTest", diagnostics));
+		for (int i = 0; i < errors.size(); i++) assertEquals("line " + errors.get(i), diagnostics.get(i));
+		assertEquals(errors.size(), diagnostics.size());
+
+		Compiler.warmUp();
+		Compiler.warmUp(Arrays.asList("$()<-;", "x:num<-1;"));
+		assertNotNull(new Compiler().compileStringToClass("x:num<-1;$()<-x;", "ArcTest"));
+	}
+
+	private static String parse(String source, boolean twoStage, List<String> errors) {
+		ArcLangLexer lexer = new ArcLangLexer(CharStreams.fromString(source));
+		lexer.removeErrorListeners();
+		ArcLangParser parser = new ArcLangParser(null);
+		ParseTree tree = Compiler.parse(new CommonTokenStream(lexer), twoStage, new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+				errors.add(line + ":" + charPositionInLine + " " + msg);
+			}
+		});
+		return tree.toStringTree(parser);
+	}
 }
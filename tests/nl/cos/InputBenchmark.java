@@ -0,0 +1,73 @@
+package nl.cos;
+
+import nl.cos.io.AssembledClass;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how fast compiled programs read system input. It pipes a large input file through
+ * a program like Example4.arc, that reads one line per loop iteration, for both backends.
+ * <p>
+ * Run it with the number of lines to read as its only argument (500000 by default).
+ */
+public class InputBenchmark {
+	private static final int RUNS = 5;
+
+	public static void main( String[] args ) throws Exception {
+		int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		Path inputFile = writeInputFile(lineCount);
+		String source = "line:text; i:num<-0;"
+				+ "rep (i < " + lineCount + ") { $() -> line; i <- i + 1; }"
+				+ "$() <- line;";
+
+		try {
+			AssembledClass jasmin = new Compiler().compileStringToClass(source, "InputBenchmark");
+			AssembledClass bytecode = new Compiler(new CompilerOptions()
+					.setBackend(CompilerOptions.Backend.BYTECODE)
+					.setTargetVersion(52))
+					.compileStringToClass(source, "InputBenchmark");
+
+			report("Jasmin, version 49", jasmin, inputFile, lineCount);
+			report("Bytecode, version 52", bytecode, inputFile, lineCount);
+		} finally {
+			Files.delete(inputFile);
+		}
+	}
+
+	private static Path writeInputFile( int lineCount ) throws IOException {
+		Path inputFile = Files.createTempFile("arc-input", ".txt");
+		List<String> lines = new ArrayList<>(lineCount);
+		for( int i = 0; i < lineCount; i++ ) {
+			lines.add("Line " + i + " of the input for the benchmark");
+		}
+		Files.write(inputFile, lines, StandardCharsets.UTF_8);
+		return inputFile;
+	}
+
+	private static void report( String name, AssembledClass aClass, Path inputFile, int lineCount ) throws IOException {
+		long best = Long.MAX_VALUE;
+		for( int run = 0; run < RUNS; run++ ) {
+			try( InputStream input = new BufferedInputStream(new FileInputStream(inputFile.toFile())) ) {
+				SandBox sandBox = new SandBox();
+				sandBox.setInput(input);
+
+				long start = System.nanoTime();
+				sandBox.runClass(aClass);
+				best = Math.min(best, System.nanoTime() - start);
+
+				String last = sandBox.getOutput().get(0);
+				if( !last.equals("Line " + (lineCount - 1) + " of the input for the benchmark") )
+					throw new IllegalStateException("Unexpected output: " + last);
+			}
+		}
+		System.out.printf("%-22s %8.1f ms  %12.0f lines/s%n", name, best / 1e6, lineCount / (best / 1e9));
+	}
+}
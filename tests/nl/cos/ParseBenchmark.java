@@ -0,0 +1,125 @@
+package nl.cos;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how fast the parser is with SLL first and LL only when SLL fails, against LL alone.
+ * It parses the examples in docs/ and large generated sources that are full of expressions,
+ * both cold, with empty DFA caches, and warm, after the same source was parsed before. The cold
+ * two-stage parse is also measured after {@link Compiler#warmUp()}, as the compile server does.
+ * <p>
+ * Run it with the number of statements of the generated sources as its only argument (30000 by
+ * default, which gives over a million tokens each). The last column is the throughput of the
+ * warm two-stage parse.
+ */
+public class ParseBenchmark {
+	private static final int RUNS = 5;
+
+	public static void main( String[] args ) throws Exception {
+		int statementCount = args.length > 0 ? Integer.parseInt(args[0]) : 30000;
+
+		File[] examples = new File("docs").listFiles((dir, name) -> name.endsWith(".arc"));
+		if( examples == null ) throw new IllegalStateException("Run the benchmark from the root of the project");
+		Arrays.sort(examples);
+		StringBuilder docs = new StringBuilder();
+		for( File example : examples ) docs.append(new String(Files.readAllBytes(example.toPath()), StandardCharsets.UTF_8)).append('\n');
+
+		System.out.printf("%-28s %10s %12s %12s %12s %12s %14s %12s%n", "Source", "Tokens",
+				"LL cold", "2-stage cold", "LL warm", "2-stage warm", "after warmUp", "tokens/ms");
+		report("docs/*.arc", docs.toString());
+		report("Arithmetic", generateArithmetic(statementCount));
+		report("Conditions and calls", generateConditions(statementCount));
+	}
+
+	/**
+	 * Generates declarations with long, nested arithmetic.
+	 */
+	private static String generateArithmetic( int statementCount ) {
+		StringBuilder source = new StringBuilder("v0:num <- 1;\n");
+		for( int i = 1; i < statementCount; i++ ) {
+			int a = i - 1, b = i / 2, c = i / 3;
+			source.append("v").append(i).append(":num <- ((v").append(a).append(" + ").append(i % 7 + 1)
+					.append(") * (v").append(b).append(" - 2) / ").append(i % 5 + 1)
+					.append(" % 9 + v").append(c).append(" * -2 - (v").append(a).append(" + v").append(b)
+					.append(") * 3);\n");
+		}
+		return source.toString();
+	}
+
+	/**
+	 * Generates conditions, loops and calls with boolean logic and comparisons.
+	 */
+	private static String generateConditions( int statementCount ) {
+		StringBuilder source = new StringBuilder("f:func <- (a:num, b:num):logic => { () <- a < b || a == b; };\n"
+				+ "x:num <- 0; y:num <- 1; ok:logic <- val;\n");
+		for( int i = 0; i < statementCount / 2; i++ ) {
+			source.append("is (x < ").append(i).append(" && ~(y >= x + ").append(i % 4).append(") || @f(x, y * 2) == ok) -> yes {\n")
+					.append("    x <- x + (y - ").append(i % 3).append(") * 2;\n")
+					.append("} no is (x ~= y && y <= ").append(i).append(") -> yes {\n")
+					.append("    rep (y > 0 && ok) { y <- y - 1; }\n")
+					.append("} no {\n")
+					.append("    ok <- (x > y) == ival;\n")
+					.append("}\n");
+		}
+		return source.toString();
+	}
+
+	private static void report( String name, String source ) throws Exception {
+		int tokens = tokenize(source).size();
+
+		long llCold = Long.MAX_VALUE, twoStageCold = Long.MAX_VALUE, afterWarmUp = Long.MAX_VALUE;
+		for( int run = 0; run < RUNS; run++ ) {
+			clearCaches();
+			llCold = Math.min(llCold, time(source, false));
+			clearCaches();
+			twoStageCold = Math.min(twoStageCold, time(source, true));
+			clearCaches();
+			Compiler.warmUp();
+			afterWarmUp = Math.min(afterWarmUp, time(source, true));
+		}
+
+		long llWarm = Long.MAX_VALUE, twoStageWarm = Long.MAX_VALUE;
+		clearCaches();
+		time(source, false);
+		for( int run = 0; run < RUNS; run++ ) llWarm = Math.min(llWarm, time(source, false));
+		clearCaches();
+		time(source, true);
+		for( int run = 0; run < RUNS; run++ ) twoStageWarm = Math.min(twoStageWarm, time(source, true));
+
+		System.out.printf("%-28s %10d %9.1f ms %9.1f ms %9.1f ms %9.1f ms %11.1f ms %12.0f%n", name, tokens,
+				llCold / 1e6, twoStageCold / 1e6, llWarm / 1e6, twoStageWarm / 1e6, afterWarmUp / 1e6,
+				tokens / (twoStageWarm / 1e6));
+	}
+
+	/**
+	 * Returns how long lexing and parsing the source took, in nanoseconds.
+	 */
+	private static long time( String source, boolean twoStage ) {
+		long start = System.nanoTime();
+		ArcLangLexer lexer = new ArcLangLexer(CharStreams.fromString(source));
+		lexer.removeErrorListeners();
+		Compiler.parse(new CommonTokenStream(lexer), twoStage);
+		return System.nanoTime() - start;
+	}
+
+	private static List<?> tokenize( String source ) {
+		ArcLangLexer lexer = new ArcLangLexer(CharStreams.fromString(source));
+		return new ArrayList<>(lexer.getAllTokens());
+	}
+
+	/**
+	 * Empties the DFA caches, which are shared by all lexers and parsers.
+	 */
+	private static void clearCaches() {
+		new ArcLangLexer(null).getInterpreter().clearDFA();
+		new ArcLangParser(null).getInterpreter().clearDFA();
+	}
+}
@@ -12,6 +12,7 @@ import java.util.List;
 
 public class SandBox {
 	private ArrayList<String> output = new ArrayList<>();
+	private InputStream input = new ByteArrayInputStream(new byte[0]);
 
 	/**
 	 * Java loads classes (and all of their dependencies) using a class loader.
@@ -26,6 +27,20 @@ public class SandBox {
 		}
 	}
 
+	/**
+	 * Sets the text that the class reads as system input when it runs.
+	 */
+	public void setInput( String input ) {
+		this.input = new ByteArrayInputStream(input.getBytes());
+	}
+
+	/**
+	 * Sets the stream that the class reads as system input when it runs, such as a file.
+	 */
+	public void setInput( InputStream input ) {
+		this.input = input;
+	}
+
 	public void runClass( AssembledClass aClass ) {
 		// Load the class in a separate ClassLoader
 		SandBoxClassLoader classLoader = new SandBoxClassLoader();
@@ -33,30 +48,44 @@ public class SandBox {
 
 		// Try to invoke the main method
 		PrintStream oldSystemOut = System.out;
+		InputStream oldSystemIn = System.in;
 		ByteArrayOutputStream outputData = new ByteArrayOutputStream();
 		PrintStream outputStream = new PrintStream(outputData);
 
 		try {
 			System.setOut(outputStream);
+			System.setIn(input);
 
 			Method mainMethod = loadedClass.getMethod("main", String[].class);
 			String[] args = new String[0];
 			Object[] methodArgs = {args};
 			mainMethod.invoke(null, methodArgs);
 
-			System.out.flush();
-			splitOutputIntoLines(outputData);
-
 		} catch( NoSuchMethodException nsme ) {
 			throw new IllegalArgumentException("Class file has no main");
 		} catch( IllegalAccessException | InvocationTargetException e ) {
 			throw new IllegalArgumentException("Failed to start main");
 		} finally {
-			// Reset System.out to the original stream
+			// Keep the output, also of a program that failed halfway
+			System.out.flush();
+			splitOutputIntoLines(outputData);
+
+			// Reset System.out and System.in to the original streams
 			System.setOut(oldSystemOut);
+			System.setIn(oldSystemIn);
 		}
 	}
 
+	/**
+	 * Loads and links a class without running it. Linking makes the JVM verify the bytecode, so
+	 * this throws a VerifyError (or another LinkageError) if the class is not valid.
+	 */
+	public void verifyClass( AssembledClass aClass ) throws ClassNotFoundException {
+		SandBoxClassLoader classLoader = new SandBoxClassLoader();
+		classLoader.loadFromData(aClass.getClassBytes(), aClass.getClassName());
+		Class.forName(aClass.getClassName(), true, classLoader);
+	}
+
 	private void splitOutputIntoLines( ByteArrayOutputStream baos ) {
 		String allOutput = baos.toString();
 		output.clear();
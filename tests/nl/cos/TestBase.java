@@ -26,7 +26,27 @@ public abstract class TestBase {
         AssembledClass aClass = AssembledClass.assemble(code);
 
         // Run the class and return the output
+        return runClass(aClass);
+    }
+
+    /**
+     * Helper method that runs an already assembled class, for example one that was written
+     * by the bytecode backend. It returns the output of the execution.
+     */
+    protected List<String> runClass(AssembledClass aClass ) throws AssembleException {
+        return runClass(aClass, "");
+    }
+
+    /**
+     * Helper method that runs an already assembled class with the given text as its system
+     * input. It returns the output of the execution.
+     */
+    protected List<String> runClass(AssembledClass aClass, String input ) throws AssembleException {
+        if( aClass == null ) {
+            throw new AssembleException("No valid class to run");
+        }
         SandBox s = new SandBox();
+        s.setInput(input);
         s.runClass(aClass);
         return s.getOutput();
     }